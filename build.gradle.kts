@@ -1,10 +1,17 @@
 plugins {
     id("java")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "org.example"
 version = "1.0-SNAPSHOT"
 
+java {
+    toolchain {
+        languageVersion = JavaLanguageVersion.of(21)
+    }
+}
+
 repositories {
     mavenCentral()
 }
@@ -17,3 +24,27 @@ dependencies {
 
     runtimeOnly("ch.qos.logback:logback-classic:1.4.11")
 }
+
+jmh {
+    jmhVersion = "1.37"
+    // Allocation rate per operation is reported next to every score
+    profilers = listOf("gc")
+    resultFormat = "JSON"
+}
+
+// Concurrent addReview mutations must lose no review; fails the build on any mismatch
+tasks.register<JavaExec>("reviewStress") {
+    group = "verification"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass = "org.example.ReviewStress"
+    args = listOf("16", "500")
+}
+
+// A user selected below a review must match the user read from the root on a cluster of shards
+tasks.register<JavaExec>("shardCheck") {
+    group = "verification"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass = "org.example.ShardCheck"
+    args = listOf("2", "8190")
+    systemProperty("data.dir", layout.buildDirectory.dir("shard-check").get().asFile.path)
+}
@@ -0,0 +1,94 @@
+package org.example;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import org.example.utils.FileUtils;
+import org.example.utils.JsonUtils;
+import org.example.utils.ResultWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a large query result and parsing of a review file through {@link JsonUtils}, and
+ * the same result written directly by {@link ResultWriter}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonUtilsBenchmark {
+
+    private static final String[] REVIEW_FIELDS = {"id", "text", "rating", "beerId", "userId"};
+
+    @Param({"10000"})
+    public int reviews;
+
+    private ExecutionResult executionResult;
+    private Map<String, Object> result;
+    private String reviewsFile;
+
+    @Setup
+    public void setUp() {
+        String dataDir = SyntheticDataGenerator.generate(reviews);
+        reviewsFile = dataDir + "/" + Main.REVIEWS_FILE;
+        Main.install(Main.loadData(dataDir), null);
+        GraphQL graphQL = Main.createGraphQLEntryPoint(Main.parseSchema(Main.SCHEMA_PATH), Main.buildRuntimeWiring());
+        String query = FileUtils.readFileContent("/graphql/query/reviews-query.graphql");
+        executionResult = graphQL.execute(Main.prepareExecutionInput(ExecutionInput.newExecutionInput().query(query).build()));
+        result = executionResult.toSpecification();
+    }
+
+    @Benchmark
+    public String serializeToJson() {
+        return JsonUtils.serializeToJson(result);
+    }
+
+    @Benchmark
+    public String serializeToCompactJson() {
+        return JsonUtils.serializeToCompactJson(result);
+    }
+
+    @Benchmark
+    public void writeCompactJson() {
+        JsonUtils.writeCompactJson(OutputStream.nullOutputStream(), result);
+    }
+
+    @Benchmark
+    public void writeResult() {
+        ResultWriter.write(OutputStream.nullOutputStream(), executionResult);
+    }
+
+    @Benchmark
+    public byte[] resultToBytes() {
+        return ResultWriter.toBytes(executionResult);
+    }
+
+    @Benchmark
+    public List<Map<String, String>> loadFromJsonFile() {
+        return JsonUtils.loadFromJsonFile(reviewsFile, new TypeReference<>() {});
+    }
+
+    @Benchmark
+    public void streamFromJsonFile(Blackhole blackhole) {
+        JsonUtils.streamFromJsonFile(reviewsFile, REVIEW_FIELDS, blackhole::consume);
+    }
+}
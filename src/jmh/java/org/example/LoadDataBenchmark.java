@@ -0,0 +1,61 @@
+package org.example;
+
+import org.example.persistence.BinarySnapshot;
+import org.example.repository.CatalogRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold load of a whole data directory at increasing scales, from the JSON files and from the binary snapshot,
+ * into either store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms12g", "-Xmx12g"})
+public class LoadDataBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    public int reviews;
+
+    @Param({"in-memory", Main.COLUMNAR_STORE})
+    public String store;
+
+    private String dataDir;
+    private Path binarySnapshot;
+
+    @Setup
+    public void setUp() {
+        System.setProperty(Main.STORE_PROPERTY, store);
+        dataDir = SyntheticDataGenerator.generate(reviews);
+        binarySnapshot = Paths.get(dataDir, Main.BINARY_SNAPSHOT_FILE);
+        if (!Main.hasFreshBinarySnapshot(dataDir)) {
+            BinarySnapshot.write(binarySnapshot, Main.loadJsonData(dataDir));
+        }
+    }
+
+    @Benchmark
+    public CatalogRepository loadJsonData() {
+        return Main.loadJsonData(dataDir);
+    }
+
+    @Benchmark
+    public CatalogRepository loadBinarySnapshot() {
+        return BinarySnapshot.read(binarySnapshot, Main.newRepository());
+    }
+}
@@ -0,0 +1,95 @@
+package org.example;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import org.example.execution.DurabilityInstrumentation;
+import org.example.repository.CatalogRepository;
+import org.example.search.CatalogSearch;
+import org.example.utils.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Runs each mutation of the runtime wiring, including the append to the mutation log. With
+ * {@code async} durability the response does not wait for the fsync; {@code sync} waits for it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MutationBenchmark {
+
+    private static final String ADD_REVIEW = "mutation { addReview(input: { text: \"Great beer!\", rating: 5, beerId: \"1\", userId: \"1\" }) { id text rating } }";
+    private static final String ADD_USER = "mutation { addUser(input: { name: \"John Doe\", email: \"john@example.com\" }) { id name email } }";
+
+    @Param({"10000"})
+    public int reviews;
+
+    @Param({DurabilityInstrumentation.ASYNC, DurabilityInstrumentation.SYNC})
+    public String durability;
+
+    private GraphQL graphQL;
+    private String addBeer;
+    private Path logDir;
+
+    @Setup
+    public void setUp() throws IOException {
+        CatalogRepository repository = Main.loadData(SyntheticDataGenerator.generate(reviews));
+        logDir = Files.createTempDirectory("graphql-jmh-log");
+        Main.mutationLog = Main.openMutationLog(logDir.toString(), repository);
+        Main.install(repository, CatalogSearch.build(repository));
+        graphQL = Main.createGraphQLEntryPoint(Main.parseSchema(Main.SCHEMA_PATH), Main.buildRuntimeWiring());
+        addBeer = FileUtils.readFileContent("/graphql/query/mutation-query.graphql");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Main.mutationLog.close();
+        try (Stream<Path> files = Files.walk(logDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public ExecutionResult addBeer() {
+        return execute(addBeer);
+    }
+
+    @Benchmark
+    public ExecutionResult addReview() {
+        return execute(ADD_REVIEW);
+    }
+
+    @Benchmark
+    public ExecutionResult addUser() {
+        return execute(ADD_USER);
+    }
+
+    private ExecutionResult execute(String mutation) {
+        return graphQL.execute(Main.prepareExecutionInput(ExecutionInput.newExecutionInput()
+                .query(mutation)
+                .extensions(Map.of("durability", durability))
+                .build()));
+    }
+}
@@ -0,0 +1,62 @@
+package org.example;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import org.example.utils.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes each bundled read query in {@code src/main/resources/graphql/query} end to end. The root
+ * fields of {@code catalogue-query} are independent, so with an asynchronous resolver executor they
+ * resolve concurrently and the query takes about as long as its slowest field rather than their sum.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+    @Param({"beer-query", "reviews-query", "users-and-reviews-query", "catalogue-query"})
+    public String query;
+
+    @Param({"10000"})
+    public int reviews;
+
+    @Param({"in-memory", Main.COLUMNAR_STORE})
+    public String store;
+
+    @Param({Main.DIRECT_EXECUTOR, Main.VIRTUAL_EXECUTOR, Main.FORK_JOIN_EXECUTOR})
+    public String executor;
+
+    private GraphQL graphQL;
+    private String queryText;
+
+    @Setup
+    public void setUp() {
+        System.setProperty(Main.STORE_PROPERTY, store);
+        Main.install(Main.loadData(SyntheticDataGenerator.generate(reviews)), null);
+        Main.resolverExecutor = Main.newResolverExecutor(executor);
+        graphQL = Main.createGraphQLEntryPoint(Main.parseSchema(Main.SCHEMA_PATH), Main.buildRuntimeWiring());
+        queryText = FileUtils.readFileContent("/graphql/query/" + query + ".graphql");
+    }
+
+    @Benchmark
+    public ExecutionResult execute() {
+        return graphQL.execute(Main.prepareExecutionInput(ExecutionInput.newExecutionInput().query(queryText).build()));
+    }
+}
@@ -0,0 +1,180 @@
+package org.example;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import org.example.repository.CatalogRepository;
+import org.example.search.CatalogSearch;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * Stress check that concurrent {@code addReview} mutations lose no review: many writer threads add
+ * reviews to a handful of beers and users, so that they contend on the same rows, and afterwards the
+ * global, per-beer and per-user review counts, lists and histograms must match what was added.
+ * Exits with status 1 on any mismatch. Run with {@code gradle reviewStress}; the arguments are the
+ * number of writers and the number of reviews each one adds.
+ */
+public class ReviewStress {
+
+    private static final int HOT_ROWS = 4;
+    private static final String ADD_REVIEW = "mutation($beerId: ID!, $userId: ID!, $rating: Int!) { "
+            + "addReview(input: { text: \"Stress review\", rating: $rating, beerId: $beerId, userId: $userId }) { id } }";
+    private static final String TOTAL = "{ reviewsConnection(first: 0) { totalCount } }";
+    private static final String BEER = "query($id: ID!) { beer(id: $id) { reviewCount reviews { id } "
+            + "ratingHistogram { count } reviewsConnection(first: 0) { totalCount } } }";
+    private static final String USER = "query($id: ID!) { user(id: $id) { reviewCount reviews { id } "
+            + "ratingHistogram { count } reviewsConnection(first: 0) { totalCount } } }";
+
+    private static GraphQL graphQL;
+
+    public static void main(String[] args) throws Exception {
+        int writers = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int reviewsPerWriter = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        CatalogRepository repository = Main.loadData(SyntheticDataGenerator.generate(10_000));
+        Path logDir = Files.createTempDirectory("graphql-review-stress");
+        Main.mutationLog = Main.openMutationLog(logDir.toString(), repository);
+        Main.install(repository, CatalogSearch.build(repository));
+        graphQL = Main.createGraphQLEntryPoint(Main.parseSchema(Main.SCHEMA_PATH), Main.buildRuntimeWiring());
+
+        long totalBefore = total();
+        Map<String, Counts> beersBefore = new HashMap<>();
+        Map<String, Counts> usersBefore = new HashMap<>();
+        for (int i = 1; i <= HOT_ROWS; i++) {
+            beersBefore.put(String.valueOf(i), counts(BEER, "beer", String.valueOf(i)));
+            usersBefore.put(String.valueOf(i), counts(USER, "user", String.valueOf(i)));
+        }
+
+        // Ids of the added reviews by beer and by user
+        Map<String, Set<String>> addedByBeer = new ConcurrentHashMap<>();
+        Map<String, Set<String>> addedByUser = new ConcurrentHashMap<>();
+        List<String> failures = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        long started = System.nanoTime();
+        for (int w = 0; w < writers; w++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                awaitQuietly(start);
+                for (int i = 0; i < reviewsPerWriter; i++) {
+                    String beerId = String.valueOf(1 + random.nextInt(HOT_ROWS));
+                    String userId = String.valueOf(1 + random.nextInt(HOT_ROWS));
+                    ExecutionResult result = execute(ADD_REVIEW, Map.of("beerId", beerId, "userId", userId, "rating", 1 + random.nextInt(5)));
+                    if (!result.getErrors().isEmpty()) {
+                        synchronized (failures) {
+                            failures.add(result.getErrors().toString());
+                        }
+                        continue;
+                    }
+                    String id = (String) ((Map<?, ?>) ((Map<?, ?>) result.getData()).get("addReview")).get("id");
+                    addedByBeer.computeIfAbsent(beerId, key -> ConcurrentHashMap.newKeySet()).add(id);
+                    addedByUser.computeIfAbsent(userId, key -> ConcurrentHashMap.newKeySet()).add(id);
+                }
+            }, "review-writer-" + w);
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+
+        List<String> mismatches = new ArrayList<>(failures);
+        long added = addedByBeer.values().stream().mapToLong(Set::size).sum();
+        long expectedTotal = totalBefore + (long) writers * reviewsPerWriter;
+        check(mismatches, "global", added + totalBefore, expectedTotal);
+        check(mismatches, "global", total(), expectedTotal);
+        for (int i = 1; i <= HOT_ROWS; i++) {
+            String id = String.valueOf(i);
+            checkRow(mismatches, "beer " + id, beersBefore.get(id), counts(BEER, "beer", id), addedByBeer.getOrDefault(id, Set.of()));
+            checkRow(mismatches, "user " + id, usersBefore.get(id), counts(USER, "user", id), addedByUser.getOrDefault(id, Set.of()));
+        }
+
+        Main.mutationLog.close();
+        try (Stream<Path> files = Files.walk(logDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+
+        System.out.println(writers + " writers added " + added + " reviews in " + elapsedMillis + " ms");
+        if (!mismatches.isEmpty()) {
+            mismatches.forEach(System.err::println);
+            System.exit(1);
+        }
+        System.out.println("No review lost: global, per-beer and per-user counts match");
+        System.exit(0);
+    }
+
+    private static void checkRow(List<String> mismatches, String row, Counts before, Counts after, Set<String> added) {
+        long expected = before.reviewCount() + added.size();
+        check(mismatches, row + " reviewCount", after.reviewCount(), expected);
+        check(mismatches, row + " reviews", after.reviewIds().size(), expected);
+        check(mismatches, row + " ratingHistogram", after.histogramTotal(), expected);
+        check(mismatches, row + " reviewsConnection", after.connectionTotal(), expected);
+        Set<String> missing = new HashSet<>(added);
+        missing.removeAll(after.reviewIds());
+        if (!missing.isEmpty()) {
+            mismatches.add(row + ": " + missing.size() + " added reviews are missing from its reviews");
+        }
+    }
+
+    private static void check(List<String> mismatches, String what, long actual, long expected) {
+        if (actual != expected) {
+            mismatches.add(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    private static long total() {
+        Map<?, ?> data = execute(TOTAL, Map.of()).getData();
+        return ((Number) ((Map<?, ?>) data.get("reviewsConnection")).get("totalCount")).longValue();
+    }
+
+    private static Counts counts(String query, String field, String id) {
+        ExecutionResult result = execute(query, Map.of("id", id));
+        if (!result.getErrors().isEmpty()) {
+            throw new IllegalStateException("Failed to read " + field + " " + id + ": " + result.getErrors());
+        }
+        Map<?, ?> row = (Map<?, ?>) ((Map<?, ?>) result.getData()).get(field);
+        Set<String> reviewIds = new HashSet<>();
+        for (Object review : (List<?>) row.get("reviews")) {
+            reviewIds.add((String) ((Map<?, ?>) review).get("id"));
+        }
+        long histogramTotal = 0;
+        for (Object bucket : (List<?>) row.get("ratingHistogram")) {
+            histogramTotal += ((Number) ((Map<?, ?>) bucket).get("count")).longValue();
+        }
+        long connectionTotal = ((Number) ((Map<?, ?>) row.get("reviewsConnection")).get("totalCount")).longValue();
+        return new Counts(((Number) row.get("reviewCount")).longValue(), reviewIds, histogramTotal, connectionTotal);
+    }
+
+    private static ExecutionResult execute(String query, Map<String, Object> variables) {
+        return graphQL.execute(Main.prepareExecutionInput(ExecutionInput.newExecutionInput()
+                .query(query)
+                .variables(variables)
+                .build()));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record Counts(long reviewCount, Set<String> reviewIds, long histogramTotal, long connectionTotal) {
+    }
+}
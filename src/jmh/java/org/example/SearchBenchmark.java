@@ -0,0 +1,51 @@
+package org.example;
+
+import org.example.repository.CatalogRepository;
+import org.example.search.CatalogSearch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full-text search at increasing scales. Every review of the synthetic data contains "beer" and each
+ * other word is in about a fifth of them, so these are the worst case for posting list length.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class SearchBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int reviews;
+
+    @Param({"beer", "hoppy malty", "crisp be", "beer 12"})
+    public String term;
+
+    private CatalogRepository repository;
+    private CatalogSearch search;
+
+    @Setup
+    public void setUp() {
+        repository = Main.loadData(SyntheticDataGenerator.generate(reviews));
+        search = CatalogSearch.build(repository);
+    }
+
+    @Benchmark
+    public List<Object> search() {
+        return search.search(repository, term, List.of(CatalogSearch.BEER, CatalogSearch.REVIEW), 20);
+    }
+}
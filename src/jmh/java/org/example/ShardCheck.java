@@ -0,0 +1,163 @@
+package org.example;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import org.example.shard.ShardClient;
+import org.example.shard.ShardCluster;
+import org.example.shard.ShardRouter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Check that a user read through a router is the same wherever it is selected: a user below a review
+ * comes from the shard of the review's beer, but its aggregates must still cover every shard. Starts
+ * the shards as child processes on a split copy of generated data, in the directory of the
+ * {@code data.dir} property, and compares the user below reviews and below an added review with the
+ * user read from the root. Exits with status 1 on any mismatch. Run with {@code gradle shardCheck};
+ * the arguments are the number of shards and the port of the first one.
+ */
+public class ShardCheck {
+
+    private static final int USERS = 8;
+    private static final long START_TIMEOUT_SECONDS = 120;
+    private static final String USER_FIELDS = "id reviewCount averageRating ratingHistogram { rating count } reviews { id } "
+            + "reviewsConnection(first: 0) { totalCount }";
+    private static final String USER = "query($id: ID!) { user(id: $id) { " + USER_FIELDS + " } }";
+    private static final String USER_BELOW_REVIEWS = "query($id: ID!) { user(id: $id) { reviews { id user { " + USER_FIELDS + " } } } }";
+    private static final String USER_BELOW_BEER = "query($id: ID!) { beer(id: $id) { reviews { id user { " + USER_FIELDS + " } } } }";
+    private static final String REVIEW_COUNT = "query($id: ID!) { user(id: $id) { reviewCount } }";
+    private static final String ADD_REVIEW = "mutation($beerId: ID!, $userId: ID!) { "
+            + "addReview(input: { text: \"Shard check\", rating: 3, beerId: $beerId, userId: $userId }) { user { " + USER_FIELDS + " } } }";
+
+    private static GraphQL router;
+
+    public static void main(String[] args) throws Exception {
+        int shardCount = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int firstPort = args.length > 1 ? Integer.parseInt(args[1]) : 8190;
+
+        prepareData(shardCount);
+        List<String> mismatches = new ArrayList<>();
+        try (ShardCluster cluster = ShardCluster.start(Main.class, Main.DATA_DIR, shardCount, firstPort)) {
+            ShardClient client = new ShardClient(cluster.getEndpoints());
+            cluster.awaitReady(client, START_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            router = ShardRouter.newGraphQL(Main.parseSchema(Main.SCHEMA_PATH), client, SimplePerformantInstrumentation.INSTANCE, true);
+
+            int spread = 0;
+            for (int i = 1; i <= USERS; i++) {
+                String userId = String.valueOf(i);
+                if (shardsWithReviews(client, userId) > 1) {
+                    spread++;
+                }
+                Map<String, Object> user = field(execute(USER, Map.of("id", userId)), "user");
+                List<?> reviews = (List<?>) field(execute(USER_BELOW_REVIEWS, Map.of("id", userId)), "user").get("reviews");
+                if (reviews.isEmpty()) {
+                    continue;
+                }
+                for (Object review : reviews) {
+                    check(mismatches, "user " + userId + " below its review " + ((Map<?, ?>) review).get("id"), ((Map<?, ?>) review).get("user"), user);
+                }
+                String beerId = beerOf((String) ((Map<?, ?>) reviews.getFirst()).get("id"));
+                for (Object review : (List<?>) field(execute(USER_BELOW_BEER, Map.of("id", beerId)), "beer").get("reviews")) {
+                    Map<?, ?> reviewUser = (Map<?, ?>) ((Map<?, ?>) review).get("user");
+                    if (userId.equals(reviewUser.get("id"))) {
+                        check(mismatches, "user " + userId + " below beer " + beerId, reviewUser, user);
+                    }
+                }
+
+                Map<String, Object> added = field(execute(ADD_REVIEW, Map.of("beerId", beerId, "userId", userId)), "addReview");
+                check(mismatches, "user " + userId + " below its added review", added.get("user"), field(execute(USER, Map.of("id", userId)), "user"));
+            }
+            if (spread == 0) {
+                mismatches.add("No user has reviews on more than one shard, nothing was checked");
+            }
+            System.out.println(spread + " of " + USERS + " users have reviews on several of " + shardCount + " shards");
+        }
+
+        if (!mismatches.isEmpty()) {
+            mismatches.forEach(System.err::println);
+            System.exit(1);
+        }
+        System.out.println("Users match wherever they are selected");
+        System.exit(0);
+    }
+
+    // Generated data, split once for the shards; their mutation logs start empty on every run
+    private static void prepareData(int shardCount) throws IOException {
+        Path dataDir = Path.of(Main.DATA_DIR);
+        if (Files.exists(dataDir)) {
+            try (Stream<Path> files = Files.walk(dataDir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        Files.createDirectories(dataDir);
+        try (Stream<Path> files = Files.list(Path.of(SyntheticDataGenerator.generate(10_000)))) {
+            for (Path file : files.filter(path -> path.toString().endsWith(".json")).toList()) {
+                Files.copy(file, dataDir.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Main.splitData(shardCount);
+    }
+
+    private static int shardsWithReviews(ShardClient client, String userId) {
+        int shards = 0;
+        for (int shard = 0; shard < client.size(); shard++) {
+            Map<?, ?> data = (Map<?, ?>) client.execute(shard, REVIEW_COUNT, Map.of("id", userId), Map.of()).join().get("data");
+            if (((Number) ((Map<?, ?>) data.get("user")).get("reviewCount")).intValue() > 0) {
+                shards++;
+            }
+        }
+        return shards;
+    }
+
+    private static String beerOf(String reviewId) {
+        Map<String, Object> review = field(execute("query($id: ID!) { review(id: $id) { beer { id } } }", Map.of("id", reviewId)), "review");
+        return (String) ((Map<?, ?>) review.get("beer")).get("id");
+    }
+
+    // Reviews are compared as sets, since the order of a user's reviews differs between shards
+    private static void check(List<String> mismatches, String what, Object actual, Map<String, Object> expected) {
+        if (!normalized((Map<?, ?>) actual).equals(normalized(expected))) {
+            mismatches.add(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    private static Map<String, Object> normalized(Map<?, ?> user) {
+        List<String> reviewIds = ((List<?>) user.get("reviews")).stream()
+                .map(review -> String.valueOf(((Map<?, ?>) review).get("id")))
+                .sorted()
+                .toList();
+        Object average = user.get("averageRating") == null ? null : Math.round(((Number) user.get("averageRating")).doubleValue() * 1e9) / 1e9;
+        return Map.of("reviewCount", user.get("reviewCount"),
+                "averageRating", String.valueOf(average),
+                "ratingHistogram", user.get("ratingHistogram"),
+                "reviews", reviewIds,
+                "reviewsConnection", user.get("reviewsConnection"));
+    }
+
+    private static ExecutionResult execute(String query, Map<String, Object> variables) {
+        ExecutionResult result = router.execute(ShardRouter.prepareExecutionInput(ExecutionInput.newExecutionInput()
+                .query(query)
+                .variables(variables)
+                .build()));
+        if (!result.getErrors().isEmpty()) {
+            throw new IllegalStateException("Failed to execute " + query + ": " + result.getErrors());
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> field(ExecutionResult result, String name) {
+        return (Map<String, Object>) ((Map<?, ?>) result.getData()).get(name);
+    }
+}
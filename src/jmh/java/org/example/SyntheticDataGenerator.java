@@ -0,0 +1,107 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Writes a data directory in the same format as {@code data/*.json}, scaled by the number of reviews.
+ * Ids are sequential numbers, so the ids used by the bundled queries ("1") always exist.
+ * Directories are cached under the temp dir and reused across benchmark forks.
+ */
+public class SyntheticDataGenerator {
+
+    private static final String[] STYLES = {"IPA", "Stout", "Lager", "Porter", "Pilsner", "Wheat", "Sour", "Pale Ale"};
+    private static final String[] CITIES = {"Kyiv", "Lviv", "Odesa", "Kharkiv", "Dnipro"};
+    private static final String[] WORDS = {"great", "hoppy", "smooth", "bitter", "malty", "crisp", "fruity", "dark", "light", "balanced"};
+
+    private SyntheticDataGenerator() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    public static void main(String[] args) {
+        System.out.println(generate(Integer.parseInt(args[0])));
+    }
+
+    /**
+     * Returns the absolute path of a data directory holding {@code reviewCount} reviews, generating it
+     * on first use.
+     */
+    public static String generate(int reviewCount) {
+        Path dir = Paths.get(System.getProperty("java.io.tmpdir"), "graphql-jmh-data", "reviews-" + reviewCount).toAbsolutePath();
+        if (Files.exists(dir.resolve(Main.REVIEWS_FILE))) {
+            return dir.toString();
+        }
+
+        int userCount = Math.max(1, reviewCount / 20);
+        int beerCount = Math.max(1, reviewCount / 50);
+        int breweryCount = Math.max(1, reviewCount / 2000);
+        Random random = new Random(42);
+        try {
+            Files.createDirectories(dir);
+            try (JsonGenerator json = generator(dir.resolve(Main.BREWERIES_FILE))) {
+                json.writeStartArray();
+                for (int i = 1; i <= breweryCount; i++) {
+                    json.writeStartObject();
+                    json.writeStringField("id", String.valueOf(i));
+                    json.writeStringField("name", "Brewery " + i);
+                    json.writeStringField("location", CITIES[random.nextInt(CITIES.length)]);
+                    json.writeEndObject();
+                }
+                json.writeEndArray();
+            }
+            try (JsonGenerator json = generator(dir.resolve(Main.BEERS_FILE))) {
+                json.writeStartArray();
+                for (int i = 1; i <= beerCount; i++) {
+                    json.writeStartObject();
+                    json.writeStringField("id", String.valueOf(i));
+                    json.writeStringField("name", "Beer " + i);
+                    json.writeStringField("style", STYLES[random.nextInt(STYLES.length)]);
+                    json.writeStringField("breweryId", String.valueOf(1 + random.nextInt(breweryCount)));
+                    json.writeEndObject();
+                }
+                json.writeEndArray();
+            }
+            try (JsonGenerator json = generator(dir.resolve(Main.USERS_FILE))) {
+                json.writeStartArray();
+                for (int i = 1; i <= userCount; i++) {
+                    json.writeStartObject();
+                    json.writeStringField("id", String.valueOf(i));
+                    json.writeStringField("name", "User " + i);
+                    json.writeStringField("email", "user" + i + "@example.com");
+                    json.writeEndObject();
+                }
+                json.writeEndArray();
+            }
+            // Written last: its presence marks the directory as complete
+            Path reviewsFile = dir.resolve(Main.REVIEWS_FILE);
+            Path partialFile = dir.resolve(Main.REVIEWS_FILE + ".partial");
+            try (JsonGenerator json = generator(partialFile)) {
+                json.writeStartArray();
+                for (int i = 1; i <= reviewCount; i++) {
+                    json.writeStartObject();
+                    json.writeStringField("id", String.valueOf(i));
+                    json.writeStringField("text", WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " beer");
+                    json.writeStringField("rating", String.valueOf(1 + random.nextInt(5)));
+                    json.writeStringField("beerId", String.valueOf(1 + random.nextInt(beerCount)));
+                    json.writeStringField("userId", String.valueOf(1 + random.nextInt(userCount)));
+                    json.writeEndObject();
+                }
+                json.writeEndArray();
+            }
+            Files.move(partialFile, reviewsFile);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to generate synthetic data in: " + dir, e);
+        }
+        return dir.toString();
+    }
+
+    private static JsonGenerator generator(Path file) throws IOException {
+        return new JsonFactory().createGenerator(Files.newOutputStream(file));
+    }
+}
@@ -1,58 +1,269 @@
 package org.example;
 
+import graphql.ExecutionInput;
 import graphql.ExecutionResult;
 import graphql.GraphQL;
+import graphql.GraphQLContext;
+import graphql.analysis.MaxQueryDepthInstrumentation;
+import graphql.execution.DataFetcherResult;
+import graphql.execution.instrumentation.ChainedInstrumentation;
+import graphql.execution.instrumentation.Instrumentation;
+import graphql.execution.preparsed.persisted.PersistedQuerySupport;
+import graphql.schema.AsyncDataFetcher;
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
 import graphql.schema.GraphQLSchema;
 import graphql.schema.idl.RuntimeWiring;
 import graphql.schema.idl.SchemaGenerator;
 import graphql.schema.idl.SchemaParser;
 import graphql.schema.idl.TypeDefinitionRegistry;
+import org.example.execution.BulkResult;
+import org.example.execution.CacheDependencyInstrumentation;
+import org.example.execution.CardinalityComplexityCalculator;
+import org.example.execution.DocumentCache;
+import org.example.execution.DurabilityInstrumentation;
+import org.example.execution.PagedConnection;
+import org.example.execution.QueryCostInstrumentation;
+import org.example.execution.ResponseCache;
+import org.example.metrics.Histogram;
+import org.example.metrics.Metrics;
+import org.example.metrics.MetricsInstrumentation;
 import org.example.models.Beer;
 import org.example.models.Brewery;
+import org.example.models.RatingStats;
 import org.example.models.Review;
 import org.example.models.User;
+import org.example.persistence.BinarySnapshot;
+import org.example.persistence.MutationLog;
+import org.example.reload.Generation;
+import org.example.reload.GenerationInstrumentation;
+import org.example.reload.HotReloader;
+import org.example.repository.CatalogDataLoaders;
+import org.example.repository.CatalogRepository;
+import org.example.repository.ColumnarCatalogRepository;
+import org.example.repository.InMemoryCatalogRepository;
+import org.example.search.CatalogSearch;
+import org.example.server.GraphQLHttpServer;
+import org.example.shard.Partitioning;
+import org.example.shard.ShardClient;
+import org.example.shard.ShardCluster;
+import org.example.shard.ShardRouter;
+import org.example.subscription.EventPublisher;
+import org.example.subscription.OverflowPolicy;
 import org.example.utils.FileUtils;
 import org.example.utils.JsonUtils;
-import com.fasterxml.jackson.core.type.TypeReference;
+import org.example.utils.ResultWriter;
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderRegistry;
+import org.reactivestreams.FlowAdapters;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
 
 import static graphql.schema.idl.RuntimeWiring.newRuntimeWiring;
 
 public class Main {
 
-    private static final String SCHEMA_PATH = "/graphql/schema/beer.graphql";
+    static final String SCHEMA_PATH = "/graphql/schema/beer.graphql";
     private static final String BEER_PATH = "/graphql/query/beer-query.graphql";
     private static final String REVIEWS_QUERY_PATH = "/graphql/query/reviews-query.graphql";
     private static final String USERS_AND_REVIEWS_QUERY_PATH = "/graphql/query/users-and-reviews-query.graphql";
 
-    private static final String BEERS_DATA_PATH = "data/beers.json";
-    private static final String BREWERIES_DATA_PATH = "data/breweries.json";
-    private static final String REVIEWS_DATA_PATH = "data/reviews.json";
-    private static final String USERS_DATA_PATH = "data/users.json";
+    // Each shard process is pointed at its own data directory
+    static final String DATA_DIR = System.getProperty(ShardCluster.DATA_DIR_PROPERTY, "data");
+    static final String BEERS_FILE = "beers.json";
+    static final String BREWERIES_FILE = "breweries.json";
+    static final String REVIEWS_FILE = "reviews.json";
+    static final String USERS_FILE = "users.json";
+    static final String MUTATION_LOG_FILE = "mutations.log";
+    static final String BINARY_SNAPSHOT_FILE = "catalog.snapshot";
 
-    private static final Map<String, Beer> beers = new ConcurrentHashMap<>();
-    private static final Map<String, Brewery> breweries = new ConcurrentHashMap<>();
-    private static final Map<String, Review> reviews = new ConcurrentHashMap<>();
-    private static final Map<String, User> users = new ConcurrentHashMap<>();
+    private static final String BEERS_DATA_PATH = DATA_DIR + "/" + BEERS_FILE;
+    private static final String REVIEWS_DATA_PATH = DATA_DIR + "/" + REVIEWS_FILE;
+    private static final String USERS_DATA_PATH = DATA_DIR + "/" + USERS_FILE;
+
+    private static final String[] BREWERY_FIELDS = {"id", "name", "location"};
+    private static final String[] BEER_FIELDS = {"id", "name", "style", "breweryId"};
+    private static final String[] REVIEW_FIELDS = {"id", "text", "rating", "beerId", "userId"};
+    private static final String[] USER_FIELDS = {"id", "name", "email"};
+
+    private static final long COMPACTION_THRESHOLD = 10_000;
+    private static final long COMPACTION_PERIOD_SECONDS = 60;
+    private static final long DOCUMENT_CACHE_MAX_WEIGHT = 1_000_000;
+    private static final int MAX_PAGE_SIZE = 100;
+    // The schema default of first, also used for an explicit null
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_BULK_SIZE = 10_000;
+    private static final int DEFAULT_PORT = 8080;
+    private static final long SHARD_START_TIMEOUT_SECONDS = 120;
+    private static final int MAX_QUERY_DEPTH = 12;
+    private static final int MAX_QUERY_COST = 1_000_000;
+    private static final int SUBSCRIPTION_BUFFER_SIZE = 256;
+    private static final long DRAIN_WAIT_SECONDS = 5;
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private static final String READ_VIEW = "readView";
+    private static final String CATALOG = "catalog";
+    private static final String ROUTED_USER_IDS = "routedUserIds";
+    private static final String DATA_FILES = "data";
+    private static final String SCHEMA_FILE = "schema";
+
+    static final String STORE_PROPERTY = "catalog.store";
+    static final String COLUMNAR_STORE = "columnar";
+    // The response cache is off unless given a size
+    static final String RESPONSE_CACHE_BYTES_PROPERTY = "response.cache.maxBytes";
+    static final String RESPONSE_CACHE_TTL_PROPERTY = "response.cache.ttlSeconds";
+    private static final long DEFAULT_RESPONSE_CACHE_TTL_SECONDS = 60;
+    // Resolvers run on virtual threads by default, on a fork/join pool of the given parallelism, or
+    // directly on the thread that executes the operation
+    static final String RESOLVER_EXECUTOR_PROPERTY = "resolver.executor";
+    static final String RESOLVER_PARALLELISM_PROPERTY = "resolver.parallelism";
+    static final String VIRTUAL_EXECUTOR = "virtual";
+    static final String FORK_JOIN_EXECUTOR = "forkjoin";
+    static final String DIRECT_EXECUTOR = "direct";
+    // Whether mutations are answered only once their log writes are durable, unless a request says otherwise
+    static final String DURABILITY_PROPERTY = "mutation.durability";
+    // Printed results are compact unless indented output is asked for, for debugging
+    static final String PRETTY_RESULTS_PROPERTY = "result.pretty";
+    // The schema is read from this file instead of the classpath when given
+    static final String SCHEMA_FILE_PROPERTY = "schema.file";
+    // A server reloads its data files and schema when they change, unless this is false
+    static final String RELOAD_PROPERTY = "reload.enabled";
+    // A data reload waits until another catalogue of the size of the last one fits in this share of the heap
+    static final String RELOAD_MAX_HEAP_FRACTION_PROPERTY = "reload.maxHeapFraction";
+    private static final double DEFAULT_RELOAD_MAX_HEAP_FRACTION = 0.9;
+
+    private static final Histogram DATA_RELOAD = Metrics.timer("reload.data");
+    private static final Histogram DATA_RELOAD_HEAP = Metrics.histogram("reload.data.heapGrowth", Metrics.BYTES);
+    private static final Histogram DATA_RELOAD_POSTPONED = Metrics.histogram("reload.data.postponed", Metrics.ITEMS);
+    private static final Histogram DATA_DRAIN = Metrics.timer("reload.data.drain");
+    private static final Histogram SCHEMA_RELOAD = Metrics.timer("reload.schema");
+    private static final Histogram SCHEMA_DRAIN = Metrics.timer("reload.schema.drain");
+
+    static final ResponseCache responseCache = new ResponseCache(
+            Long.getLong(RESPONSE_CACHE_BYTES_PROPERTY, 0),
+            Long.getLong(RESPONSE_CACHE_TTL_PROPERTY, DEFAULT_RESPONSE_CACHE_TTL_SECONDS),
+            TimeUnit.SECONDS);
+
+    // Subscribers are drained on virtual threads, so a slow one never holds up a mutation
+    private static final ExecutorService subscriptionExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private static final EventPublisher<Review> reviewEvents = new EventPublisher<>("reviewAdded", subscriptionExecutor, SUBSCRIPTION_BUFFER_SIZE);
+    private static final EventPublisher<Beer> beerEvents = new EventPublisher<>("beerAdded", subscriptionExecutor, SUBSCRIPTION_BUFFER_SIZE);
+    // Events are published off the mutation log's syncer thread, one at a time in the order their writes
+    // became durable, so that the fan-out never holds up the next fsync
+    private static final ExecutorService eventPublishing = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "event-publishing");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Package-private so that benchmarks can install their own executor and mutation log
+    static volatile Executor resolverExecutor = newResolverExecutor(System.getProperty(RESOLVER_EXECUTOR_PROPERTY, VIRTUAL_EXECUTOR));
+    static volatile MutationLog mutationLog;
+    // Replaced as a whole by a reload; an execution reads the generation it started on throughout
+    private static volatile Generation<Catalog> catalog;
+    private static volatile Engine engine;
+    // Mutations hold the read lock, a data reload holds the write lock while it swaps the catalogue
+    private static final ReentrantReadWriteLock mutationGate = new ReentrantReadWriteLock();
+    private static volatile HotReloader reloader;
+    // Heap taken by building the last catalogue, which is what the next one is expected to need
+    private static volatile long catalogFootprint;
+    // Only used by the reloader thread; the retired generation itself is not kept, so that it can be freed
+    private static CompletableFuture<Void> previousCatalogDrained = CompletableFuture.completedFuture(null);
+
+    /**
+     * The catalogue served at one time: the store and the search index over it.
+     */
+    record Catalog(CatalogRepository repository, CatalogSearch search) {
+    }
+
+    /**
+     * A GraphQL instance with the schema generation it executes and the cache of the documents
+     * validated against that schema.
+     */
+    private record Engine(GraphQL graphQL, Generation<GraphQLSchema> schema, DocumentCache documents) {
+    }
 
     public static void main(String[] args) {
         try {
             System.out.println("Starting application...");
-            loadData();
+            if (args.length > 1 && args[0].equals("--split")) {
+                splitData(Integer.parseInt(args[1]));
+                return;
+            }
+            if (args.length > 1 && args[0].equals("--cluster")) {
+                runCluster(Integer.parseInt(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PORT);
+                return;
+            }
+            if (args.length > 2 && args[0].equals("--router")) {
+                List<URI> shards = Arrays.stream(args, 2, args.length).map(URI::create).toList();
+                runRouter(Integer.parseInt(args[1]), new ShardClient(shards));
+                return;
+            }
+
+            boolean binarySnapshotFresh = hasFreshBinarySnapshot(DATA_DIR);
+            long heapBefore = heapUsage().getUsed();
+            CatalogRepository repository = loadData(DATA_DIR);
+            if (!binarySnapshotFresh) {
+                // Written before the log is replayed, so it matches the JSON files it was loaded from
+                BinarySnapshot.write(Paths.get(DATA_DIR, BINARY_SNAPSHOT_FILE), repository.snapshot());
+            }
+            // Mutations made after the last snapshot only live in the log
+            mutationLog = openMutationLog(DATA_DIR, repository);
+            mutationLog.scheduleCompaction(Main::captureSnapshot, COMPACTION_THRESHOLD, COMPACTION_PERIOD_SECONDS, TimeUnit.SECONDS);
             System.out.println("Data loaded successfully.");
 
-            TypeDefinitionRegistry typeDefinitionRegistry = parseSchema(SCHEMA_PATH);
+            // Indexed once the log is replayed, so that the index covers the whole store
+            long indexStart = System.nanoTime();
+            CatalogSearch search = CatalogSearch.build(repository);
+            System.out.println("Search index built in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - indexStart) + " ms: " + search.getStats());
+            install(repository, search);
+            catalogFootprint = Math.max(0, heapUsage().getUsed() - heapBefore);
+
+            TypeDefinitionRegistry typeDefinitionRegistry = loadSchema();
             System.out.println("Schema parsed successfully.");
 
             RuntimeWiring runtimeWiring = buildRuntimeWiring();
             System.out.println("Runtime wiring built successfully.");
 
-            GraphQL graphQL = createGraphQLEntryPoint(typeDefinitionRegistry, runtimeWiring);
+            engine = newEngine(typeDefinitionRegistry, runtimeWiring, 1);
             System.out.println("GraphQL instance created successfully.");
 
-            executeQueriesAndMutations(graphQL);
+            if (args.length > 0 && args[0].equals("--serve")) {
+                int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+                new GraphQLHttpServer(() -> engine.graphQL(), Main::prepareExecutionInput, responseCache, port).start();
+                if (!"false".equals(System.getProperty(RELOAD_PROPERTY))) {
+                    startReloader();
+                }
+                return;
+            }
+
+            executeQueriesAndMutations(engine.graphQL());
         } catch (Exception e) {
             System.err.println("An error occurred: " + e.getMessage());
             e.printStackTrace();
@@ -73,7 +284,7 @@ public class Main {
         executeAndPrintResult(graphQL, queryAllBreweries, "All Breweries");
 
         // Приклад 4: Отримати пивоварню за ID
-        String queryBreweryById = "{ brewery(id: \"1\") { id name country beers { name style } } }";
+        String queryBreweryById = "{ brewery(id: \"1\") { id name country averageRating reviewCount ratingHistogram { rating count } beers { name style averageRating } } }";
         executeAndPrintResult(graphQL, queryBreweryById, "Brewery by ID");
 
         // Приклад 5: Отримати всі відгуки
@@ -95,93 +306,485 @@ public class Main {
         // Приклад 9: Додати нового користувача (мутація)
         String mutationAddUser = "mutation { addUser(input: { name: \"John Doe\", email: \"john@example.com\" }) { id name email } }";
         executeAndPrintResult(graphQL, mutationAddUser, "Add User");
+
+        // Приклад 10: Виконати збережений запит, передавши лише його SHA-256 хеш
+        ExecutionInput persistedAllBeers = ExecutionInput.newExecutionInput()
+                .query(PersistedQuerySupport.PERSISTED_QUERY_MARKER)
+                .extensions(Map.of("persistedQuery", Map.of("version", 1, "sha256Hash", DocumentCache.hash(queryAllBeers))))
+                .build();
+        executeAndPrintResult(graphQL, persistedAllBeers, "All Beers (persisted query)");
+
+        // Приклад 11: Отримати сторінку відгуків з фільтром за рейтингом
+        String queryReviewsPage = "{ reviewsConnection(first: 2, minRating: 4) { totalCount edges { cursor node { text rating } } pageInfo { endCursor hasNextPage } } }";
+        executeAndPrintResult(graphQL, queryReviewsPage, "Reviews Page");
+
+        // Приклад 12: Надто глибокий циклічний запит буде відхилено до виконання
+        String queryTooDeep = "{ users { reviews { beer { reviews { user { reviews { beer { reviews { user { reviews { beer { reviews { text } } } } } } } } } } } } }";
+        executeAndPrintResult(graphQL, queryTooDeep, "Too Deep Query");
+
+        // Приклад 13: Переглянути метрики виконання
+        String queryMetrics = "{ metrics { name unit count p50 p99 max } }";
+        ExecutionInput tracedMetrics = ExecutionInput.newExecutionInput()
+                .query(queryMetrics)
+                .extensions(Map.of("tracing", true))
+                .build();
+        executeAndPrintResult(graphQL, tracedMetrics, "Metrics (with tracing)");
+
+        // Приклад 14: Підписатися на нові відгуки про пиво з ID 1; відгук про інше пиво до підписника не дійде
+        String subscriptionReviewAdded = "subscription { reviewAdded(beerId: \"1\") { text rating beer { name } user { name } } }";
+        executeAndPrintEvents(graphQL, subscriptionReviewAdded, "Review Added (subscription)", 1,
+                "mutation { addReview(input: { text: \"Not for this subscriber\", rating: 3, beerId: \"2\", userId: \"1\" }) { id } }",
+                "mutation { addReview(input: { text: \"Still great!\", rating: 5, beerId: \"1\", userId: \"1\" }) { id } }");
+
+        // Приклад 15: Повнотекстовий пошук; останнє слово шукається як префікс
+        String querySearch = "{ search(term: \"great be\", first: 5) { __typename ... on Beer { name style } ... on Review { text rating } } }";
+        executeAndPrintResult(graphQL, querySearch, "Search");
+
+        // Приклад 16: Додати кілька відгуків одним запитом; відгук про неіснуюче пиво буде відхилено, решта збережеться
+        String mutationAddReviews = "mutation { addReviews(inputs: ["
+                + "{ text: \"Crisp and clean\", rating: 4, beerId: \"1\", userId: \"1\" }, "
+                + "{ text: \"Who brewed this?\", rating: 1, beerId: \"unknown\", userId: \"1\" }, "
+                + "{ text: \"Would order again\", rating: 5, beerId: \"2\", userId: \"1\" }"
+                + "]) { index error item { text rating beer { name } } } }";
+        executeAndPrintResult(graphQL, mutationAddReviews, "Add Reviews (bulk)");
+
+        // Приклад 17: Мутація відповідає одразу після застосування в пам'яті; з durability: sync відповідь чекає на запис у журнал на диску
+        ExecutionInput durableAddUser = ExecutionInput.newExecutionInput()
+                .query("mutation { addUser(input: { name: \"Jane Roe\", email: \"jane@example.com\" }) { name email } }")
+                .extensions(Map.of("durability", DurabilityInstrumentation.SYNC))
+                .build();
+        executeAndPrintResult(graphQL, durableAddUser, "Add User (durable)");
+
+        System.out.println("\nDocument cache: " + engine.documents().getStats());
     }
 
     private static void executeAndPrintResult(GraphQL graphQL, String query, String description) {
+        executeAndPrintResult(graphQL, ExecutionInput.newExecutionInput().query(query).build(), description);
+    }
+
+    private static void executeAndPrintResult(GraphQL graphQL, ExecutionInput input, String description) {
         System.out.println("\nExecuting: " + description);
-        System.out.println("Query: " + query);
-        ExecutionResult executionResult = graphQL.execute(query);
+        System.out.println("Query: " + input.getQuery());
+        ExecutionResult executionResult = graphQL.execute(prepareExecutionInput(input));
         System.out.println("Result:");
-        System.out.println(JsonUtils.serializeToJson(executionResult.toSpecification()));
+        System.out.println(toJson(executionResult));
     }
 
-    private static void loadData() {
-        List<Map<String, String>> beerData = JsonUtils.loadFromJsonFile(BEERS_DATA_PATH, new TypeReference<>() {});
-        List<Map<String, String>> breweryData = JsonUtils.loadFromJsonFile(BREWERIES_DATA_PATH, new TypeReference<>() {});
-        List<Map<String, String>> reviewData = JsonUtils.loadFromJsonFile(REVIEWS_DATA_PATH, new TypeReference<>() {});
-        List<Map<String, String>> userData = JsonUtils.loadFromJsonFile(USERS_DATA_PATH, new TypeReference<>() {});
+    private static String toJson(ExecutionResult result) {
+        return Boolean.getBoolean(PRETTY_RESULTS_PROPERTY)
+                ? ResultWriter.toPrettyString(result)
+                : new String(ResultWriter.toBytes(result), StandardCharsets.UTF_8);
+    }
 
-        for (Map<String, String> brewery : breweryData) {
-            Brewery b = new Brewery(brewery.get("id"), brewery.get("name"), brewery.get("location"));
-            breweries.put(b.getId(), b);
+    /**
+     * Subscribes, runs the mutations and prints the events they trigger until {@code expectedEvents}
+     * have arrived or a few seconds have passed.
+     */
+    private static void executeAndPrintEvents(GraphQL graphQL, String subscription, String description, int expectedEvents, String... mutations) {
+        System.out.println("\nExecuting: " + description);
+        System.out.println("Subscription: " + subscription);
+        ExecutionResult executionResult = graphQL.execute(prepareExecutionInput(ExecutionInput.newExecutionInput().query(subscription).build()));
+        if (!(executionResult.getData() instanceof Publisher<?>)) {
+            System.out.println(toJson(executionResult));
+            return;
         }
+        Publisher<ExecutionResult> events = executionResult.getData();
+        CountDownLatch received = new CountDownLatch(expectedEvents);
+        AtomicReference<Subscription> subscriptionHandle = new AtomicReference<>();
+        events.subscribe(new Subscriber<>() {
+            @Override
+            public void onSubscribe(Subscription handle) {
+                subscriptionHandle.set(handle);
+                handle.request(expectedEvents);
+            }
+
+            @Override
+            public void onNext(ExecutionResult event) {
+                System.out.println("Event:");
+                System.out.println(toJson(event));
+                received.countDown();
+            }
 
-        for (Map<String, String> beer : beerData) {
-            Brewery brewery = breweries.get(beer.get("breweryId"));
-            Beer b = new Beer(beer.get("id"), beer.get("name"), beer.get("style"), brewery);
-            beers.put(b.getId(), b);
-            if (brewery != null) {
-                brewery.getBeers().add(b);
+            @Override
+            public void onError(Throwable throwable) {
+                System.err.println("Subscription failed: " + throwable.getMessage());
             }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        for (String mutation : mutations) {
+            graphQL.execute(prepareExecutionInput(ExecutionInput.newExecutionInput().query(mutation).build()));
         }
+        try {
+            if (!received.await(5, TimeUnit.SECONDS)) {
+                System.out.println("Timed out waiting for events");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscriptionHandle.get().cancel();
+        }
+    }
 
-        for (Map<String, String> user : userData) {
-            User u = new User(user.get("id"), user.get("name"), user.get("email"));
-            users.put(u.getId(), u);
+    /**
+     * Splits the data directory, with its mutation log replayed, into the directories of the given
+     * number of shards, as described by {@link Partitioning}.
+     */
+    static void splitData(int shardCount) {
+        CatalogRepository source = loadData(DATA_DIR);
+        // Only replayed; the shards start logs of their own
+        MutationLog replayed = openMutationLog(DATA_DIR, source);
+        try {
+            replayed.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Error closing mutation log of " + DATA_DIR, e);
+        }
+        System.out.println("Splitting " + DATA_DIR + " into " + shardCount + " shards");
+        List<List<Map<String, String>>> breweries = new ArrayList<>();
+        List<List<Map<String, String>>> beers = new ArrayList<>();
+        List<List<Map<String, String>>> reviews = new ArrayList<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            breweries.add(new ArrayList<>());
+            beers.add(new ArrayList<>());
+            reviews.add(new ArrayList<>());
+        }
+        for (Brewery brewery : source.findAllBreweries()) {
+            breweries.get(Partitioning.shardOf(brewery.getId(), shardCount)).add(toRecord(brewery));
+        }
+        for (Beer beer : source.findAllBeers()) {
+            beers.get(Partitioning.shardOf(beer, shardCount)).add(toRecord(beer));
+        }
+        for (Review review : source.findAllReviews()) {
+            reviews.get(Partitioning.shardOf(review, shardCount)).add(toRecord(review));
+        }
+        List<Map<String, String>> users = source.findAllUsers().stream().map(Main::toRecord).toList();
+        for (int shard = 0; shard < shardCount; shard++) {
+            String shardDir = ShardCluster.shardDataDir(DATA_DIR, shard).toString();
+            JsonUtils.saveToJsonFile(shardDir + "/" + BREWERIES_FILE, breweries.get(shard));
+            JsonUtils.saveToJsonFile(shardDir + "/" + BEERS_FILE, beers.get(shard));
+            JsonUtils.saveToJsonFile(shardDir + "/" + REVIEWS_FILE, reviews.get(shard));
+            JsonUtils.saveToJsonFile(shardDir + "/" + USERS_FILE, users);
         }
+    }
+
+    /**
+     * Serves the data directory as the given number of shard processes behind a router on the given
+     * port, the shards listening on the ports after it. The data is split first unless that was done
+     * before, since the shards have their own mutation logs from then on.
+     */
+    private static void runCluster(int shardCount, int port) {
+        if (!ShardCluster.isSplit(DATA_DIR, shardCount)) {
+            splitData(shardCount);
+        }
+        ShardCluster cluster = ShardCluster.start(Main.class, DATA_DIR, shardCount, port + 1);
+        Runtime.getRuntime().addShutdownHook(new Thread(cluster::close));
+        ShardClient client = new ShardClient(cluster.getEndpoints());
+        cluster.awaitReady(client, SHARD_START_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        System.out.println(shardCount + " shards started: " + cluster.getEndpoints());
+        runRouter(port, client);
+    }
+
+    private static void runRouter(int port, ShardClient client) {
+        boolean syncByDefault = DurabilityInstrumentation.SYNC.equals(System.getProperty(DURABILITY_PROPERTY));
+        Instrumentation instrumentation = new ChainedInstrumentation(List.of(
+                new MetricsInstrumentation(),
+                new MaxQueryDepthInstrumentation(MAX_QUERY_DEPTH),
+                new DurabilityInstrumentation(syncByDefault)));
+        GraphQL router = ShardRouter.newGraphQL(parseSchema(SCHEMA_PATH), client, instrumentation, syncByDefault);
+        // Shards cache their own responses
+        ResponseCache noCache = new ResponseCache(0, 0, TimeUnit.SECONDS);
+        new GraphQLHttpServer(router, ShardRouter::prepareExecutionInput, noCache, port).start();
+    }
+
+    static ExecutionInput prepareExecutionInput(ExecutionInput input) {
+        // The read view is attached once the execution has pinned its catalogue generation
+        GraphQLContext context = input.getGraphQLContext();
+        List<String> routedUserIds = ShardRouter.assignedUserIds(input.getExtensions());
+        if (routedUserIds != null) {
+            context.put(ROUTED_USER_IDS, routedUserIds);
+        }
+        return input.transform(builder -> builder.dataLoaderRegistry(CatalogDataLoaders.newRegistry(() -> readView(context))));
+    }
+
+    // Every read in one execution goes through the same snapshot of the store, unless a
+    // subscription switches its execution over to the live store
+    private static void attach(Catalog pinned, GraphQLContext context) {
+        context.put(CATALOG, pinned);
+        context.put(READ_VIEW, pinned.repository().snapshot());
+    }
+
+    /**
+     * Serves the given store and search index from now on, and returns a future that completes once
+     * the executions still running on the catalogue it replaces are done. Package-private so that
+     * benchmarks can install their own.
+     */
+    static CompletableFuture<Void> install(CatalogRepository repository, CatalogSearch search) {
+        Generation<Catalog> previous = catalog;
+        catalog = new Generation<>(new Catalog(repository, search), previous == null ? 1 : previous.getNumber() + 1);
+        return previous == null ? CompletableFuture.completedFuture(null) : previous.retire();
+    }
+
+    private static CatalogRepository repository() {
+        return catalog.getValue().repository();
+    }
+
+    private static CatalogSearch search() {
+        return catalog.getValue().search();
+    }
+
+    /**
+     * Creates an empty store of the kind selected by the {@value #STORE_PROPERTY} system property: the
+     * object-per-entity store by default, or the memory-compact {@value #COLUMNAR_STORE} store.
+     */
+    static CatalogRepository newRepository() {
+        return COLUMNAR_STORE.equals(System.getProperty(STORE_PROPERTY)) ? new ColumnarCatalogRepository() : new InMemoryCatalogRepository();
+    }
+
+    /**
+     * Loads the binary snapshot of a data directory if it is newer than the JSON files next to it,
+     * and the JSON files otherwise.
+     */
+    static CatalogRepository loadData(String dataDir) {
+        if (hasFreshBinarySnapshot(dataDir)) {
+            return BinarySnapshot.read(Paths.get(dataDir, BINARY_SNAPSHOT_FILE), newRepository());
+        }
+        return loadJsonData(dataDir);
+    }
+
+    static boolean hasFreshBinarySnapshot(String dataDir) {
+        return BinarySnapshot.isFresherThan(Paths.get(dataDir, BINARY_SNAPSHOT_FILE), Paths.get(dataDir, BREWERIES_FILE),
+                Paths.get(dataDir, BEERS_FILE), Paths.get(dataDir, REVIEWS_FILE), Paths.get(dataDir, USERS_FILE));
+    }
+
+    /**
+     * Loads the JSON snapshot files of a data directory into a new store. Files missing from the
+     * directory fall back to the bundled classpath copies.
+     */
+    static CatalogRepository loadJsonData(String dataDir) {
+        CatalogRepository target = newRepository();
+        // Breweries and users do not depend on anything, beers need breweries, reviews need beers and users
+        CompletableFuture<Void> breweriesLoaded = CompletableFuture.runAsync(() ->
+                JsonUtils.streamFromJsonFile(dataDir + "/" + BREWERIES_FILE, BREWERY_FIELDS, brewery ->
+                        target.saveBrewery(new Brewery(brewery[0], brewery[1], brewery[2]))));
+        CompletableFuture<Void> usersLoaded = CompletableFuture.runAsync(() ->
+                JsonUtils.streamFromJsonFile(dataDir + "/" + USERS_FILE, USER_FIELDS, user ->
+                        applyUser(target, user[0], user[1], user[2])));
+        CompletableFuture<Void> beersLoaded = breweriesLoaded.thenRunAsync(() ->
+                JsonUtils.streamFromJsonFile(dataDir + "/" + BEERS_FILE, BEER_FIELDS, beer ->
+                        applyBeer(target, beer[0], beer[1], beer[2], beer[3])));
+        CompletableFuture.allOf(beersLoaded, usersLoaded).thenRunAsync(() ->
+                JsonUtils.streamFromJsonFile(dataDir + "/" + REVIEWS_FILE, REVIEW_FIELDS, review ->
+                        applyReview(target, review[0], review[1], review[2], review[3], review[4]))).join();
+        return target;
+    }
 
-        for (Map<String, String> review : reviewData) {
-            Beer beer = beers.get(review.get("beerId"));
-            User user = users.get(review.get("userId"));
-            if (beer != null && user != null) {
-                Review r = new Review(
-                        review.get("id"),
-                        review.get("text"),
-                        Integer.parseInt(review.get("rating")),
-                        beer,
-                        user
-                );
-                reviews.put(r.getId(), r);
-                beer.getReviews().add(r);
-                user.getReviews().add(r);
+    /**
+     * Replays the mutation log of a data directory into the store and opens it for appending.
+     */
+    static MutationLog openMutationLog(String dataDir, CatalogRepository target) {
+        return MutationLog.open(Paths.get(dataDir, MUTATION_LOG_FILE), entry -> replayLogEntry(target, entry));
+    }
+
+    /**
+     * Applies a mutation log entry and returns whether the store did not have it yet.
+     */
+    private static boolean replayLogEntry(CatalogRepository target, Map<String, String> entry) {
+        return switch (entry.get(MutationLog.ENTITY_FIELD)) {
+            case MutationLog.BEER -> applyBeer(target, entry.get("id"), entry.get("name"), entry.get("style"), entry.get("breweryId"));
+            case MutationLog.REVIEW -> applyReview(target, entry.get("id"), entry.get("text"), entry.get("rating"), entry.get("beerId"), entry.get("userId"));
+            case MutationLog.USER -> applyUser(target, entry.get("id"), entry.get("name"), entry.get("email"));
+            default -> {
+                System.err.println("Skipping unknown mutation log entry: " + entry);
+                yield false;
             }
+        };
+    }
+
+    // The apply methods are idempotent, since saving an existing id is a no-op: a log entry may
+    // already be part of the snapshot after compaction
+
+    private static boolean applyBeer(CatalogRepository target, String id, String name, String style, String breweryId) {
+        return target.saveBeer(new Beer(id, name, style, target.findBrewery(breweryId)));
+    }
+
+    private static boolean applyUser(CatalogRepository target, String id, String name, String email) {
+        return target.saveUser(new User(id, name, email));
+    }
+
+    private static boolean applyReview(CatalogRepository target, String id, String text, String rating, String beerId, String userId) {
+        Beer beer = target.findBeer(beerId);
+        User user = target.findUser(userId);
+        int stars = Integer.parseInt(rating);
+        if (stars < RatingStats.MIN_RATING || stars > RatingStats.MAX_RATING) {
+            System.err.println("Skipping review with rating out of range: " + id);
+            return false;
         }
+        return beer != null && user != null && target.saveReview(new Review(id, text, stars, beer, user));
     }
 
-    private static TypeDefinitionRegistry parseSchema(String schemaPath) {
+    static TypeDefinitionRegistry parseSchema(String schemaPath) {
         String schema = FileUtils.readFileContent(schemaPath);
         SchemaParser schemaParser = new SchemaParser();
         return schemaParser.parse(schema);
     }
 
-    private static RuntimeWiring buildRuntimeWiring() {
+    /**
+     * Parses the schema file named by the {@value #SCHEMA_FILE_PROPERTY} system property, or the
+     * bundled schema if there is none.
+     */
+    static TypeDefinitionRegistry loadSchema() {
+        String schemaFile = System.getProperty(SCHEMA_FILE_PROPERTY);
+        return schemaFile == null ? parseSchema(SCHEMA_PATH) : new SchemaParser().parse(Path.of(schemaFile).toFile());
+    }
+
+    /**
+     * The file the schema is loaded from, or {@code null} if the bundled schema is packaged in a jar
+     * and cannot change.
+     */
+    private static Path schemaFile() {
+        String schemaFile = System.getProperty(SCHEMA_FILE_PROPERTY);
+        if (schemaFile != null) {
+            return Path.of(schemaFile);
+        }
+        URL resource = Main.class.getResource(SCHEMA_PATH);
+        if (resource == null || !"file".equals(resource.getProtocol())) {
+            return null;
+        }
+        try {
+            return Path.of(resource.toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("Unexpected schema location: " + resource, e);
+        }
+    }
+
+    static RuntimeWiring buildRuntimeWiring() {
         return newRuntimeWiring()
                 .type("Query", typeWiring -> typeWiring
-                        .dataFetcher("beers", environment -> new ArrayList<>(beers.values()))
-                        .dataFetcher("beer", environment -> beers.get(environment.getArgument("id")))
-                        .dataFetcher("breweries", environment -> new ArrayList<>(breweries.values()))
-                        .dataFetcher("brewery", environment -> breweries.get(environment.getArgument("id")))
-                        .dataFetcher("reviews", environment -> new ArrayList<>(reviews.values()))
-                        .dataFetcher("review", environment -> reviews.get(environment.getArgument("id")))
-                        .dataFetcher("users", environment -> new ArrayList<>(users.values()))
-                        .dataFetcher("user", environment -> users.get(environment.getArgument("id"))))
+                        .dataFetcher("beers", async(environment -> readView(environment).findAllBeers()))
+                        .dataFetcher("beer", async(environment -> readView(environment).findBeer(environment.getArgument("id"))))
+                        .dataFetcher("breweries", async(environment -> readView(environment).findAllBreweries()))
+                        .dataFetcher("brewery", async(environment -> readView(environment).findBrewery(environment.getArgument("id"))))
+                        .dataFetcher("reviews", async(environment -> readView(environment).findAllReviews()))
+                        .dataFetcher("review", async(environment -> readView(environment).findReview(environment.getArgument("id"))))
+                        .dataFetcher("users", async(environment -> readView(environment).findAllUsers()))
+                        .dataFetcher("user", async(environment -> readView(environment).findUser(environment.getArgument("id"))))
+                        .dataFetcher("beersConnection", async(environment -> PagedConnection.of(readView(environment).findBeerPage(
+                                environment.getArgument("style"),
+                                environment.getArgument("breweryId"),
+                                environment.getArgument("after"),
+                                pageSize(environment)))))
+                        .dataFetcher("breweriesConnection", async(environment -> PagedConnection.of(readView(environment).findBreweryPage(
+                                environment.getArgument("after"),
+                                pageSize(environment)))))
+                        .dataFetcher("reviewsConnection", async(environment -> PagedConnection.of(readView(environment).findReviewPage(
+                                environment.getArgument("beerId"),
+                                environment.getArgument("userId"),
+                                environment.getArgument("minRating"),
+                                environment.getArgument("maxRating"),
+                                environment.getArgument("after"),
+                                pageSize(environment)))))
+                        .dataFetcher("usersConnection", async(environment -> PagedConnection.of(readView(environment).findUserPage(
+                                environment.getArgument("after"),
+                                pageSize(environment)))))
+                        .dataFetcher("search", async(environment -> {
+                            List<CatalogSearch.Scored> hits = search(environment).scoredSearch(
+                                    readView(environment),
+                                    environment.getArgument("term"),
+                                    environment.getArgument("types"),
+                                    pageSize(environment));
+                            // The scores let a shard router merge the hits of all shards by relevance. Mutable,
+                            // since the instrumentations add their own extensions to the same map
+                            Map<Object, Object> extensions = new LinkedHashMap<>();
+                            extensions.put(ShardRouter.SEARCH_SCORES, Map.of(
+                                    environment.getField().getResultKey(), hits.stream().map(CatalogSearch.Scored::score).toList()));
+                            return DataFetcherResult.newResult()
+                                    .data(hits.stream().map(CatalogSearch.Scored::item).toList())
+                                    .extensions(extensions)
+                                    .build();
+                        }))
+                        .dataFetcher("metrics", environment -> Metrics.snapshot()))
+                .type("SearchResult", typeWiring -> typeWiring
+                        .typeResolver(environment -> environment.getSchema().getObjectType(
+                                environment.getObject() instanceof Beer ? "Beer" : "Review")))
+                .type("Beer", typeWiring -> typeWiring
+                        .dataFetcher("brewery", environment -> {
+                            Beer beer = environment.getSource();
+                            if (beer.getBrewery() == null) {
+                                return null;
+                            }
+                            DataLoader<String, Brewery> loader = environment.getDataLoader(CatalogDataLoaders.BREWERY);
+                            return loader.load(beer.getBrewery().getId());
+                        })
+                        .dataFetcher("reviews", environment -> {
+                            Beer beer = environment.getSource();
+                            DataLoader<String, List<Review>> loader = environment.getDataLoader(CatalogDataLoaders.REVIEWS_BY_BEER);
+                            return loader.load(beer.getId());
+                        })
+                        .dataFetcher("reviewsConnection", async(environment -> {
+                            Beer beer = environment.getSource();
+                            return PagedConnection.of(readView(environment).findReviewPage(
+                                    beer.getId(),
+                                    null,
+                                    environment.getArgument("minRating"),
+                                    environment.getArgument("maxRating"),
+                                    environment.getArgument("after"),
+                                    pageSize(environment)));
+                        })))
+                .type("Brewery", typeWiring -> typeWiring
+                        .dataFetcher("beers", environment -> {
+                            Brewery brewery = environment.getSource();
+                            DataLoader<String, List<Beer>> loader = environment.getDataLoader(CatalogDataLoaders.BEERS_BY_BREWERY);
+                            return loader.load(brewery.getId());
+                        }))
+                .type("Review", typeWiring -> typeWiring
+                        .dataFetcher("beer", environment -> {
+                            Review review = environment.getSource();
+                            DataLoader<String, Beer> loader = environment.getDataLoader(CatalogDataLoaders.BEER);
+                            return loader.load(review.getBeer().getId());
+                        })
+                        .dataFetcher("user", environment -> {
+                            Review review = environment.getSource();
+                            DataLoader<String, User> loader = environment.getDataLoader(CatalogDataLoaders.USER);
+                            return loader.load(review.getUser().getId());
+                        }))
+                .type("User", typeWiring -> typeWiring
+                        .dataFetcher("reviews", environment -> {
+                            User user = environment.getSource();
+                            DataLoader<String, List<Review>> loader = environment.getDataLoader(CatalogDataLoaders.REVIEWS_BY_USER);
+                            return loader.load(user.getId());
+                        })
+                        .dataFetcher("reviewsConnection", async(environment -> {
+                            User user = environment.getSource();
+                            return PagedConnection.of(readView(environment).findReviewPage(
+                                    null,
+                                    user.getId(),
+                                    environment.getArgument("minRating"),
+                                    environment.getArgument("maxRating"),
+                                    environment.getArgument("after"),
+                                    pageSize(environment)));
+                        })))
                 .type("Mutation", typeWiring -> typeWiring
-                        .dataFetcher("addBeer", environment -> {
+                        .dataFetcher("addBeer", async(mutation(environment -> {
                             Map<String, String> input = environment.getArgument("input");
-                            Brewery brewery = breweries.get(input.get("breweryId"));
+                            Brewery brewery = repository().findBrewery(input.get("breweryId"));
                             if (brewery == null) {
                                 throw new IllegalArgumentException("Brewery not found for ID: " + input.get("breweryId"));
                             }
                             Beer beer = new Beer(UUID.randomUUID().toString(), input.get("name"), input.get("style"), brewery);
-                            beers.put(beer.getId(), beer);
-                            brewery.getBeers().add(beer);
-                            saveBeersToFile();
+                            CompletableFuture<Void> durable = mutationLog.appendAsync(MutationLog.BEER, toRecord(beer), () -> repository().saveBeer(beer));
+                            DurabilityInstrumentation.track(environment.getGraphQlContext(), durable);
+                            search().add(beer);
+                            responseCache.invalidate(CacheDependencyInstrumentation.touchedBy(beer));
+                            durable.thenRunAsync(() -> beerEvents.publish(brewery.getId(), beer), eventPublishing);
                             return beer;
-                        })
-                        .dataFetcher("addReview", environment -> {
+                        })))
+                        .dataFetcher("addReview", async(mutation(environment -> {
                             Map<String, Object> input = environment.getArgument("input");
-                            Beer beer = beers.get(input.get("beerId"));
-                            User user = users.get(input.get("userId"));
+                            Beer beer = repository().findBeer((String) input.get("beerId"));
+                            User user = repository().findUser((String) input.get("userId"));
                             if (beer == null || user == null) {
                                 throw new IllegalArgumentException("Beer or User not found");
                             }
@@ -192,64 +795,524 @@ public class Main {
                                     beer,
                                     user
                             );
-                            reviews.put(review.getId(), review);
-                            beer.getReviews().add(review);
-                            user.getReviews().add(review);
-                            saveReviewsToFile();
+                            CompletableFuture<Void> durable = mutationLog.appendAsync(MutationLog.REVIEW, toRecord(review), () -> repository().saveReview(review));
+                            DurabilityInstrumentation.track(environment.getGraphQlContext(), durable);
+                            search().add(review);
+                            responseCache.invalidate(CacheDependencyInstrumentation.touchedBy(review));
+                            durable.thenRunAsync(() -> reviewEvents.publish(beer.getId(), review), eventPublishing);
                             return review;
-                        })
-                        .dataFetcher("addUser", environment -> {
+                        })))
+                        .dataFetcher("addUser", async(mutation(environment -> {
                             Map<String, String> input = environment.getArgument("input");
-                            User user = new User(UUID.randomUUID().toString(), input.get("name"), input.get("email"));
-                            users.put(user.getId(), user);
-                            saveUsersToFile();
-                            return user;
-                        }))
+                            User user = new User(userIdOf(environment.getGraphQlContext(), 0, 1), input.get("name"), input.get("email"));
+                            User existing = repository().findUser(user.getId());
+                            if (existing == null) {
+                                boolean[] stored = new boolean[1];
+                                DurabilityInstrumentation.track(environment.getGraphQlContext(), mutationLog.appendAsync(
+                                        MutationLog.USER, toRecord(user), () -> stored[0] = repository().saveUser(user)));
+                                if (stored[0]) {
+                                    responseCache.invalidate(CacheDependencyInstrumentation.touchedBy(user));
+                                    return user;
+                                }
+                                existing = repository().findUser(user.getId());
+                            }
+                            BulkResult<User> result = existingUser(0, user, existing);
+                            if (result.getError() != null) {
+                                throw new IllegalArgumentException(result.getError());
+                            }
+                            return result.getItem();
+                        })))
+                        .dataFetcher("addBeers", async(mutation(environment -> addBeers(environment.getArgument("inputs"), environment.getGraphQlContext()))))
+                        .dataFetcher("addReviews", async(mutation(environment -> addReviews(environment.getArgument("inputs"), environment.getGraphQlContext()))))
+                        .dataFetcher("addUsers", async(mutation(environment -> addUsers(environment.getArgument("inputs"), environment.getGraphQlContext())))))
+                .type("Subscription", typeWiring -> typeWiring
+                        .dataFetcher("reviewAdded", environment -> subscribe(environment,
+                                reviewEvents.subscribe(environment.getArgument("beerId"), overflowPolicy(environment))))
+                        .dataFetcher("beerAdded", environment -> subscribe(environment,
+                                beerEvents.subscribe(environment.getArgument("breweryId"), overflowPolicy(environment)))))
                 .build();
     }
 
-    private static GraphQL createGraphQLEntryPoint(TypeDefinitionRegistry typeDefinitionRegistry, RuntimeWiring runtimeWiring) {
+    // The bulk mutations look up every referenced entity with one batched call, store all valid items
+    // as one commit and write them to the mutation log with a single fsync.
+    //
+    // Every mutation writes its log entry first and stores the change right after it, before any other
+    // mutation of the same ids is logged, so nothing becomes visible that is not logged. Queries may
+    // read a change before its fsync completes; events are only published once it is durable, and not
+    // at all if the fsync fails
+
+    private static List<BulkResult<Beer>> addBeers(List<Map<String, String>> inputs, GraphQLContext context) {
+        checkBulkSize(inputs);
+        Set<String> breweryIds = new HashSet<>();
+        inputs.forEach(input -> breweryIds.add(input.get("breweryId")));
+        Map<String, Brewery> breweries = repository().findBreweries(breweryIds);
+
+        List<BulkResult<Beer>> results = new ArrayList<>(inputs.size());
+        List<Beer> beers = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            Map<String, String> input = inputs.get(i);
+            Brewery brewery = breweries.get(input.get("breweryId"));
+            if (brewery == null) {
+                results.add(BulkResult.rejected(i, "Brewery not found for ID: " + input.get("breweryId")));
+                continue;
+            }
+            Beer beer = new Beer(UUID.randomUUID().toString(), input.get("name"), input.get("style"), brewery);
+            beers.add(beer);
+            results.add(BulkResult.stored(i, beer));
+        }
+
+        // New ids, so every beer is stored
+        CompletableFuture<Void> durable = mutationLog.appendAllAsync(MutationLog.BEER, beers.stream().map(Main::toRecord).toList(),
+                () -> repository().saveBeers(beers));
+        DurabilityInstrumentation.track(context, durable);
+        search().addBeers(beers);
+        responseCache.invalidate(beers.stream().flatMap(beer -> CacheDependencyInstrumentation.touchedBy(beer).stream()).collect(Collectors.toSet()));
+        durable.thenRunAsync(() -> beers.forEach(beer -> beerEvents.publish(beer.getBrewery().getId(), beer)), eventPublishing);
+        return results;
+    }
+
+    private static List<BulkResult<Review>> addReviews(List<Map<String, Object>> inputs, GraphQLContext context) {
+        checkBulkSize(inputs);
+        Set<String> beerIds = new HashSet<>();
+        Set<String> userIds = new HashSet<>();
+        for (Map<String, Object> input : inputs) {
+            beerIds.add((String) input.get("beerId"));
+            userIds.add((String) input.get("userId"));
+        }
+        Map<String, Beer> beers = repository().findBeers(beerIds);
+        Map<String, User> users = repository().findUsers(userIds);
+
+        List<BulkResult<Review>> results = new ArrayList<>(inputs.size());
+        List<Review> reviews = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            Map<String, Object> input = inputs.get(i);
+            Beer beer = beers.get((String) input.get("beerId"));
+            User user = users.get((String) input.get("userId"));
+            if (beer == null) {
+                results.add(BulkResult.rejected(i, "Beer not found for ID: " + input.get("beerId")));
+                continue;
+            }
+            if (user == null) {
+                results.add(BulkResult.rejected(i, "User not found for ID: " + input.get("userId")));
+                continue;
+            }
+            int rating = (Integer) input.get("rating");
+            if (rating < RatingStats.MIN_RATING || rating > RatingStats.MAX_RATING) {
+                results.add(BulkResult.rejected(i, "Rating must be between " + RatingStats.MIN_RATING + " and " + RatingStats.MAX_RATING + ": " + rating));
+                continue;
+            }
+            Review review = new Review(
+                    UUID.randomUUID().toString(),
+                    (String) input.get("text"),
+                    rating,
+                    beer,
+                    user
+            );
+            reviews.add(review);
+            results.add(BulkResult.stored(i, review));
+        }
+
+        // New ids, so every review is stored
+        CompletableFuture<Void> durable = mutationLog.appendAllAsync(MutationLog.REVIEW, reviews.stream().map(Main::toRecord).toList(),
+                () -> repository().saveReviews(reviews));
+        DurabilityInstrumentation.track(context, durable);
+        search().addReviews(reviews);
+        responseCache.invalidate(reviews.stream().flatMap(review -> CacheDependencyInstrumentation.touchedBy(review).stream()).collect(Collectors.toSet()));
+        durable.thenRunAsync(() -> reviews.forEach(review -> reviewEvents.publish(review.getBeer().getId(), review)), eventPublishing);
+        return results;
+    }
+
+    private static List<BulkResult<User>> addUsers(List<Map<String, String>> inputs, GraphQLContext context) {
+        checkBulkSize(inputs);
+        List<User> users = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            Map<String, String> input = inputs.get(i);
+            users.add(new User(userIdOf(context, i, inputs.size()), input.get("name"), input.get("email")));
+        }
+        Map<String, User> existing = repository().findUsers(users.stream().map(User::getId).collect(Collectors.toSet()));
+        List<User> added = users.stream().filter(user -> !existing.containsKey(user.getId())).toList();
+
+        // Filled in before appendAllAsync returns
+        List<User> stored = new ArrayList<>(added.size());
+        DurabilityInstrumentation.track(context, mutationLog.appendAllAsync(MutationLog.USER, added.stream().map(Main::toRecord).toList(),
+                () -> stored.addAll(repository().saveUsers(added))));
+        responseCache.invalidate(stored.stream().flatMap(user -> CacheDependencyInstrumentation.touchedBy(user).stream()).collect(Collectors.toSet()));
+
+        Set<User> storedUsers = new HashSet<>(stored);
+        List<BulkResult<User>> results = new ArrayList<>(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            if (storedUsers.contains(user)) {
+                results.add(BulkResult.stored(i, user));
+            } else {
+                User found = existing.get(user.getId());
+                results.add(existingUser(i, user, found != null ? found : repository().findUser(user.getId())));
+            }
+        }
+        return results;
+    }
+
+    // The shard router assigns user ids, so that a user has the same id on every shard; everyone
+    // else gets new ones
+    private static String userIdOf(GraphQLContext context, int index, int count) {
+        List<String> assigned = context.get(ROUTED_USER_IDS);
+        if (assigned == null) {
+            return UUID.randomUUID().toString();
+        }
+        if (assigned.size() != count) {
+            throw new IllegalArgumentException("The shard router assigned " + assigned.size() + " user ids to " + count + " users");
+        }
+        return assigned.get(index);
+    }
+
+    // A user whose id is taken was only added before if it is the same user: the shard router sends
+    // a user again to a shard whose answer it did not get
+    private static BulkResult<User> existingUser(int index, User user, User existing) {
+        if (existing != null && Objects.equals(existing.getName(), user.getName()) && Objects.equals(existing.getEmail(), user.getEmail())) {
+            return BulkResult.stored(index, existing);
+        }
+        return BulkResult.rejected(index, "User already exists for ID: " + user.getId());
+    }
+
+    /**
+     * Runs a fetcher on the resolver executor, so that sibling fields resolve concurrently. Fetchers
+     * that only call a data loader stay synchronous: a load has to be issued while the engine still
+     * counts the fields of its level, or the batch may never be dispatched.
+     */
+    private static <T> DataFetcher<CompletableFuture<T>> async(DataFetcher<T> fetcher) {
+        return AsyncDataFetcher.async(fetcher, resolverExecutor);
+    }
+
+    /**
+     * Runs a mutation fetcher while holding the mutation gate, so that a data reload never swaps the
+     * catalogue while a mutation is halfway through it.
+     */
+    private static <T> DataFetcher<T> mutation(DataFetcher<T> fetcher) {
+        return environment -> {
+            mutationGate.readLock().lock();
+            try {
+                return fetcher.get(environment);
+            } finally {
+                mutationGate.readLock().unlock();
+            }
+        };
+    }
+
+    static Executor newResolverExecutor(String kind) {
+        return switch (kind) {
+            case VIRTUAL_EXECUTOR -> Executors.newVirtualThreadPerTaskExecutor();
+            case FORK_JOIN_EXECUTOR -> new ForkJoinPool(Integer.getInteger(RESOLVER_PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()));
+            case DIRECT_EXECUTOR -> Runnable::run;
+            default -> throw new IllegalArgumentException("Unknown " + RESOLVER_EXECUTOR_PROPERTY + ": " + kind);
+        };
+    }
+
+    private static void checkBulkSize(List<?> inputs) {
+        if (inputs.size() > MAX_BULK_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_BULK_SIZE + " items can be added at once");
+        }
+    }
+
+    /**
+     * Events arrive long after the execution started, so a subscription reads the live store instead
+     * of a snapshot, and empties the data loader caches before each event so that they do not grow for
+     * as long as the subscription lives. Neither does it hold on to the catalogue generation it started
+     * on, which a reload may replace meanwhile.
+     */
+    private static <T> Publisher<T> subscribe(DataFetchingEnvironment environment, Flow.Publisher<T> events) {
+        environment.getGraphQlContext().delete(READ_VIEW);
+        environment.getGraphQlContext().delete(CATALOG);
+        DataLoaderRegistry dataLoaders = environment.getDataLoaderRegistry();
+        return FlowAdapters.toPublisher(EventPublisher.onEach(events, event -> dataLoaders.getDataLoaders().forEach(DataLoader::clearAll)));
+    }
+
+    // An explicit null falls back to the schema default
+    private static OverflowPolicy overflowPolicy(DataFetchingEnvironment environment) {
+        String overflow = environment.getArgument("overflow");
+        return overflow == null ? OverflowPolicy.LATEST : OverflowPolicy.valueOf(overflow);
+    }
+
+    private static CatalogRepository readView(DataFetchingEnvironment environment) {
+        return readView(environment.getGraphQlContext());
+    }
+
+    private static CatalogRepository readView(GraphQLContext context) {
+        CatalogRepository view = context.get(READ_VIEW);
+        return view != null ? view : repository();
+    }
+
+    private static CatalogSearch search(DataFetchingEnvironment environment) {
+        Catalog pinned = environment.getGraphQlContext().get(CATALOG);
+        return pinned != null ? pinned.search() : search();
+    }
+
+    private static int pageSize(DataFetchingEnvironment environment) {
+        Integer first = environment.getArgument("first");
+        if (first == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        if (first < 0 || first > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("first must be between 0 and " + MAX_PAGE_SIZE);
+        }
+        return first;
+    }
+
+    static GraphQL createGraphQLEntryPoint(TypeDefinitionRegistry typeDefinitionRegistry, RuntimeWiring runtimeWiring) {
+        return newEngine(typeDefinitionRegistry, runtimeWiring, 1).graphQL();
+    }
+
+    private static Engine newEngine(TypeDefinitionRegistry typeDefinitionRegistry, RuntimeWiring runtimeWiring, long generation) {
         SchemaGenerator schemaGenerator = new SchemaGenerator();
-        GraphQLSchema graphQLSchema = schemaGenerator.makeExecutableSchema(typeDefinitionRegistry, runtimeWiring);
-        return GraphQL.newGraphQL(graphQLSchema).build();
+        Generation<GraphQLSchema> schema = new Generation<>(schemaGenerator.makeExecutableSchema(typeDefinitionRegistry, runtimeWiring), generation);
+        // Documents are validated against one schema, so every schema gets a document cache of its own
+        DocumentCache documents = new DocumentCache(DOCUMENT_CACHE_MAX_WEIGHT);
+        List<Instrumentation> instrumentations = new ArrayList<>(List.of(
+                // First, so that the execution context is complete before anything else looks at it
+                new GenerationInstrumentation<>(schema, () -> catalog, Main::attach),
+                new MetricsInstrumentation(),
+                new MaxQueryDepthInstrumentation(MAX_QUERY_DEPTH),
+                new QueryCostInstrumentation(MAX_QUERY_COST, new CardinalityComplexityCalculator(Main::repository)),
+                new DurabilityInstrumentation(DurabilityInstrumentation.SYNC.equals(System.getProperty(DURABILITY_PROPERTY)))));
+        if (responseCache.isEnabled()) {
+            instrumentations.add(new CacheDependencyInstrumentation());
+        }
+        Instrumentation instrumentation = new ChainedInstrumentation(instrumentations);
+        GraphQL graphQL = GraphQL.newGraphQL(schema.getValue())
+                .preparsedDocumentProvider(documents)
+                .instrumentation(instrumentation)
+                .build();
+        return new Engine(graphQL, schema, documents);
+    }
+
+    /**
+     * Watches the data files and the schema file, and reloads them when they change.
+     */
+    private static void startReloader() {
+        HotReloader hotReloader = new HotReloader();
+        hotReloader.watch(DATA_FILES, List.of(Paths.get(DATA_DIR, BREWERIES_FILE), Paths.get(DATA_DIR, BEERS_FILE),
+                Paths.get(DATA_DIR, REVIEWS_FILE), Paths.get(DATA_DIR, USERS_FILE)), Main::reloadData);
+        Path schemaFile = schemaFile();
+        if (schemaFile != null) {
+            hotReloader.watch(SCHEMA_FILE, List.of(schemaFile), Main::reloadSchema);
+        }
+        reloader = hotReloader;
+        hotReloader.start();
     }
 
-    private static void saveBeersToFile() {
+    /**
+     * Builds a new catalogue from the data files and the mutation log, as a restart would, while the
+     * current one keeps serving, and swaps it in. Executions that already started finish on the
+     * catalogue they started on.
+     * <p>
+     * At most two catalogues are ever on the heap: a reload waits for the executions of the catalogue
+     * replaced by the previous one to drain, and for the heap to have room for a catalogue of the size
+     * the last one took. Returns {@code false} to be retried later if either is not the case yet.
+     */
+    private static boolean reloadData() {
+        try {
+            previousCatalogDrained.get(DRAIN_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            System.out.println("Data reload postponed: executions started before the last reload are still running");
+            DATA_RELOAD_POSTPONED.record(1);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unexpected failure draining the previous catalogue", e);
+        }
+        MemoryUsage heap = heapUsage();
+        long expected = catalogFootprint;
+        double maxHeapFraction = Double.parseDouble(System.getProperty(RELOAD_MAX_HEAP_FRACTION_PROPERTY,
+                String.valueOf(DEFAULT_RELOAD_MAX_HEAP_FRACTION)));
+        if (heap.getMax() > 0 && heap.getUsed() + expected > maxHeapFraction * heap.getMax()) {
+            System.out.println("Data reload postponed: " + megabytes(heap.getUsed()) + " MB of the heap in use, another catalogue of about "
+                    + megabytes(expected) + " MB would exceed " + Math.round(maxHeapFraction * 100) + "% of " + megabytes(heap.getMax()) + " MB");
+            DATA_RELOAD_POSTPONED.record(1);
+            return false;
+        }
+
+        System.out.println("Data files changed, reloading the catalogue");
+        long start = System.nanoTime();
+        boolean binarySnapshotFresh = hasFreshBinarySnapshot(DATA_DIR);
+        CatalogRepository repository = loadData(DATA_DIR);
+        if (!binarySnapshotFresh) {
+            BinarySnapshot.write(Paths.get(DATA_DIR, BINARY_SNAPSHOT_FILE), repository.snapshot());
+        }
+        Path logPath = Paths.get(DATA_DIR, MUTATION_LOG_FILE);
+        MutationLog.replay(logPath, entry -> replayLogEntry(repository, entry));
+        Catalog next = new Catalog(repository, CatalogSearch.build(repository));
+        long footprint = Math.max(0, heapUsage().getUsed() - heap.getUsed());
+
+        AtomicInteger caughtUp = new AtomicInteger();
+        CompletableFuture<Void> drained;
+        long swappedAt;
+        mutationGate.writeLock().lock();
+        try {
+            // Mutations made while the catalogue was built are in the log by now
+            MutationLog.replay(logPath, entry -> {
+                if (catchUp(next, entry)) {
+                    caughtUp.incrementAndGet();
+                }
+            });
+            drained = install(next.repository(), next.search());
+            swappedAt = System.nanoTime();
+        } finally {
+            mutationGate.writeLock().unlock();
+        }
+        responseCache.invalidateAll();
+
+        long generation = catalog.getNumber();
+        catalogFootprint = footprint;
+        previousCatalogDrained = drained;
+        DATA_RELOAD.recordSince(start);
+        DATA_RELOAD_HEAP.record(footprint);
+        System.out.println("Catalogue generation " + generation + " installed in " + TimeUnit.NANOSECONDS.toMillis(swappedAt - start)
+                + " ms with " + caughtUp.get() + " mutations caught up: building it took about " + megabytes(footprint)
+                + " MB of heap, " + megabytes(heapUsage().getUsed()) + " of " + megabytes(heap.getMax()) + " MB in use");
+        drained.thenRun(() -> {
+            DATA_DRAIN.recordSince(swappedAt);
+            System.out.println("Catalogue generation " + (generation - 1) + " drained "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - swappedAt) + " ms after the swap");
+        });
+        return true;
+    }
+
+    // Applies a log entry the new catalogue does not have yet and indexes what it added
+    private static boolean catchUp(Catalog target, Map<String, String> entry) {
+        if (!replayLogEntry(target.repository(), entry)) {
+            return false;
+        }
+        switch (entry.get(MutationLog.ENTITY_FIELD)) {
+            case MutationLog.BEER -> target.search().add(target.repository().findBeer(entry.get("id")));
+            case MutationLog.REVIEW -> target.search().add(target.repository().findReview(entry.get("id")));
+            default -> {
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds a GraphQL instance for the changed schema and swaps it in. Executions that already
+     * started finish on the instance they started on. A schema that does not parse or does not match
+     * the wiring is reported and the current one kept.
+     */
+    private static boolean reloadSchema() {
+        long start = System.nanoTime();
+        Engine previous = engine;
+        Engine next = newEngine(loadSchema(), buildRuntimeWiring(), previous.schema().getNumber() + 1);
+        engine = next;
+        long swappedAt = System.nanoTime();
+        // Responses of the same query may differ under the new schema
+        responseCache.invalidateAll();
+        SCHEMA_RELOAD.recordSince(start);
+        System.out.println("Schema generation " + next.schema().getNumber() + " installed in "
+                + TimeUnit.NANOSECONDS.toMillis(swappedAt - start) + " ms");
+        previous.schema().retire().thenRun(() -> {
+            SCHEMA_DRAIN.recordSince(swappedAt);
+            System.out.println("Schema generation " + previous.schema().getNumber() + " drained "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - swappedAt) + " ms after the swap");
+        });
+        return true;
+    }
+
+    private static MemoryUsage heapUsage() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    }
+
+    private static long megabytes(long bytes) {
+        return bytes / MEGABYTE;
+    }
+
+    // Called by the mutation log while appends are blocked, so only the view of the store is taken
+    // here; the returned writer serializes it while mutations go on
+    private static Runnable captureSnapshot() {
+        // Written files are not reloaded, and files changed on disk but not reloaded yet are not overwritten
+        HotReloader hotReloader = reloader;
+        if (hotReloader != null && !hotReloader.tryBeginOwnWrite(DATA_FILES)) {
+            throw new IllegalStateException("data files are being reloaded, compaction postponed");
+        }
+        CatalogRepository snapshot;
+        try {
+            snapshot = repository().snapshot();
+        } catch (RuntimeException e) {
+            if (hotReloader != null) {
+                hotReloader.endOwnWrite(DATA_FILES);
+            }
+            throw e;
+        }
+        return () -> {
+            try {
+                // All files are written from one consistent view of the store. The binary snapshot goes
+                // last, so that it is only preferred on startup once the JSON files are complete
+                saveBeersToFile(snapshot);
+                saveReviewsToFile(snapshot);
+                saveUsersToFile(snapshot);
+                BinarySnapshot.write(Paths.get(DATA_DIR, BINARY_SNAPSHOT_FILE), snapshot);
+            } finally {
+                if (hotReloader != null) {
+                    hotReloader.endOwnWrite(DATA_FILES);
+                }
+            }
+        };
+    }
+
+    private static void saveBeersToFile(CatalogRepository snapshot) {
         List<Map<String, String>> beerData = new ArrayList<>();
-        for (Beer beer : beers.values()) {
-            Map<String, String> beerMap = new HashMap<>();
-            beerMap.put("id", beer.getId());
-            beerMap.put("name", beer.getName());
-            beerMap.put("style", beer.getStyle());
-            beerMap.put("breweryId", beer.getBrewery().getId());
-            beerData.add(beerMap);
+        for (Beer beer : snapshot.findAllBeers()) {
+            beerData.add(toRecord(beer));
         }
         JsonUtils.saveToJsonFile(BEERS_DATA_PATH, beerData);
     }
 
-    private static void saveReviewsToFile() {
+    private static void saveReviewsToFile(CatalogRepository snapshot) {
         List<Map<String, String>> reviewData = new ArrayList<>();
-        for (Review review : reviews.values()) {
-            Map<String, String> reviewMap = new HashMap<>();
-            reviewMap.put("id", review.getId());
-            reviewMap.put("text", review.getText());
-            reviewMap.put("rating", String.valueOf(review.getRating()));
-            reviewMap.put("beerId", review.getBeer().getId());
-            reviewMap.put("userId", review.getUser().getId());
-            reviewData.add(reviewMap);
+        for (Review review : snapshot.findAllReviews()) {
+            reviewData.add(toRecord(review));
         }
         JsonUtils.saveToJsonFile(REVIEWS_DATA_PATH, reviewData);
     }
 
-    private static void saveUsersToFile() {
+    private static void saveUsersToFile(CatalogRepository snapshot) {
         List<Map<String, String>> userData = new ArrayList<>();
-        for (User user : users.values()) {
-            Map<String, String> userMap = new HashMap<>();
-            userMap.put("id", user.getId());
-            userMap.put("name", user.getName());
-            userMap.put("email", user.getEmail());
-            userData.add(userMap);
+        for (User user : snapshot.findAllUsers()) {
+            userData.add(toRecord(user));
         }
         JsonUtils.saveToJsonFile(USERS_DATA_PATH, userData);
     }
+
+    private static Map<String, String> toRecord(Brewery brewery) {
+        Map<String, String> breweryMap = new HashMap<>();
+        breweryMap.put("id", brewery.getId());
+        breweryMap.put("name", brewery.getName());
+        breweryMap.put("location", brewery.getCountry());
+        return breweryMap;
+    }
+
+    private static Map<String, String> toRecord(Beer beer) {
+        Map<String, String> beerMap = new HashMap<>();
+        beerMap.put("id", beer.getId());
+        beerMap.put("name", beer.getName());
+        beerMap.put("style", beer.getStyle());
+        beerMap.put("breweryId", beer.getBrewery().getId());
+        return beerMap;
+    }
+
+    private static Map<String, String> toRecord(Review review) {
+        Map<String, String> reviewMap = new HashMap<>();
+        reviewMap.put("id", review.getId());
+        reviewMap.put("text", review.getText());
+        reviewMap.put("rating", String.valueOf(review.getRating()));
+        reviewMap.put("beerId", review.getBeer().getId());
+        reviewMap.put("userId", review.getUser().getId());
+        return reviewMap;
+    }
+
+    private static Map<String, String> toRecord(User user) {
+        Map<String, String> userMap = new HashMap<>();
+        userMap.put("id", user.getId());
+        userMap.put("name", user.getName());
+        userMap.put("email", user.getEmail());
+        return userMap;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,37 @@
+package org.example.execution;
+
+/**
+ * The outcome of one item of a bulk mutation: the stored entity, or the reason the item was rejected.
+ */
+public class BulkResult<T> {
+
+    private final int index;
+    private final T item;
+    private final String error;
+
+    private BulkResult(int index, T item, String error) {
+        this.index = index;
+        this.item = item;
+        this.error = error;
+    }
+
+    public static <T> BulkResult<T> stored(int index, T item) {
+        return new BulkResult<>(index, item, null);
+    }
+
+    public static <T> BulkResult<T> rejected(int index, String error) {
+        return new BulkResult<>(index, null, error);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public T getItem() {
+        return item;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
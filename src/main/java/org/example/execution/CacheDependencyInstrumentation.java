@@ -0,0 +1,103 @@
+package org.example.execution;
+
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLNamedType;
+import org.example.models.Beer;
+import org.example.models.Brewery;
+import org.example.models.Review;
+import org.example.models.User;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Records what a cacheable execution read, for {@link ResponseCache} invalidation, and defines what
+ * each mutation invalidates.
+ * <p>
+ * Entities never change once stored; only the lists and rating aggregates derived from their relations
+ * grow. A root list or connection therefore depends on its entity type, a root lookup by id on that one
+ * entity, and a derived field on the entity it is read from.
+ */
+public class CacheDependencyInstrumentation extends SimplePerformantInstrumentation {
+
+    // Search results can change with any new beer or review
+    private static final String SEARCH = "Search";
+
+    private static final Set<String> DERIVED_FIELDS = Set.of(
+            "beers", "reviews", "reviewsConnection", "averageRating", "reviewCount", "ratingHistogram");
+
+    @Override
+    public InstrumentationContext<Object> beginFieldFetch(InstrumentationFieldFetchParameters parameters, InstrumentationState state) {
+        DataFetchingEnvironment environment = parameters.getEnvironment();
+        Set<String> dependencies = environment.getGraphQlContext().get(ResponseCache.DEPENDENCIES);
+        if (dependencies != null) {
+            String dependency = dependency(environment);
+            if (dependency != null) {
+                dependencies.add(dependency);
+            }
+        }
+        return SimpleInstrumentationContext.noOp();
+    }
+
+    private static String dependency(DataFetchingEnvironment environment) {
+        String type = ((GraphQLNamedType) environment.getParentType()).getName();
+        String field = environment.getField().getName();
+        if (type.equals("Query")) {
+            return switch (field) {
+                case "beer" -> entity("Beer", environment.getArgument("id"));
+                case "brewery" -> entity("Brewery", environment.getArgument("id"));
+                case "review" -> entity("Review", environment.getArgument("id"));
+                case "user" -> entity("User", environment.getArgument("id"));
+                case "beers", "beersConnection" -> "Beer";
+                case "breweries", "breweriesConnection" -> "Brewery";
+                case "reviews", "reviewsConnection" -> "Review";
+                case "users", "usersConnection" -> "User";
+                case "search" -> SEARCH;
+                default -> ResponseCache.UNCACHEABLE;
+            };
+        }
+        if (type.equals("Mutation") || type.equals("Subscription")) {
+            return ResponseCache.UNCACHEABLE;
+        }
+        if (!DERIVED_FIELDS.contains(field)) {
+            return null;
+        }
+        return switch (environment.getSource()) {
+            case Beer beer -> entity("Beer", beer.getId());
+            case Brewery brewery -> entity("Brewery", brewery.getId());
+            case User user -> entity("User", user.getId());
+            case null, default -> null;
+        };
+    }
+
+    /**
+     * A new beer is listed by its brewery and in every beer list, and resolves a lookup of its id.
+     */
+    public static List<String> touchedBy(Beer beer) {
+        return List.of("Beer", SEARCH, entity("Beer", beer.getId()), entity("Brewery", beer.getBrewery().getId()));
+    }
+
+    /**
+     * A new review changes the lists and ratings of its beer, the beer's brewery and its user.
+     */
+    public static List<String> touchedBy(Review review) {
+        Beer beer = review.getBeer();
+        return beer.getBrewery() == null
+                ? List.of("Review", SEARCH, entity("Review", review.getId()), entity("Beer", beer.getId()), entity("User", review.getUser().getId()))
+                : List.of("Review", SEARCH, entity("Review", review.getId()), entity("Beer", beer.getId()), entity("User", review.getUser().getId()),
+                        entity("Brewery", beer.getBrewery().getId()));
+    }
+
+    public static List<String> touchedBy(User user) {
+        return List.of("User", entity("User", user.getId()));
+    }
+
+    private static String entity(String type, String id) {
+        return type + ":" + id;
+    }
+}
@@ -0,0 +1,60 @@
+package org.example.execution;
+
+import graphql.analysis.FieldComplexityCalculator;
+import graphql.analysis.FieldComplexityEnvironment;
+import graphql.schema.GraphQLList;
+import graphql.schema.GraphQLType;
+import graphql.schema.GraphQLTypeUtil;
+import org.example.repository.CatalogRepository;
+
+import java.util.function.Supplier;
+
+/**
+ * Estimates the cost of a field as the number of resolver calls it causes. A list field multiplies the
+ * cost of its selection by the number of items it is expected to return, taken from the current entity
+ * counts of the store: a nested {@code Beer.reviews} costs the average number of reviews per beer.
+ */
+public class CardinalityComplexityCalculator implements FieldComplexityCalculator {
+
+    private static final int DEFAULT_LIST_CARDINALITY = 10;
+
+    private final Supplier<CatalogRepository> repository;
+
+    public CardinalityComplexityCalculator(Supplier<CatalogRepository> repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public int calculate(FieldComplexityEnvironment environment, int childComplexity) {
+        GraphQLType type = GraphQLTypeUtil.unwrapNonNull(environment.getFieldDefinition().getType());
+        long cardinality = type instanceof GraphQLList ? cardinality(environment) : 1;
+        return (int) Math.min(Integer.MAX_VALUE, 1 + cardinality * childComplexity);
+    }
+
+    private long cardinality(FieldComplexityEnvironment environment) {
+        CatalogRepository store = repository.get();
+        String field = environment.getParentType().getName() + "." + environment.getField().getName();
+        return switch (field) {
+            case "Query.beers" -> store.countBeers();
+            case "Query.breweries" -> store.countBreweries();
+            case "Query.reviews" -> store.countReviews();
+            case "Query.users" -> store.countUsers();
+            case "Brewery.beers" -> average(store.countBeers(), store.countBreweries());
+            case "Beer.reviews" -> average(store.countReviews(), store.countBeers());
+            case "User.reviews" -> average(store.countReviews(), store.countUsers());
+            case "BeerConnection.edges", "BreweryConnection.edges", "ReviewConnection.edges", "UserConnection.edges" -> pageSize(environment);
+            case "Query.search" -> environment.getArguments().get("first") instanceof Integer first ? first : DEFAULT_LIST_CARDINALITY;
+            default -> DEFAULT_LIST_CARDINALITY;
+        };
+    }
+
+    private static long pageSize(FieldComplexityEnvironment environment) {
+        FieldComplexityEnvironment connection = environment.getParentEnvironment();
+        Object first = connection == null ? null : connection.getArguments().get("first");
+        return first instanceof Integer size ? size : DEFAULT_LIST_CARDINALITY;
+    }
+
+    private static long average(long items, long owners) {
+        return owners == 0 ? 0 : (items + owners - 1) / owners;
+    }
+}
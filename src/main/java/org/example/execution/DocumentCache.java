@@ -0,0 +1,181 @@
+package org.example.execution;
+
+import graphql.ExecutionInput;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+import graphql.execution.preparsed.persisted.ApolloPersistedQuerySupport;
+import graphql.execution.preparsed.persisted.PersistedQueryCache;
+import graphql.execution.preparsed.persisted.PersistedQueryCacheMiss;
+import graphql.execution.preparsed.persisted.PersistedQueryNotFound;
+import graphql.execution.preparsed.persisted.PersistedQuerySupport;
+import org.example.metrics.Histogram;
+import org.example.metrics.Metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * LRU cache of parsed and validated query documents, keyed by the SHA-256 hash of the query text
+ * and bounded by the total length of the cached queries.
+ * <p>
+ * Requests carrying the Apollo {@code persistedQuery} extension are served through the same cache,
+ * so a client can send only the hash of any query the server has already seen. Hits and evictions
+ * are recorded in the {@link Metrics} of all document caches.
+ */
+public final class DocumentCache implements PreparsedDocumentProvider, PersistedQueryCache {
+
+    // 1 for a hit and 0 for a miss, so the mean is the hit ratio
+    private static final Histogram HITS = Metrics.histogram("documentCache.hits", Metrics.ITEMS);
+    // Documents evicted by one store
+    private static final Histogram EVICTIONS = Metrics.histogram("documentCache.evictions", Metrics.ITEMS);
+
+    private final long maxWeight;
+    private final PersistedQuerySupport persistedQuerySupport = new ApolloPersistedQuerySupport(this);
+    private final LinkedHashMap<String, CachedDocument> documents = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Guarded by documents
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxWeight the maximum total number of query characters kept in the cache
+     */
+    public DocumentCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    @Override
+    public CompletableFuture<PreparsedDocumentEntry> getDocumentAsync(ExecutionInput executionInput,
+                                                                      Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction) {
+        if (executionInput.getExtensions().containsKey("persistedQuery")) {
+            return persistedQuerySupport.getDocumentAsync(executionInput, parseAndValidateFunction);
+        }
+        String query = executionInput.getQuery();
+        return CompletableFuture.completedFuture(
+                getOrParse(hash(query), query, ignored -> parseAndValidateFunction.apply(executionInput)));
+    }
+
+    @Override
+    public CompletableFuture<PreparsedDocumentEntry> getPersistedQueryDocumentAsync(Object persistedQueryId,
+                                                                                   ExecutionInput executionInput,
+                                                                                   PersistedQueryCacheMiss onCacheMiss) throws PersistedQueryNotFound {
+        String key = persistedQueryId.toString();
+        String query = executionInput.getQuery();
+        if (query == null || query.isBlank() || query.equals(PersistedQuerySupport.PERSISTED_QUERY_MARKER)) {
+            PreparsedDocumentEntry entry = lookup(key);
+            if (entry == null) {
+                throw new PersistedQueryNotFound(persistedQueryId);
+            }
+            return CompletableFuture.completedFuture(entry);
+        }
+        return CompletableFuture.completedFuture(getOrParse(key, query, onCacheMiss));
+    }
+
+    private PreparsedDocumentEntry getOrParse(String key, String query, Function<String, PreparsedDocumentEntry> parser) {
+        PreparsedDocumentEntry cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        PreparsedDocumentEntry entry = parser.apply(query);
+        // Documents that failed to parse or validate are cheap to reject again and not worth the space
+        if (!entry.hasErrors()) {
+            store(key, new CachedDocument(entry, query.length()));
+        }
+        return entry;
+    }
+
+    private PreparsedDocumentEntry lookup(String key) {
+        CachedDocument cached;
+        synchronized (documents) {
+            cached = documents.get(key);
+        }
+        if (cached == null) {
+            misses.increment();
+            HITS.record(0);
+            return null;
+        }
+        hits.increment();
+        HITS.record(1);
+        return cached.entry();
+    }
+
+    private void store(String key, CachedDocument document) {
+        if (document.weight() > maxWeight) {
+            return;
+        }
+        int evicted = 0;
+        synchronized (documents) {
+            CachedDocument previous = documents.put(key, document);
+            weight += document.weight() - (previous == null ? 0 : previous.weight());
+            Iterator<CachedDocument> eldest = documents.values().iterator();
+            while (weight > maxWeight && eldest.hasNext()) {
+                weight -= eldest.next().weight();
+                eldest.remove();
+                evicted++;
+            }
+        }
+        evictions.add(evicted);
+        EVICTIONS.record(evicted);
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public int getEntryCount() {
+        synchronized (documents) {
+            return documents.size();
+        }
+    }
+
+    public long getWeight() {
+        synchronized (documents) {
+            return weight;
+        }
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", getHitCount());
+        stats.put("misses", getMissCount());
+        stats.put("evictions", getEvictionCount());
+        stats.put("entries", (long) getEntryCount());
+        stats.put("weight", getWeight());
+        stats.put("maxWeight", maxWeight);
+        return stats;
+    }
+
+    /**
+     * Returns the lowercase hex SHA-256 of the query, the same id clients use for persisted queries.
+     */
+    public static String hash(String query) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(query.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private record CachedDocument(PreparsedDocumentEntry entry, long weight) {
+    }
+}
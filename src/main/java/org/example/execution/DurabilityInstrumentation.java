@@ -0,0 +1,82 @@
+package org.example.execution;
+
+import graphql.ExecutionResult;
+import graphql.GraphQLContext;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Acknowledges the durability of mutations separately from their result. Mutations are answered as
+ * soon as they are applied in memory, while their mutation log writes are synced in the background;
+ * the {@code durability} entry of the result extensions tells whether those writes were already on
+ * stable storage when the result was built. Queries may read a mutation before it is durable, but
+ * subscribers are only told about it once it is.
+ * <p>
+ * An operation whose {@code durability} request extension is {@value #SYNC} is held back until its
+ * writes are durable, and gets an error if they could not be made so. With {@code syncByDefault} that
+ * is what happens unless the extension is {@value #ASYNC}.
+ */
+public class DurabilityInstrumentation extends SimplePerformantInstrumentation {
+
+    public static final String SYNC = "sync";
+    public static final String ASYNC = "async";
+
+    private static final String WRITES = "durability.writes";
+
+    private final boolean syncByDefault;
+
+    public DurabilityInstrumentation(boolean syncByDefault) {
+        this.syncByDefault = syncByDefault;
+    }
+
+    /**
+     * Records a write of the execution that owns the context, to be acknowledged with its result.
+     */
+    @SuppressWarnings("unchecked")
+    public static void track(GraphQLContext context, CompletableFuture<Void> durable) {
+        context.compute(WRITES, (key, writes) -> {
+            List<CompletableFuture<Void>> tracked = writes == null ? new ArrayList<>() : (List<CompletableFuture<Void>>) writes;
+            tracked.add(durable);
+            return tracked;
+        });
+    }
+
+    @Override
+    public CompletableFuture<ExecutionResult> instrumentExecutionResult(ExecutionResult executionResult,
+                                                                        InstrumentationExecutionParameters parameters,
+                                                                        InstrumentationState state) {
+        List<CompletableFuture<Void>> writes = parameters.getGraphQLContext().get(WRITES);
+        if (writes == null) {
+            return CompletableFuture.completedFuture(executionResult);
+        }
+        CompletableFuture<Void> durable = CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new));
+        Object requested = parameters.getExecutionInput().getExtensions().get("durability");
+        boolean sync = requested == null ? syncByDefault : SYNC.equals(requested);
+        if (!sync) {
+            return CompletableFuture.completedFuture(withDurability(executionResult, durable.isDone() && !durable.isCompletedExceptionally()));
+        }
+        return durable.handle((ignored, failure) -> {
+            ExecutionResult result = withDurability(executionResult, failure == null);
+            if (failure == null) {
+                return result;
+            }
+            return result.transform(builder -> builder.addError(GraphqlErrorBuilder.newError()
+                    .message("The mutation was applied but could not be made durable")
+                    .build()));
+        });
+    }
+
+    private static ExecutionResult withDurability(ExecutionResult executionResult, boolean durable) {
+        Map<String, Object> durability = new LinkedHashMap<>();
+        durability.put("durable", durable);
+        return executionResult.transform(builder -> builder.addExtension("durability", durability));
+    }
+}
@@ -0,0 +1,40 @@
+package org.example.execution;
+
+import graphql.relay.ConnectionCursor;
+import graphql.relay.DefaultConnection;
+import graphql.relay.DefaultConnectionCursor;
+import graphql.relay.DefaultEdge;
+import graphql.relay.DefaultPageInfo;
+import graphql.relay.Edge;
+import org.example.repository.Page;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Relay connection over a repository {@link Page}, with the total number of matching items.
+ */
+public class PagedConnection<T> extends DefaultConnection<T> {
+
+    private final Page<T> page;
+
+    private PagedConnection(List<Edge<T>> edges, DefaultPageInfo pageInfo, Page<T> page) {
+        super(edges, pageInfo);
+        this.page = page;
+    }
+
+    public static <T> PagedConnection<T> of(Page<T> page) {
+        List<Edge<T>> edges = new ArrayList<>(page.getItems().size());
+        for (int i = 0; i < page.getItems().size(); i++) {
+            edges.add(new DefaultEdge<>(page.getItems().get(i), new DefaultConnectionCursor(page.getCursors().get(i))));
+        }
+        ConnectionCursor startCursor = edges.isEmpty() ? null : edges.get(0).getCursor();
+        ConnectionCursor endCursor = edges.isEmpty() ? null : edges.get(edges.size() - 1).getCursor();
+        DefaultPageInfo pageInfo = new DefaultPageInfo(startCursor, endCursor, page.hasPreviousPage(), page.hasNextPage());
+        return new PagedConnection<>(edges, pageInfo, page);
+    }
+
+    public int getTotalCount() {
+        return page.getTotalCount();
+    }
+}
@@ -0,0 +1,76 @@
+package org.example.execution;
+
+import graphql.ExecutionResult;
+import graphql.analysis.FieldComplexityCalculator;
+import graphql.analysis.QueryComplexityCalculator;
+import graphql.execution.AbortExecutionException;
+import graphql.execution.ExecutionContext;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationCreateStateParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Computes the cost of an operation before any resolver runs and aborts it when the cost is above
+ * the limit. The computed cost is reported in the {@code cost} entry of the result extensions,
+ * for rejected operations too.
+ */
+public class QueryCostInstrumentation extends SimplePerformantInstrumentation {
+
+    private final int maxCost;
+    private final FieldComplexityCalculator fieldComplexityCalculator;
+
+    public QueryCostInstrumentation(int maxCost, FieldComplexityCalculator fieldComplexityCalculator) {
+        this.maxCost = maxCost;
+        this.fieldComplexityCalculator = fieldComplexityCalculator;
+    }
+
+    @Override
+    public InstrumentationState createState(InstrumentationCreateStateParameters parameters) {
+        return new CostState();
+    }
+
+    @Override
+    public InstrumentationContext<ExecutionResult> beginExecuteOperation(InstrumentationExecuteOperationParameters parameters,
+                                                                         InstrumentationState state) {
+        ExecutionContext executionContext = parameters.getExecutionContext();
+        int cost = QueryComplexityCalculator.newCalculator()
+                .schema(executionContext.getGraphQLSchema())
+                .document(executionContext.getDocument())
+                .operationName(executionContext.getExecutionInput().getOperationName())
+                .variables(executionContext.getCoercedVariables())
+                .fieldComplexityCalculator(fieldComplexityCalculator)
+                .build()
+                .calculate();
+        ((CostState) state).cost = cost;
+        if (cost > maxCost) {
+            throw new AbortExecutionException("Query cost " + cost + " exceeds the maximum of " + maxCost);
+        }
+        return SimpleInstrumentationContext.noOp();
+    }
+
+    @Override
+    public CompletableFuture<ExecutionResult> instrumentExecutionResult(ExecutionResult executionResult,
+                                                                        InstrumentationExecutionParameters parameters,
+                                                                        InstrumentationState state) {
+        Integer cost = ((CostState) state).cost;
+        if (cost == null) {
+            return CompletableFuture.completedFuture(executionResult);
+        }
+        Map<String, Object> costInfo = new LinkedHashMap<>();
+        costInfo.put("requested", cost);
+        costInfo.put("maximum", maxCost);
+        return CompletableFuture.completedFuture(executionResult.transform(builder -> builder.addExtension("cost", costInfo)));
+    }
+
+    private static class CostState implements InstrumentationState {
+        private volatile Integer cost;
+    }
+}
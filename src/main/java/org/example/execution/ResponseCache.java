@@ -0,0 +1,272 @@
+package org.example.execution;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import org.example.metrics.Histogram;
+import org.example.metrics.Metrics;
+import org.example.utils.JsonUtils;
+import org.example.utils.ResultWriter;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU cache of serialized query results, keyed by the query text as sent, operation name and
+ * variables, and bounded by the total size of the cached responses. Entries expire after a fixed
+ * time to live, so they expire in the order they were stored: every lookup and store drops the
+ * expired entries at the front of that order and stops at the first live one.
+ * <p>
+ * A lookup does not parse the query. Whether an operation may be cached is only known once it ran:
+ * mutations and subscriptions record themselves as uncacheable, so their results are never stored.
+ * <p>
+ * Every entry carries the dependencies its execution recorded through {@link CacheDependencyInstrumentation}:
+ * entity types for lists and connections, and {@code Type:id} for single entities and their derived
+ * fields. A mutation invalidates the dependencies it touches, which drops exactly the entries that read
+ * them. A result computed while an invalidation happened is not stored, since it may predate the write.
+ * <p>
+ * The {@code responseCache.hits} histogram records 1 per hit and 0 per miss, so its mean is the hit ratio.
+ */
+public class ResponseCache {
+
+    /**
+     * GraphQL context key of the set that collects the dependencies of one execution.
+     */
+    public static final String DEPENDENCIES = "responseCache.dependencies";
+
+    /**
+     * Recorded by fields whose result cannot be tied to the catalogue, such as the metrics.
+     */
+    public static final String UNCACHEABLE = "*";
+
+    // Rough per-entry cost of the key, the entry and the tag index, on top of the response itself
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private static final Histogram HITS = Metrics.histogram("responseCache.hits", Metrics.ITEMS);
+    private static final Histogram RESPONSE_SIZE = Metrics.histogram("responseCache.responseSize", Metrics.BYTES);
+
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // The same entries, oldest first
+    private final LinkedHashMap<String, CachedResponse> byAge = new LinkedHashMap<>();
+    private final Map<String, Set<String>> keysByDependency = new HashMap<>();
+
+    // All guarded by entries
+    private long bytes;
+    private long generation;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param maxBytes the maximum total size of the cached responses, 0 to disable the cache
+     */
+    public ResponseCache(long maxBytes, long ttl, TimeUnit unit) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Returns the cache key of the operation, or {@code null} if its result must not be cached because
+     * it asks for tracing. The key of a persisted query is its hash.
+     */
+    public String keyOf(ExecutionInput input) {
+        if (!isEnabled() || Boolean.TRUE.equals(input.getExtensions().get("tracing"))) {
+            return null;
+        }
+        String document;
+        if (input.getExtensions().get("persistedQuery") instanceof Map<?, ?> persistedQuery) {
+            if (!(persistedQuery.get("sha256Hash") instanceof String hash)) {
+                return null;
+            }
+            document = "persisted:" + hash;
+        } else {
+            document = input.getQuery();
+        }
+        return input.getOperationName() + "\n" + JsonUtils.serializeToCanonicalJson(input.getVariables()) + "\n" + document;
+    }
+
+    public byte[] get(String key) {
+        CachedResponse cached;
+        synchronized (entries) {
+            expire();
+            cached = entries.get(key);
+        }
+        if (cached == null) {
+            misses.increment();
+            HITS.record(0);
+            return null;
+        }
+        hits.increment();
+        HITS.record(1);
+        return cached.response();
+    }
+
+    /**
+     * Starts collecting the dependencies of an execution in its context and returns the current
+     * generation, to be passed to {@link #put}.
+     */
+    public long track(ExecutionInput input) {
+        input.getGraphQLContext().put(DEPENDENCIES, ConcurrentHashMap.newKeySet());
+        synchronized (entries) {
+            return generation;
+        }
+    }
+
+    /**
+     * Serializes a successful result, stores it unless something was invalidated since {@code generation}
+     * or the execution read an uncacheable field, and returns the serialized bytes either way.
+     */
+    public byte[] put(String key, ExecutionInput input, ExecutionResult result, long generation) {
+        byte[] response = ResultWriter.toBytes(result);
+        Set<String> dependencies = input.getGraphQLContext().get(DEPENDENCIES);
+        if (!result.getErrors().isEmpty() || dependencies == null || dependencies.contains(UNCACHEABLE)) {
+            return response;
+        }
+        long weight = response.length + key.length() + ENTRY_OVERHEAD;
+        if (weight > maxBytes) {
+            return response;
+        }
+        RESPONSE_SIZE.record(response.length);
+        synchronized (entries) {
+            if (generation != this.generation) {
+                return response;
+            }
+            expire();
+            remove(key);
+            CachedResponse cached = new CachedResponse(response, Set.copyOf(dependencies), weight, System.nanoTime());
+            entries.put(key, cached);
+            byAge.put(key, cached);
+            for (String dependency : dependencies) {
+                keysByDependency.computeIfAbsent(dependency, ignored -> new HashSet<>()).add(key);
+            }
+            bytes += weight;
+            Iterator<String> eldest = entries.keySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                String evicted = eldest.next();
+                CachedResponse entry = entries.get(evicted);
+                eldest.remove();
+                byAge.remove(evicted);
+                unlink(evicted, entry);
+                evictions.increment();
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Drops every entry that depends on any of the given dependencies.
+     */
+    public void invalidate(Collection<String> dependencies) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (entries) {
+            generation++;
+            for (String dependency : dependencies) {
+                Set<String> keys = keysByDependency.remove(dependency);
+                if (keys == null) {
+                    continue;
+                }
+                for (String key : keys) {
+                    if (remove(key)) {
+                        invalidations.increment();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every entry, for when the whole catalogue was replaced.
+     */
+    public void invalidateAll() {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (entries) {
+            generation++;
+            invalidations.add(entries.size());
+            entries.clear();
+            byAge.clear();
+            keysByDependency.clear();
+            bytes = 0;
+        }
+    }
+
+    // All must be called while holding entries
+
+    private void expire() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<String, CachedResponse>> oldest = byAge.entrySet().iterator();
+        while (oldest.hasNext()) {
+            Map.Entry<String, CachedResponse> entry = oldest.next();
+            if (now - entry.getValue().storedAt() <= ttlNanos) {
+                return;
+            }
+            oldest.remove();
+            entries.remove(entry.getKey());
+            unlink(entry.getKey(), entry.getValue());
+            expirations.increment();
+        }
+    }
+
+    private boolean remove(String key) {
+        CachedResponse entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        byAge.remove(key);
+        unlink(key, entry);
+        return true;
+    }
+
+    private void unlink(String key, CachedResponse entry) {
+        bytes -= entry.weight();
+        for (String dependency : entry.dependencies()) {
+            Set<String> keys = keysByDependency.get(dependency);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByDependency.remove(dependency);
+                }
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("evictions", evictions.sum());
+        stats.put("expirations", expirations.sum());
+        stats.put("invalidations", invalidations.sum());
+        synchronized (entries) {
+            stats.put("entries", (long) entries.size());
+            stats.put("bytes", bytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+
+    private record CachedResponse(byte[] response, Set<String> dependencies, long weight, long storedAt) {
+    }
+}
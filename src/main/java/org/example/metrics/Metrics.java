@@ -0,0 +1,56 @@
+package org.example.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide registry of named histograms. Callers on hot paths should look a histogram up once
+ * and keep the reference.
+ */
+public class Metrics {
+
+    public static final String NANOSECONDS = "ns";
+    public static final String ITEMS = "items";
+    public static final String BYTES = "bytes";
+
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private Metrics() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    public static Histogram histogram(String name, String unit) {
+        Histogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, key -> new Histogram(key, unit));
+    }
+
+    public static Histogram timer(String name) {
+        return histogram(name, NANOSECONDS);
+    }
+
+    /**
+     * Returns a point-in-time summary of every histogram, ordered by name.
+     */
+    public static List<Map<String, Object>> snapshot() {
+        List<Histogram> sorted = new ArrayList<>(histograms.values());
+        sorted.sort(Comparator.comparing(Histogram::getName));
+        List<Map<String, Object>> snapshot = new ArrayList<>(sorted.size());
+        for (Histogram histogram : sorted) {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("name", histogram.getName());
+            summary.put("unit", histogram.getUnit());
+            summary.put("count", (double) histogram.getCount());
+            summary.put("mean", histogram.getMean());
+            summary.put("p50", (double) histogram.getPercentile(50));
+            summary.put("p90", (double) histogram.getPercentile(90));
+            summary.put("p99", (double) histogram.getPercentile(99));
+            summary.put("max", (double) histogram.getMax());
+            snapshot.add(summary);
+        }
+        return snapshot;
+    }
+}
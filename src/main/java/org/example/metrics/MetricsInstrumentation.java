@@ -0,0 +1,149 @@
+package org.example.metrics;
+
+import graphql.ExecutionResult;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationCreateStateParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationValidationParameters;
+import graphql.language.Document;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLNamedType;
+import graphql.schema.GraphQLTypeUtil;
+import graphql.validation.ValidationError;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records parse, validation and execution latency, the fetch latency of every field and the size of
+ * every list a field fetcher returns into {@link Metrics}.
+ * <p>
+ * When the request carries {@code "tracing": true} in its extensions, the timings of that one
+ * execution are also returned under the {@code tracing} entry of the result extensions.
+ */
+public class MetricsInstrumentation extends SimplePerformantInstrumentation {
+
+    private static final Histogram PARSE = Metrics.timer("phase.parse");
+    private static final Histogram VALIDATE = Metrics.timer("phase.validate");
+    private static final Histogram EXECUTE = Metrics.timer("phase.execute");
+
+    private final Map<GraphQLFieldDefinition, FieldHistograms> fields = new ConcurrentHashMap<>();
+
+    @Override
+    public InstrumentationState createState(InstrumentationCreateStateParameters parameters) {
+        return new TracingState(Boolean.TRUE.equals(parameters.getExecutionInput().getExtensions().get("tracing")));
+    }
+
+    @Override
+    public InstrumentationContext<Document> beginParse(InstrumentationExecutionParameters parameters, InstrumentationState state) {
+        return timed(PARSE, state, "parse");
+    }
+
+    @Override
+    public InstrumentationContext<List<ValidationError>> beginValidation(InstrumentationValidationParameters parameters, InstrumentationState state) {
+        return timed(VALIDATE, state, "validate");
+    }
+
+    @Override
+    public InstrumentationContext<ExecutionResult> beginExecuteOperation(InstrumentationExecuteOperationParameters parameters, InstrumentationState state) {
+        return timed(EXECUTE, state, "execute");
+    }
+
+    @Override
+    public InstrumentationContext<Object> beginFieldFetch(InstrumentationFieldFetchParameters parameters, InstrumentationState state) {
+        FieldHistograms histograms = histogramsFor(parameters);
+        long start = System.nanoTime();
+        return SimpleInstrumentationContext.whenCompleted((result, throwable) -> {
+            long elapsed = System.nanoTime() - start;
+            histograms.fetch.record(elapsed);
+            if (histograms.listSize != null && result instanceof Collection<?> list) {
+                histograms.listSize.record(list.size());
+            }
+            if (state instanceof TracingState tracing && tracing.enabled) {
+                tracing.recordField(parameters.getExecutionStepInfo().getPath().toString(), start, elapsed);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<ExecutionResult> instrumentExecutionResult(ExecutionResult executionResult,
+                                                                        InstrumentationExecutionParameters parameters,
+                                                                        InstrumentationState state) {
+        if (!(state instanceof TracingState tracing) || !tracing.enabled) {
+            return CompletableFuture.completedFuture(executionResult);
+        }
+        return CompletableFuture.completedFuture(executionResult.transform(builder -> builder.addExtension("tracing", tracing.toMap())));
+    }
+
+    private FieldHistograms histogramsFor(InstrumentationFieldFetchParameters parameters) {
+        GraphQLFieldDefinition field = parameters.getField();
+        FieldHistograms histograms = fields.get(field);
+        if (histograms == null) {
+            String parentType = ((GraphQLNamedType) parameters.getExecutionStepInfo().getObjectType()).getName();
+            histograms = fields.computeIfAbsent(field, key -> new FieldHistograms(parentType + "." + key.getName(),
+                    GraphQLTypeUtil.isList(GraphQLTypeUtil.unwrapNonNull(key.getType()))));
+        }
+        return histograms;
+    }
+
+    private static <T> InstrumentationContext<T> timed(Histogram histogram, InstrumentationState state, String phase) {
+        long start = System.nanoTime();
+        return SimpleInstrumentationContext.whenCompleted((result, throwable) -> {
+            long elapsed = System.nanoTime() - start;
+            histogram.record(elapsed);
+            if (state instanceof TracingState tracing && tracing.enabled) {
+                tracing.phases.put(phase, elapsed);
+            }
+        });
+    }
+
+    private static class FieldHistograms {
+        private final Histogram fetch;
+        private final Histogram listSize;
+
+        private FieldHistograms(String field, boolean list) {
+            this.fetch = Metrics.timer("field." + field);
+            this.listSize = list ? Metrics.histogram("listSize." + field, Metrics.ITEMS) : null;
+        }
+    }
+
+    private static class TracingState implements InstrumentationState {
+        private final boolean enabled;
+        private final long startNanos = System.nanoTime();
+        private final Map<String, Long> phases = new ConcurrentHashMap<>();
+        private final List<Map<String, Object>> fields = Collections.synchronizedList(new ArrayList<>());
+
+        private TracingState(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        private void recordField(String path, long start, long duration) {
+            Map<String, Object> field = new LinkedHashMap<>();
+            field.put("path", path);
+            field.put("startOffsetNanos", start - startNanos);
+            field.put("durationNanos", duration);
+            fields.add(field);
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> tracing = new LinkedHashMap<>();
+            tracing.put("durationNanos", System.nanoTime() - startNanos);
+            tracing.put("phases", new LinkedHashMap<>(phases));
+            synchronized (fields) {
+                tracing.put("fields", new ArrayList<>(fields));
+            }
+            return tracing;
+        }
+    }
+}
@@ -1,20 +1,35 @@
 package org.example.models;
 
-import java.util.ArrayList;
 import java.util.List;
 
-public class Beer {
+public class Beer implements Versioned {
     private final String id;
     private final String name;
     private final String style;
     private final Brewery brewery;
-    private final List<Review> reviews = new ArrayList<>();
+    private final EdgeList<Review> reviews;
+    private final RatingStats ratingStats;
+    private volatile long version;
 
     public Beer(String id, String name, String style, Brewery brewery) {
         this.id = id;
         this.name = name;
         this.style = style;
         this.brewery = brewery;
+        this.reviews = new EdgeList<>();
+        this.ratingStats = new RatingStats();
+    }
+
+    /**
+     * For views that read their state from a store and override every getter but the version.
+     */
+    protected Beer() {
+        this.id = null;
+        this.name = null;
+        this.style = null;
+        this.brewery = null;
+        this.reviews = null;
+        this.ratingStats = null;
     }
 
     public String getId() {
@@ -33,7 +48,33 @@ public class Beer {
         return brewery;
     }
 
-    public List<Review> getReviews() {
+    public EdgeList<Review> getReviews() {
         return reviews;
     }
+
+    public RatingStats getRatingStats() {
+        return ratingStats;
+    }
+
+    public Double getAverageRating() {
+        return ratingStats.getAverage();
+    }
+
+    public int getReviewCount() {
+        return ratingStats.getCount();
+    }
+
+    public List<RatingStats.Bucket> getRatingHistogram() {
+        return ratingStats.getHistogram();
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
\ No newline at end of file
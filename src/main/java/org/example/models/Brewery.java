@@ -1,18 +1,32 @@
 package org.example.models;
 
-import java.util.ArrayList;
 import java.util.List;
 
-public class Brewery {
+public class Brewery implements Versioned {
     private final String id;
     private final String name;
     private final String country;
-    private final List<Beer> beers = new ArrayList<>();
+    private final EdgeList<Beer> beers;
+    private final RatingStats ratingStats;
+    private volatile long version;
 
     public Brewery(String id, String name, String country) {
         this.id = id;
         this.name = name;
         this.country = country;
+        this.beers = new EdgeList<>();
+        this.ratingStats = new RatingStats();
+    }
+
+    /**
+     * For views that read their state from a store and override every getter but the version.
+     */
+    protected Brewery() {
+        this.id = null;
+        this.name = null;
+        this.country = null;
+        this.beers = null;
+        this.ratingStats = null;
     }
 
     public String getId() {
@@ -27,7 +41,33 @@ public class Brewery {
         return country;
     }
 
-    public List<Beer> getBeers() {
+    public EdgeList<Beer> getBeers() {
         return beers;
     }
+
+    public RatingStats getRatingStats() {
+        return ratingStats;
+    }
+
+    public Double getAverageRating() {
+        return ratingStats.getAverage();
+    }
+
+    public int getReviewCount() {
+        return ratingStats.getCount();
+    }
+
+    public List<RatingStats.Bucket> getRatingHistogram() {
+        return ratingStats.getHistogram();
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
\ No newline at end of file
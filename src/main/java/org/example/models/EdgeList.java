@@ -0,0 +1,104 @@
+package org.example.models;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Append-only list of related entities that can be read while it is being written.
+ * <p>
+ * Appends are serialized; an element is published by the volatile write of the size that includes it,
+ * and array slots below a published size are never written again. A reader that takes the size and then
+ * the array therefore gets a stable prefix without locking or copying.
+ */
+public class EdgeList<T extends Versioned> extends AbstractList<T> implements RandomAccess {
+    private static final Object[] EMPTY = new Object[0];
+
+    private volatile Object[] elements = EMPTY;
+    private volatile int size;
+
+    @Override
+    public synchronized boolean add(T element) {
+        int n = size;
+        Object[] current = elements;
+        if (n == current.length) {
+            current = Arrays.copyOf(current, Math.max(4, n * 2));
+            elements = current;
+        }
+        current[n] = element;
+        size = n + 1;
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        int n = size;
+        Object[] current = elements;
+        Objects.checkIndex(index, n);
+        return (T) current[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return snapshot().iterator();
+    }
+
+    /**
+     * Returns an immutable view of the elements appended so far.
+     */
+    public List<T> snapshot() {
+        int n = size;
+        return new Prefix<>(elements, n);
+    }
+
+    /**
+     * Returns an immutable view of the elements committed at or before {@code maxVersion}. Elements must
+     * be appended in version order, which the repository guarantees by appending under the owner's lock.
+     */
+    public List<T> snapshot(long maxVersion) {
+        int n = size;
+        Object[] current = elements;
+        int low = 0;
+        int high = n;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (((Versioned) current[mid]).getVersion() <= maxVersion) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return new Prefix<>(current, low);
+    }
+
+    private static class Prefix<T> extends AbstractList<T> implements RandomAccess {
+        private final Object[] elements;
+        private final int size;
+
+        private Prefix(Object[] elements, int size) {
+            this.elements = elements;
+            this.size = size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            Objects.checkIndex(index, size);
+            return (T) elements[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
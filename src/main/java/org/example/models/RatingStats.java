@@ -0,0 +1,87 @@
+package org.example.models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Review count per rating. The count and the average are derived from the same counters, so they
+ * always agree with each other.
+ */
+public class RatingStats {
+    public static final int MIN_RATING = 1;
+    public static final int MAX_RATING = 5;
+
+    private final AtomicLongArray counts = new AtomicLongArray(MAX_RATING - MIN_RATING + 1);
+
+    /**
+     * Stats holding the counts of the given histogram.
+     */
+    public static RatingStats of(List<Bucket> histogram) {
+        RatingStats stats = new RatingStats();
+        for (Bucket bucket : histogram) {
+            stats.counts.addAndGet(checkRating(bucket.getRating()) - MIN_RATING, bucket.getCount());
+        }
+        return stats;
+    }
+
+    public static int checkRating(int rating) {
+        if (rating < MIN_RATING || rating > MAX_RATING) {
+            throw new IllegalArgumentException("Rating must be between " + MIN_RATING + " and " + MAX_RATING + ": " + rating);
+        }
+        return rating;
+    }
+
+    public void record(int rating) {
+        counts.incrementAndGet(checkRating(rating) - MIN_RATING);
+    }
+
+    public int getCount() {
+        long reviews = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            reviews += counts.get(i);
+        }
+        return (int) reviews;
+    }
+
+    public Double getAverage() {
+        long reviews = 0;
+        long sum = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            long count = counts.get(i);
+            reviews += count;
+            sum += count * (i + MIN_RATING);
+        }
+        return reviews == 0 ? null : (double) sum / reviews;
+    }
+
+    // Only ratings that were given
+    public List<Bucket> getHistogram() {
+        List<Bucket> buckets = new ArrayList<>(counts.length());
+        for (int i = 0; i < counts.length(); i++) {
+            long count = counts.get(i);
+            if (count > 0) {
+                buckets.add(new Bucket(i + MIN_RATING, (int) count));
+            }
+        }
+        return buckets;
+    }
+
+    public static class Bucket {
+        private final int rating;
+        private final int count;
+
+        public Bucket(int rating, int count) {
+            this.rating = rating;
+            this.count = count;
+        }
+
+        public int getRating() {
+            return rating;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
@@ -1,20 +1,32 @@
 package org.example.models;
 
-public class Review {
+public class Review implements Versioned {
     private final String id;
     private final String text;
     private final int rating;
     private final Beer beer;
     private final User user;
+    private volatile long version;
 
     public Review(String id, String text, int rating, Beer beer, User user) {
         this.id = id;
         this.text = text;
-        this.rating = rating;
+        this.rating = RatingStats.checkRating(rating);
         this.beer = beer;
         this.user = user;
     }
 
+    /**
+     * For views that read their state from a store and override every getter but the version.
+     */
+    protected Review() {
+        this.id = null;
+        this.text = null;
+        this.rating = 0;
+        this.beer = null;
+        this.user = null;
+    }
+
     public String getId() {
         return id;
     }
@@ -34,4 +46,14 @@ public class Review {
     public User getUser() {
         return user;
     }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
\ No newline at end of file
@@ -1,18 +1,32 @@
 package org.example.models;
 
-import java.util.ArrayList;
 import java.util.List;
 
-public class User {
+public class User implements Versioned {
     private final String id;
     private final String name;
     private final String email;
-    private final List<Review> reviews = new ArrayList<>();
+    private final EdgeList<Review> reviews;
+    private final RatingStats ratingStats;
+    private volatile long version;
 
     public User(String id, String name, String email) {
         this.id = id;
         this.name = name;
         this.email = email;
+        this.reviews = new EdgeList<>();
+        this.ratingStats = new RatingStats();
+    }
+
+    /**
+     * For views that read their state from a store and override every getter but the version.
+     */
+    protected User() {
+        this.id = null;
+        this.name = null;
+        this.email = null;
+        this.reviews = null;
+        this.ratingStats = null;
     }
 
     public String getId() {
@@ -27,7 +41,33 @@ public class User {
         return email;
     }
 
-    public List<Review> getReviews() {
+    public EdgeList<Review> getReviews() {
         return reviews;
     }
+
+    public RatingStats getRatingStats() {
+        return ratingStats;
+    }
+
+    public Double getAverageRating() {
+        return ratingStats.getAverage();
+    }
+
+    public int getReviewCount() {
+        return ratingStats.getCount();
+    }
+
+    public List<RatingStats.Bucket> getRatingHistogram() {
+        return ratingStats.getHistogram();
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,11 @@
+package org.example.models;
+
+/**
+ * An entity stamped with the commit version that made it visible.
+ */
+public interface Versioned {
+
+    long getVersion();
+
+    void setVersion(long version);
+}
@@ -0,0 +1,360 @@
+package org.example.persistence;
+
+import org.example.models.Beer;
+import org.example.models.Brewery;
+import org.example.models.Review;
+import org.example.models.User;
+import org.example.repository.CatalogRepository;
+import org.example.utils.FileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary image of the whole catalogue, for fast restarts.
+ * <p>
+ * Layout, all integers big-endian:
+ * <pre>
+ * magic, version
+ * string table:  count, then (length, UTF-8 bytes) per string
+ * breweries:     count, then (length, id, name ref, country ref) per record
+ * users:         count, then (length, id, name ref, email) per record
+ * beers:         count, then (length, id, name ref, style ref, brewery ordinal or -1) per record
+ * reviews:       count, then (length, id, text, rating, beer ordinal, user ordinal) per record
+ * </pre>
+ * Names, styles and countries repeat a lot and are stored once in the string table. Relations point at
+ * the ordinal of the target record in its section instead of repeating its UUID. Ids, emails and review
+ * texts are inline, length-prefixed strings. The file is read through memory-mapped windows.
+ * <p>
+ * A reader checks that no record runs past its length and skips whatever a record holds beyond the
+ * fields it knows, so fields can be appended to a record without a new format version.
+ */
+public class BinarySnapshot {
+
+    private static final int MAGIC = 0x42454552; // "BEER"
+    private static final int FORMAT_VERSION = 1;
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private BinarySnapshot() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    /**
+     * Returns true if the snapshot exists and is newer than every one of the given files that exists.
+     */
+    public static boolean isFresherThan(Path snapshot, Path... sources) {
+        try {
+            if (!Files.exists(snapshot)) {
+                return false;
+            }
+            long snapshotTime = Files.getLastModifiedTime(snapshot).toMillis();
+            for (Path source : sources) {
+                if (Files.exists(source) && Files.getLastModifiedTime(source).toMillis() > snapshotTime) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the given (ideally snapshot) view of the store into a temporary file and moves it into
+     * place. The snapshot is on disk once this returns.
+     */
+    public static void write(Path path, CatalogRepository store) {
+        Collection<Brewery> breweries = store.findAllBreweries();
+        Collection<User> users = store.findAllUsers();
+        Collection<Beer> beers = store.findAllBeers();
+        Collection<Review> reviews = store.findAllReviews();
+
+        StringTable strings = new StringTable();
+        Map<String, Integer> breweryOrdinals = new HashMap<>();
+        Map<String, Integer> userOrdinals = new HashMap<>();
+        Map<String, Integer> beerOrdinals = new HashMap<>();
+        for (Brewery brewery : breweries) {
+            breweryOrdinals.put(brewery.getId(), breweryOrdinals.size());
+            strings.intern(brewery.getName());
+            strings.intern(brewery.getCountry());
+        }
+        for (User user : users) {
+            userOrdinals.put(user.getId(), userOrdinals.size());
+            strings.intern(user.getName());
+        }
+        for (Beer beer : beers) {
+            beerOrdinals.put(beer.getId(), beerOrdinals.size());
+            strings.intern(beer.getName());
+            strings.intern(beer.getStyle());
+        }
+
+        Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+
+                out.writeInt(strings.values.size());
+                for (String value : strings.values) {
+                    writeString(out, value);
+                }
+
+                RecordWriter records = new RecordWriter(out);
+                out.writeInt(breweries.size());
+                for (Brewery brewery : breweries) {
+                    writeString(records.data, brewery.getId());
+                    records.data.writeInt(strings.intern(brewery.getName()));
+                    records.data.writeInt(strings.intern(brewery.getCountry()));
+                    records.flush();
+                }
+
+                out.writeInt(users.size());
+                for (User user : users) {
+                    writeString(records.data, user.getId());
+                    records.data.writeInt(strings.intern(user.getName()));
+                    writeString(records.data, user.getEmail());
+                    records.flush();
+                }
+
+                out.writeInt(beers.size());
+                for (Beer beer : beers) {
+                    writeString(records.data, beer.getId());
+                    records.data.writeInt(strings.intern(beer.getName()));
+                    records.data.writeInt(strings.intern(beer.getStyle()));
+                    records.data.writeInt(beer.getBrewery() == null ? -1 : breweryOrdinals.getOrDefault(beer.getBrewery().getId(), -1));
+                    records.flush();
+                }
+
+                // A review is only written when both ends are part of this snapshot
+                List<Review> linkedReviews = new ArrayList<>(reviews.size());
+                for (Review review : reviews) {
+                    if (beerOrdinals.containsKey(review.getBeer().getId()) && userOrdinals.containsKey(review.getUser().getId())) {
+                        linkedReviews.add(review);
+                    }
+                }
+                out.writeInt(linkedReviews.size());
+                for (Review review : linkedReviews) {
+                    writeString(records.data, review.getId());
+                    writeString(records.data, review.getText());
+                    records.data.writeInt(review.getRating());
+                    records.data.writeInt(beerOrdinals.get(review.getBeer().getId()));
+                    records.data.writeInt(userOrdinals.get(review.getUser().getId()));
+                    records.flush();
+                }
+            }
+            FileUtils.replaceDurably(tempFile, path);
+            System.out.println("Binary snapshot saved to: " + path.toAbsolutePath());
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing binary snapshot: " + path, e);
+        }
+    }
+
+    /**
+     * Loads a snapshot into an empty store, linking relations through the record ordinals.
+     */
+    public static CatalogRepository read(Path path, CatalogRepository target) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedReader in = new MappedReader(channel);
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a catalogue snapshot: " + path);
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported snapshot version " + version + ": " + path);
+            }
+
+            String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readString();
+            }
+
+            Brewery[] breweries = new Brewery[in.readInt()];
+            for (int i = 0; i < breweries.length; i++) {
+                long end = in.beginRecord();
+                breweries[i] = new Brewery(in.readString(), strings[in.readInt()], strings[in.readInt()]);
+                in.endRecord(end);
+                target.saveBrewery(breweries[i]);
+            }
+
+            User[] users = new User[in.readInt()];
+            for (int i = 0; i < users.length; i++) {
+                long end = in.beginRecord();
+                users[i] = new User(in.readString(), strings[in.readInt()], in.readString());
+                in.endRecord(end);
+                target.saveUser(users[i]);
+            }
+
+            Beer[] beers = new Beer[in.readInt()];
+            for (int i = 0; i < beers.length; i++) {
+                long end = in.beginRecord();
+                String id = in.readString();
+                String name = strings[in.readInt()];
+                String style = strings[in.readInt()];
+                int brewery = in.readInt();
+                in.endRecord(end);
+                beers[i] = new Beer(id, name, style, brewery < 0 ? null : breweries[brewery]);
+                target.saveBeer(beers[i]);
+            }
+
+            int reviewCount = in.readInt();
+            for (int i = 0; i < reviewCount; i++) {
+                long end = in.beginRecord();
+                String id = in.readString();
+                String text = in.readString();
+                int rating = in.readInt();
+                Beer beer = beers[in.readInt()];
+                User user = users[in.readInt()];
+                in.endRecord(end);
+                target.saveReview(new Review(id, text, rating, beer, user));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading binary snapshot: " + path, e);
+        }
+        return target;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static class StringTable {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        private int intern(String value) {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = values.size();
+                indexes.put(value, index);
+                values.add(value);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Buffers one record so it can be written behind its length.
+     */
+    private static class RecordWriter {
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        private final DataOutputStream data = new DataOutputStream(buffer);
+
+        private RecordWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void flush() throws IOException {
+            out.writeInt(buffer.size());
+            buffer.writeTo(out);
+            buffer.reset();
+        }
+    }
+
+    /**
+     * Sequential reader over a file mapped in windows of up to {@link #WINDOW_SIZE} bytes, so files
+     * larger than a single mapping can still be read.
+     */
+    private static class MappedReader {
+        private final FileChannel channel;
+        private final long size;
+        private ByteBuffer window = ByteBuffer.allocate(0);
+        private long windowStart;
+
+        private MappedReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (window.remaining() >= bytes) {
+                return;
+            }
+            long position = windowStart + window.position();
+            if (position + bytes > size) {
+                throw new IOException("Truncated snapshot at byte " + position);
+            }
+            long length = Math.max(bytes, Math.min(WINDOW_SIZE, size - position));
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            windowStart = position;
+        }
+
+        private long position() {
+            return windowStart + window.position();
+        }
+
+        /**
+         * Reads the length of the record that follows and returns the position at which it ends.
+         */
+        private long beginRecord() throws IOException {
+            int length = readInt();
+            long end = position() + length;
+            if (length < 0 || end > size) {
+                throw new IOException("Corrupt record length " + length + " at byte " + (position() - Integer.BYTES));
+            }
+            return end;
+        }
+
+        /**
+         * Skips what is left of a record after its known fields.
+         */
+        private void endRecord(long end) throws IOException {
+            long position = position();
+            if (position > end) {
+                throw new IOException("Record ending at byte " + end + " was read up to byte " + position);
+            }
+            if (end - windowStart <= window.limit()) {
+                window.position((int) (end - windowStart));
+            } else {
+                // Mapped from there by the next read
+                window = ByteBuffer.allocate(0);
+                windowStart = end;
+            }
+        }
+
+        private int readInt() throws IOException {
+            ensure(Integer.BYTES);
+            return window.getInt();
+        }
+
+        private String readString() throws IOException {
+            int length = readInt();
+            if (length < 0) {
+                return null;
+            }
+            ensure(length);
+            String value;
+            if (window.hasArray()) {
+                value = new String(window.array(), window.arrayOffset() + window.position(), length, StandardCharsets.UTF_8);
+                window.position(window.position() + length);
+            } else {
+                byte[] bytes = new byte[length];
+                window.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,539 @@
+package org.example.persistence;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.example.metrics.Histogram;
+import org.example.metrics.Metrics;
+import org.example.repository.StripedLocks;
+import org.example.utils.FileUtils;
+import org.example.utils.JsonUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Append-only log of applied mutations, one compact JSON object per line.
+ * <p>
+ * An append writes its entries right away and is made durable by a background thread with group
+ * commit: one fsync covers everything appended before it started. {@link #appendAsync} returns as soon
+ * as the entries are written and acknowledges durability through the returned future; {@link #append}
+ * waits for it. The log is periodically folded into the snapshot files and the entries they cover
+ * are dropped.
+ * <p>
+ * Entries appended together with {@link #appendAll} carry the size of their batch and are replayed
+ * all or nothing.
+ * <p>
+ * An append can apply its change to the in-memory state right after the entry is written. A change
+ * is then only visible once it is logged and nothing is visible if the write fails. Only the write
+ * itself is serialized: changes are applied concurrently, except that appends for the same ids apply
+ * in the order they are logged, so that replay ends up with the same state. A compaction waits until
+ * every logged entry is applied, and an entry whose change fails to apply is cut from the log if
+ * nothing was written after it.
+ */
+public class MutationLog implements Closeable {
+
+    public static final String ENTITY_FIELD = "entity";
+    public static final String BEER = "beer";
+    public static final String REVIEW = "review";
+    public static final String USER = "user";
+    public static final String BATCH_FIELD = "batch";
+
+    private static final int ORDER_STRIPES = 64;
+
+    private static final Histogram APPEND = Metrics.timer("persistence.mutationLog.append");
+    private static final Histogram FSYNC = Metrics.timer("persistence.mutationLog.fsync");
+    // From the write of an entry until it is known to be on stable storage
+    private static final Histogram DURABILITY = Metrics.timer("persistence.mutationLog.durability");
+
+    private final Path path;
+    private final Object lock = new Object();
+    // Only one compaction at a time; taken before lock
+    private final Object compactionLock = new Object();
+    private final ScheduledExecutorService compactor;
+    private final Thread syncer;
+    // Held by an append from its write until its change is applied; taken before lock
+    private final StripedLocks order = new StripedLocks(ORDER_STRIPES);
+
+    // All guarded by lock. The channel is replaced by a compaction, never while syncing
+    private FileChannel channel;
+    private long appendedSeq;
+    private long durableSeq;
+    private boolean syncing;
+    private boolean closed;
+    private long entryCount;
+    // Appends written but not applied yet, and whether a compaction waits for them while holding off new ones
+    private int applying;
+    private boolean capturing;
+    // In order of sequence number
+    private final ArrayDeque<PendingAppend> pending = new ArrayDeque<>();
+
+    private MutationLog(Path path, FileChannel channel, long entryCount) {
+        this.path = path;
+        this.channel = channel;
+        this.entryCount = entryCount;
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mutation-log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.syncer = new Thread(this::syncLoop, "mutation-log-syncer");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    /**
+     * Replays every complete entry of the log at the given path into the handler, drops a torn
+     * trailing entry left by a crash, and opens the log for appending.
+     */
+    public static MutationLog open(Path path, Consumer<Map<String, String>> handler) {
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            Replayed replayed = read(path, handler);
+
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() > replayed.validLength()) {
+                System.err.println("Discarding torn tail of mutation log: " + path);
+                channel.truncate(replayed.validLength());
+                channel.force(true);
+            }
+            channel.position(replayed.validLength());
+            return new MutationLog(path, channel, replayed.entries());
+        } catch (IOException e) {
+            throw new RuntimeException("Error opening mutation log: " + path, e);
+        }
+    }
+
+    /**
+     * Replays every complete entry of the log at the given path into the handler without opening it,
+     * so the log may be open for appending at the same time. An entry or batch still being written is
+     * left out. Returns the number of entries replayed.
+     */
+    public static long replay(Path path, Consumer<Map<String, String>> handler) {
+        try {
+            return read(path, handler).entries();
+        } catch (IOException e) {
+            throw new RuntimeException("Error replaying mutation log: " + path, e);
+        }
+    }
+
+    private static Replayed read(Path path, Consumer<Map<String, String>> handler) throws IOException {
+        long validLength = 0;
+        long entries = 0;
+        if (!Files.exists(path)) {
+            return new Replayed(validLength, entries);
+        }
+        // Read as bytes, so that a last line without its newline is known to be torn even if it parses
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            List<Map<String, String>> batch = new ArrayList<>();
+            long batchLength = 0;
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int next;
+            while ((next = in.read()) != -1) {
+                if (next != '\n') {
+                    line.write(next);
+                    continue;
+                }
+                Map<String, String> entry;
+                try {
+                    entry = JsonUtils.deserializeFromJson(line.toString(StandardCharsets.UTF_8), new TypeReference<>() {});
+                } catch (RuntimeException e) {
+                    // Only the last write can be torn, everything after it is garbage
+                    break;
+                }
+                batchLength += line.size() + 1;
+                line.reset();
+                String batchSize = entry.remove(BATCH_FIELD);
+                batch.add(entry);
+                if (batchSize != null && batch.size() < Integer.parseInt(batchSize)) {
+                    continue;
+                }
+                batch.forEach(handler);
+                validLength += batchLength;
+                entries += batch.size();
+                batch.clear();
+                batchLength = 0;
+            }
+        }
+        return new Replayed(validLength, entries);
+    }
+
+    /**
+     * Appends an entry and returns once it is on stable storage.
+     */
+    public void append(String entity, Map<String, String> fields) {
+        appendAsync(entity, fields).join();
+    }
+
+    /**
+     * Appends an entry and returns once it is written. The future completes once it is on stable
+     * storage, or exceptionally if the fsync failed.
+     */
+    public CompletableFuture<Void> appendAsync(String entity, Map<String, String> fields) {
+        return appendAsync(entity, fields, () -> {
+        });
+    }
+
+    /**
+     * Like {@link #appendAsync(String, Map)}, and runs {@code apply} once the entry is written, before
+     * any other append with the same id. Nothing is applied if the write fails.
+     */
+    public CompletableFuture<Void> appendAsync(String entity, Map<String, String> fields, Runnable apply) {
+        return write(encode(entity, fields, null), 1, apply, orderKey(entity, fields));
+    }
+
+    /**
+     * Appends the entries with a single write and a single fsync, and returns once all of them are on
+     * stable storage. If the process dies halfway, replay drops the whole batch.
+     */
+    public void appendAll(String entity, List<Map<String, String>> records) {
+        appendAllAsync(entity, records).join();
+    }
+
+    /**
+     * Like {@link #appendAll}, but returns once the entries are written, with a future that completes
+     * once all of them are on stable storage.
+     */
+    public CompletableFuture<Void> appendAllAsync(String entity, List<Map<String, String>> records) {
+        return appendAllAsync(entity, records, () -> {
+        });
+    }
+
+    /**
+     * Like {@link #appendAllAsync(String, List)}, and runs {@code apply} once the entries are written,
+     * before any other append with one of their ids. Nothing is applied if the write fails.
+     */
+    public CompletableFuture<Void> appendAllAsync(String entity, List<Map<String, String>> records, Runnable apply) {
+        if (records.isEmpty()) {
+            apply.run();
+            return CompletableFuture.completedFuture(null);
+        }
+        String batchSize = records.size() == 1 ? null : String.valueOf(records.size());
+        StringBuilder lines = new StringBuilder();
+        for (Map<String, String> fields : records) {
+            lines.append(encode(entity, fields, batchSize));
+        }
+        return write(lines.toString(), records.size(), apply,
+                records.stream().map(fields -> orderKey(entity, fields)).toArray(String[]::new));
+    }
+
+    private static String orderKey(String entity, Map<String, String> fields) {
+        return entity + ":" + fields.get("id");
+    }
+
+    private static String encode(String entity, Map<String, String> fields, String batchSize) {
+        Map<String, String> entry = new LinkedHashMap<>();
+        entry.put(ENTITY_FIELD, entity);
+        if (batchSize != null) {
+            entry.put(BATCH_FIELD, batchSize);
+        }
+        entry.putAll(fields);
+        return JsonUtils.serializeToCompactJson(entry) + "\n";
+    }
+
+    private CompletableFuture<Void> write(String lines, int count, Runnable apply, String... keys) {
+        return order.withLocks(() -> {
+            long start = System.nanoTime();
+            ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+            CompletableFuture<Void> durable = new CompletableFuture<>();
+            PendingAppend append;
+            long position = -1;
+            long end;
+            synchronized (lock) {
+                while (capturing && !closed) {
+                    waitOnLock();
+                }
+                if (closed) {
+                    throw new IllegalStateException("Mutation log is closed: " + path);
+                }
+                try {
+                    position = channel.position();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    end = channel.position();
+                } catch (IOException e) {
+                    discardPartialWrite(position);
+                    throw new RuntimeException("Error appending to mutation log: " + path, e);
+                }
+                entryCount += count;
+                append = new PendingAppend(++appendedSeq, start, durable);
+                pending.add(append);
+                applying++;
+                lock.notifyAll();
+            }
+            APPEND.recordSince(start);
+
+            boolean applied = false;
+            try {
+                apply.run();
+                applied = true;
+            } finally {
+                synchronized (lock) {
+                    applying--;
+                    if (!applied) {
+                        discardUnapplied(append, position, end, count);
+                    }
+                    lock.notifyAll();
+                }
+            }
+            return durable;
+        }, keys);
+    }
+
+    // Must be called while holding lock. The entry would be replayed on the next start although its
+    // change never was visible; it can only be cut if nothing was written after it
+    private void discardUnapplied(PendingAppend append, long position, long end, int count) {
+        try {
+            if (channel.position() != end) {
+                System.err.println("Mutation log entry was written but not applied, it is replayed on the next start: " + path);
+                return;
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading mutation log position: " + path + ": " + e.getMessage());
+            return;
+        }
+        discardPartialWrite(position);
+        entryCount -= count;
+        pending.remove(append);
+    }
+
+    // Must be called while holding lock. A torn entry left in the middle of the log would end every
+    // later replay there, so the log is cut back to where the failed write started
+    private void discardPartialWrite(long position) {
+        if (position < 0) {
+            return;
+        }
+        try {
+            channel.truncate(position);
+            channel.position(position);
+        } catch (IOException e) {
+            System.err.println("Error discarding a partial write to mutation log " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Syncs whatever has been appended since the last fsync, for as long as the log is open.
+     */
+    private void syncLoop() {
+        while (true) {
+            long target;
+            FileChannel syncChannel;
+            synchronized (lock) {
+                while (!closed && durableSeq >= appendedSeq) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                syncing = true;
+                target = appendedSeq;
+                syncChannel = channel;
+            }
+
+            RuntimeException failure = null;
+            long start = System.nanoTime();
+            try {
+                syncChannel.force(false);
+                FSYNC.recordSince(start);
+            } catch (IOException e) {
+                failure = new RuntimeException("Error syncing mutation log: " + path, e);
+                System.err.println(failure.getMessage() + ": " + e.getMessage());
+            }
+            List<PendingAppend> acknowledged;
+            synchronized (lock) {
+                syncing = false;
+                // A failed fsync is not retried: whether its writes reached the disk is unknown
+                durableSeq = Math.max(durableSeq, target);
+                acknowledged = takePending(target);
+                lock.notifyAll();
+            }
+            acknowledge(acknowledged, failure);
+        }
+    }
+
+    // Must be called while holding lock
+    private List<PendingAppend> takePending(long seq) {
+        List<PendingAppend> taken = new ArrayList<>();
+        while (!pending.isEmpty() && pending.peek().seq() <= seq) {
+            taken.add(pending.poll());
+        }
+        return taken;
+    }
+
+    // Outside of lock, since completing a future runs whatever waits on it
+    private static void acknowledge(List<PendingAppend> appends, RuntimeException failure) {
+        for (PendingAppend append : appends) {
+            if (failure == null) {
+                DURABILITY.recordSince(append.startedAt());
+                append.durable().complete(null);
+            } else {
+                append.durable().completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Runs the compaction check at a fixed rate: once the log holds at least {@code threshold}
+     * entries, the log is compacted with {@code snapshotter}, see {@link #compact}.
+     */
+    public void scheduleCompaction(Supplier<Runnable> snapshotter, long threshold, long period, TimeUnit unit) {
+        compactor.scheduleAtFixedRate(() -> {
+            try {
+                if (size() >= threshold) {
+                    compact(snapshotter);
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Mutation log compaction failed: " + e.getMessage());
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Folds the log into a snapshot. {@code snapshotter} runs while appends are blocked and captures
+     * the state, which reflects every entry in the log at that point; the writer it returns persists
+     * the capture durably while appends go on. The entries the snapshot covers are then dropped by
+     * moving the ones appended since into a fresh log file. Entries appended right after the capture
+     * may also be in the snapshot, which is why replay has to be idempotent.
+     */
+    public void compact(Supplier<Runnable> snapshotter) {
+        synchronized (compactionLock) {
+            Runnable snapshotWriter;
+            long coveredLength;
+            long coveredEntries;
+            synchronized (lock) {
+                // Every logged entry has to be in the snapshot, so the ones still being applied are waited for
+                capturing = true;
+                try {
+                    while (applying > 0) {
+                        waitOnLock();
+                    }
+                    coveredLength = channel.position();
+                    coveredEntries = entryCount;
+                    snapshotWriter = snapshotter.get();
+                } catch (IOException e) {
+                    throw new RuntimeException("Error reading mutation log position: " + path, e);
+                } finally {
+                    capturing = false;
+                    lock.notifyAll();
+                }
+            }
+            snapshotWriter.run();
+
+            List<PendingAppend> acknowledged;
+            synchronized (lock) {
+                if (closed) {
+                    // The whole log is replayed over the snapshot on the next start
+                    return;
+                }
+                while (syncing) {
+                    waitOnLock();
+                }
+                rotate(coveredLength);
+                // Whatever was not in the snapshot was synced into the new file
+                durableSeq = appendedSeq;
+                entryCount -= coveredEntries;
+                acknowledged = takePending(durableSeq);
+            }
+            acknowledge(acknowledged, null);
+        }
+    }
+
+    // Must be called while holding lock and not syncing. Only copies what was appended since the
+    // snapshot was captured; a crash before the move leaves the whole log, which replays idempotently
+    private void rotate(long coveredLength) {
+        Path rotated = path.resolveSibling(path.getFileName() + ".compacting");
+        FileChannel next = null;
+        try {
+            next = FileChannel.open(rotated, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            long end = channel.position();
+            long copied = coveredLength;
+            while (copied < end) {
+                copied += channel.transferTo(copied, end - copied, next);
+            }
+            FileUtils.replaceDurably(rotated, path);
+        } catch (IOException e) {
+            closeQuietly(next);
+            throw new RuntimeException("Error rotating mutation log: " + path, e);
+        }
+        closeQuietly(channel);
+        channel = next;
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing mutation log file: " + e.getMessage());
+        }
+    }
+
+    public long size() {
+        synchronized (lock) {
+            return entryCount;
+        }
+    }
+
+    private void waitOnLock() {
+        try {
+            lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for mutation log", e);
+        }
+    }
+
+    /**
+     * Syncs everything appended so far and closes the log.
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdownNow();
+        List<PendingAppend> acknowledged;
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+            while (syncing) {
+                waitOnLock();
+            }
+            channel.force(true);
+            channel.close();
+            durableSeq = appendedSeq;
+            acknowledged = takePending(durableSeq);
+        }
+        acknowledge(acknowledged, null);
+    }
+
+    private record PendingAppend(long seq, long startedAt, CompletableFuture<Void> durable) {
+    }
+
+    private record Replayed(long validLength, long entries) {
+    }
+}
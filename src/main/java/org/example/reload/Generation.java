@@ -0,0 +1,66 @@
+package org.example.reload;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One version of something that is replaced as a whole while executions keep running on it, such as
+ * the catalogue or the schema. Executions pin the generation they run on; once a generation is
+ * retired it cannot be pinned anymore, and it is drained when the last execution pinned to it ends.
+ */
+public final class Generation<T> {
+
+    private final T value;
+    private final long number;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final CompletableFuture<Void> drained = new CompletableFuture<>();
+    private volatile boolean retired;
+
+    public Generation(T value, long number) {
+        this.value = value;
+        this.number = number;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    public long getNumber() {
+        return number;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Pins the generation for an execution, unless it was retired. Every successful pin must be
+     * followed by exactly one {@link #unpin}.
+     */
+    public boolean tryPin() {
+        inFlight.incrementAndGet();
+        // Checked after counting, so that retire either sees this pin or this pin sees the retirement
+        if (retired) {
+            unpin();
+            return false;
+        }
+        return true;
+    }
+
+    public void unpin() {
+        if (inFlight.decrementAndGet() == 0 && retired) {
+            drained.complete(null);
+        }
+    }
+
+    /**
+     * Stops new pins and returns a future that completes once no execution is pinned anymore.
+     */
+    public CompletableFuture<Void> retire() {
+        retired = true;
+        if (inFlight.get() == 0) {
+            drained.complete(null);
+        }
+        return drained;
+    }
+}
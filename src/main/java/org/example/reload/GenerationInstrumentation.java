@@ -0,0 +1,90 @@
+package org.example.reload;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQLContext;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Pins the generations an execution runs on from its start until its result is complete, so that a
+ * reload knows when the executions of a replaced generation are drained.
+ * <p>
+ * The schema generation is the one this instrumentation was built into. The data generation is the
+ * current one when the execution starts; its value is handed to {@code attach}, which puts whatever
+ * the resolvers read into the execution context, so that the whole execution sees one generation.
+ * <p>
+ * The pins are released once the execution completes, whether with a result or exceptionally, or
+ * when its result is instrumented after it was aborted, whichever comes first.
+ */
+public class GenerationInstrumentation<T> extends SimplePerformantInstrumentation {
+
+    private static final String PINNED = "generation.pinned";
+
+    private final Generation<?> schema;
+    private final Supplier<Generation<T>> data;
+    private final BiConsumer<T, GraphQLContext> attach;
+
+    public GenerationInstrumentation(Generation<?> schema, Supplier<Generation<T>> data, BiConsumer<T, GraphQLContext> attach) {
+        this.schema = schema;
+        this.data = data;
+        this.attach = attach;
+    }
+
+    @Override
+    public ExecutionInput instrumentExecutionInput(ExecutionInput executionInput,
+                                                   InstrumentationExecutionParameters parameters,
+                                                   InstrumentationState state) {
+        List<Generation<?>> pinned = new ArrayList<>(2);
+        // An operation handed to a schema that was replaced meanwhile still runs, it is just not waited for
+        if (schema.tryPin()) {
+            pinned.add(schema);
+        }
+        Generation<T> generation;
+        do {
+            // Only fails if the generation was replaced since it was read
+            generation = data.get();
+        } while (!generation.tryPin());
+        pinned.add(generation);
+
+        GraphQLContext context = executionInput.getGraphQLContext();
+        context.put(PINNED, pinned);
+        attach.accept(generation.getValue(), context);
+        return executionInput;
+    }
+
+    @Override
+    public InstrumentationContext<ExecutionResult> beginExecution(InstrumentationExecutionParameters parameters,
+                                                                  InstrumentationState state) {
+        return SimpleInstrumentationContext.whenCompleted((result, failure) -> unpin(parameters.getGraphQLContext()));
+    }
+
+    // An aborted execution does not complete its execution context
+    @Override
+    public CompletableFuture<ExecutionResult> instrumentExecutionResult(ExecutionResult executionResult,
+                                                                        InstrumentationExecutionParameters parameters,
+                                                                        InstrumentationState state) {
+        unpin(parameters.getGraphQLContext());
+        return CompletableFuture.completedFuture(executionResult);
+    }
+
+    // Releases the pins once, however often it is called; results are also instrumented for every
+    // event of a subscription, by then the pins are long gone
+    private static void unpin(GraphQLContext context) {
+        context.compute(PINNED, (key, pinned) -> {
+            if (pinned != null) {
+                ((List<?>) pinned).forEach(generation -> ((Generation<?>) generation).unpin());
+            }
+            return null;
+        });
+    }
+}
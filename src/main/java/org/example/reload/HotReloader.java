@@ -0,0 +1,243 @@
+package org.example.reload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Watches groups of files with a {@link WatchService} and reloads a group once its files have stopped
+ * changing for a moment, on a background thread. Reloads run one at a time.
+ * <p>
+ * A reload returns {@code false} to be retried a little later, for instance while memory is short.
+ * One that throws is reported and not retried until its files change again. A group is only reloaded
+ * if one of its files differs from when it was last loaded, so that the process can write its own
+ * files between {@link #tryBeginOwnWrite} and {@link #endOwnWrite} without reloading them.
+ */
+public class HotReloader implements Closeable {
+
+    private static final long QUIET_PERIOD_MILLIS = 500;
+    private static final long RETRY_DELAY_MILLIS = 5_000;
+
+    private final WatchService watchService;
+    private final Map<String, Target> targets = new LinkedHashMap<>();
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Thread watcher = new Thread(this::watchLoop, "hot-reload-watcher");
+
+    public HotReloader() {
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create file watch service", e);
+        }
+        watcher.setDaemon(true);
+    }
+
+    /**
+     * Reloads the group of the given name with {@code reload} whenever one of the files changes.
+     * Must be called before {@link #start}.
+     */
+    public void watch(String name, List<Path> files, BooleanSupplier reload) {
+        if (watcher.isAlive()) {
+            throw new IllegalStateException("Files must be watched before the reloader starts");
+        }
+        List<Path> absoluteFiles = files.stream().map(Path::toAbsolutePath).toList();
+        for (Path file : absoluteFiles) {
+            Path directory = file.getParent();
+            if (directories.containsValue(directory)) {
+                continue;
+            }
+            try {
+                directories.put(directory.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY), directory);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to watch directory: " + directory, e);
+            }
+        }
+        Target target = new Target(name, absoluteFiles, reload);
+        target.acknowledge();
+        targets.put(name, target);
+    }
+
+    public void start() {
+        watcher.start();
+        System.out.println("Watching for changes: " + targets.values().stream().map(Target::files).toList());
+    }
+
+    /**
+     * Takes the reload lock before the process writes the files of a group itself. Fails, without
+     * taking the lock, while a reload runs or if the files were changed on disk and not reloaded yet,
+     * since the write would overwrite that change.
+     */
+    public boolean tryBeginOwnWrite(String name) {
+        Target target = target(name);
+        if (!lock.tryLock()) {
+            return false;
+        }
+        if (target.isChanged()) {
+            lock.unlock();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records the files of the group as written by the process and releases the reload lock.
+     */
+    public void endOwnWrite(String name) {
+        try {
+            target(name).acknowledge();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Target target(String name) {
+        Target target = targets.get(name);
+        if (target == null) {
+            throw new IllegalArgumentException("Unknown reload target: " + name);
+        }
+        return target;
+    }
+
+    private void watchLoop() {
+        // Targets with changes, by the time at which to reload them
+        Map<Target, Long> due = new HashMap<>();
+        try {
+            while (true) {
+                long wait = due.values().stream().mapToLong(Long::longValue).min().orElse(Long.MAX_VALUE) - System.currentTimeMillis();
+                WatchKey key = due.isEmpty() ? watchService.take() : watchService.poll(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    collect(key, due);
+                }
+                long now = System.currentTimeMillis();
+                for (Target target : List.copyOf(due.keySet())) {
+                    if (due.get(target) <= now) {
+                        due.remove(target);
+                        if (!reload(target)) {
+                            due.put(target, now + RETRY_DELAY_MILLIS);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    // Every change pushes the reload of its target back, so a file being copied is read once complete
+    private void collect(WatchKey key, Map<Target, Long> due) {
+        Path directory = directories.get(key);
+        long reloadAt = System.currentTimeMillis() + QUIET_PERIOD_MILLIS;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                targets.values().forEach(target -> due.put(target, reloadAt));
+                continue;
+            }
+            Path file = directory.resolve((Path) event.context());
+            for (Target target : targets.values()) {
+                if (target.files().contains(file)) {
+                    due.put(target, reloadAt);
+                }
+            }
+        }
+        key.reset();
+    }
+
+    private boolean reload(Target target) {
+        lock.lock();
+        try {
+            if (!target.isChanged()) {
+                return true;
+            }
+            // Taken before reading, so that a change made during the reload is reloaded again
+            Map<Path, Fingerprint> fingerprints = target.fingerprint();
+            try {
+                if (!target.reload().getAsBoolean()) {
+                    return false;
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Reload of " + target.name() + " failed, keeping the current version: " + e.getMessage());
+            }
+            target.acknowledged = fingerprints;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.interrupt();
+        watchService.close();
+    }
+
+    private record Fingerprint(FileTime modified, long size) {
+    }
+
+    private static final class Target {
+
+        private final String name;
+        private final List<Path> files;
+        private final BooleanSupplier reload;
+        // Guarded by lock, apart from the initial acknowledgement
+        private Map<Path, Fingerprint> acknowledged;
+
+        Target(String name, List<Path> files, BooleanSupplier reload) {
+            this.name = name;
+            this.files = files;
+            this.reload = reload;
+        }
+
+        String name() {
+            return name;
+        }
+
+        List<Path> files() {
+            return files;
+        }
+
+        BooleanSupplier reload() {
+            return reload;
+        }
+
+        void acknowledge() {
+            acknowledged = fingerprint();
+        }
+
+        boolean isChanged() {
+            return !Objects.equals(acknowledged, fingerprint());
+        }
+
+        // A missing file has no fingerprint
+        Map<Path, Fingerprint> fingerprint() {
+            Map<Path, Fingerprint> fingerprints = new HashMap<>();
+            for (Path file : files) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    fingerprints.put(file, new Fingerprint(attributes.lastModifiedTime(), attributes.size()));
+                } catch (IOException missing) {
+                    // Left out
+                }
+            }
+            return fingerprints;
+        }
+    }
+}
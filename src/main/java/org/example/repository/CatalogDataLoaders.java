@@ -0,0 +1,51 @@
+package org.example.repository;
+
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderFactory;
+import org.dataloader.DataLoaderRegistry;
+import org.dataloader.MappedBatchLoader;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Batch loaders for every entity and relation edge. A fresh registry is created per execution,
+ * so the per-key cache of each loader never outlives a single request.
+ * <p>
+ * Loaders ask for the store when they dispatch rather than when they are created, so an execution
+ * can change which view of the store it reads after it started.
+ */
+public class CatalogDataLoaders {
+
+    public static final String BEER = "beer";
+    public static final String BREWERY = "brewery";
+    public static final String REVIEW = "review";
+    public static final String USER = "user";
+    public static final String BEERS_BY_BREWERY = "beersByBrewery";
+    public static final String REVIEWS_BY_BEER = "reviewsByBeer";
+    public static final String REVIEWS_BY_USER = "reviewsByUser";
+
+    private CatalogDataLoaders() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    public static DataLoaderRegistry newRegistry(Supplier<CatalogRepository> repository) {
+        DataLoaderRegistry registry = new DataLoaderRegistry();
+        registry.register(BEER, mapped(keys -> repository.get().findBeers(keys)));
+        registry.register(BREWERY, mapped(keys -> repository.get().findBreweries(keys)));
+        registry.register(REVIEW, mapped(keys -> repository.get().findReviews(keys)));
+        registry.register(USER, mapped(keys -> repository.get().findUsers(keys)));
+        registry.register(BEERS_BY_BREWERY, mapped(keys -> repository.get().findBeersByBrewery(keys)));
+        registry.register(REVIEWS_BY_BEER, mapped(keys -> repository.get().findReviewsByBeer(keys)));
+        registry.register(REVIEWS_BY_USER, mapped(keys -> repository.get().findReviewsByUser(keys)));
+        return registry;
+    }
+
+    private static <V> DataLoader<String, V> mapped(Function<Set<String>, Map<String, V>> lookup) {
+        MappedBatchLoader<String, V> batchLoader = keys -> CompletableFuture.completedFuture(lookup.apply(keys));
+        return DataLoaderFactory.newMappedDataLoader(batchLoader);
+    }
+}
@@ -0,0 +1,130 @@
+package org.example.repository;
+
+import org.example.models.Beer;
+import org.example.models.Brewery;
+import org.example.models.Review;
+import org.example.models.User;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Storage behind the GraphQL resolvers. Lookups are batched by key so that an implementation
+ * backed by a remote store can answer a whole level of a query with one round trip.
+ */
+public interface CatalogRepository {
+
+    Map<String, Beer> findBeers(Set<String> ids);
+
+    Map<String, Brewery> findBreweries(Set<String> ids);
+
+    Map<String, Review> findReviews(Set<String> ids);
+
+    Map<String, User> findUsers(Set<String> ids);
+
+    /**
+     * Returns an entry for every requested brewery id, empty if the brewery has no beers.
+     */
+    Map<String, List<Beer>> findBeersByBrewery(Set<String> breweryIds);
+
+    /**
+     * Returns an entry for every requested beer id, empty if the beer has no reviews.
+     */
+    Map<String, List<Review>> findReviewsByBeer(Set<String> beerIds);
+
+    /**
+     * Returns an entry for every requested user id, empty if the user has no reviews.
+     */
+    Map<String, List<Review>> findReviewsByUser(Set<String> userIds);
+
+    int countBeers();
+
+    int countBreweries();
+
+    int countReviews();
+
+    int countUsers();
+
+    Collection<Beer> findAllBeers();
+
+    Collection<Brewery> findAllBreweries();
+
+    Collection<Review> findAllReviews();
+
+    Collection<User> findAllUsers();
+
+    /**
+     * Beers ordered by id, optionally restricted to one style and/or one brewery.
+     */
+    Page<Beer> findBeerPage(String style, String breweryId, String after, int first);
+
+    Page<Brewery> findBreweryPage(String after, int first);
+
+    /**
+     * Reviews ordered by rating and then id, optionally restricted to one beer, one user and/or an
+     * inclusive rating range.
+     */
+    Page<Review> findReviewPage(String beerId, String userId, Integer minRating, Integer maxRating, String after, int first);
+
+    Page<User> findUserPage(String after, int first);
+
+    /**
+     * Returns a read-only view that sees exactly the writes committed when it is first read from.
+     * One view is used per execution, so a query never observes half of a concurrent mutation.
+     */
+    CatalogRepository snapshot();
+
+    /**
+     * Stores the beer and links it to its brewery.
+     *
+     * @return {@code false} if a beer with the same id already exists, in which case nothing changes
+     */
+    boolean saveBeer(Beer beer);
+
+    boolean saveBrewery(Brewery brewery);
+
+    /**
+     * Stores the review and links it to its beer and user.
+     *
+     * @return {@code false} if a review with the same id already exists, in which case nothing changes
+     */
+    boolean saveReview(Review review);
+
+    boolean saveUser(User user);
+
+    /**
+     * Stores the beers as one commit: a snapshot sees either none or all of them. Beers whose id
+     * already exists are skipped.
+     *
+     * @return the beers that were stored, in order
+     */
+    List<Beer> saveBeers(List<Beer> beers);
+
+    /**
+     * Stores the reviews as one commit: a snapshot sees either none or all of them. Reviews whose id
+     * already exists are skipped.
+     *
+     * @return the reviews that were stored, in order
+     */
+    List<Review> saveReviews(List<Review> reviews);
+
+    List<User> saveUsers(List<User> users);
+
+    default Beer findBeer(String id) {
+        return findBeers(Set.of(id)).get(id);
+    }
+
+    default Brewery findBrewery(String id) {
+        return findBreweries(Set.of(id)).get(id);
+    }
+
+    default Review findReview(String id) {
+        return findReviews(Set.of(id)).get(id);
+    }
+
+    default User findUser(String id) {
+        return findUsers(Set.of(id)).get(id);
+    }
+}
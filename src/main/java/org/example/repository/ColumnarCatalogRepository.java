@@ -0,0 +1,1056 @@
+package org.example.repository;
+
+import org.example.models.Beer;
+import org.example.models.Brewery;
+import org.example.models.EdgeList;
+import org.example.models.RatingStats;
+import org.example.models.Review;
+import org.example.models.User;
+import org.example.models.Versioned;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntSupplier;
+
+/**
+ * Keeps the catalogue in columns instead of one object per entity, for catalogues too large to hold as
+ * models. Every entity is a dense row number: ids live in {@link DenseIds}, relations are row numbers
+ * in int columns and {@link IntEdgeLists}, and names, styles and countries are deduplicated. Reads
+ * return flyweight views of a row that are created on demand and dropped with the query result.
+ * <p>
+ * Writes are serialized by one lock and publish the row count of their table last. A snapshot is the
+ * row counts at its first read, so it never sees half of a write. As in {@link InMemoryCatalogRepository},
+ * rating aggregates are not versioned and may already include a review a snapshot does not see.
+ */
+public class ColumnarCatalogRepository implements CatalogRepository {
+
+    private static final int RATING_PREFIX_LENGTH = 12;
+
+    private final Object writeLock = new Object();
+    private final Map<String, String> strings = new HashMap<>();
+
+    private final DenseIds breweryIds = new DenseIds();
+    private final Columns.Strings breweryNames = new Columns.Strings();
+    private final Columns.Strings breweryCountries = new Columns.Strings();
+    private final IntEdgeLists breweryBeers = new IntEdgeLists();
+    private final Stats breweryStats = new Stats();
+    private final SortedRows breweryOrder = new SortedRows(breweryIds::compare);
+    private volatile int breweryCount;
+
+    private final DenseIds userIds = new DenseIds();
+    private final Columns.Strings userNames = new Columns.Strings();
+    private final Columns.Strings userEmails = new Columns.Strings();
+    private final IntEdgeLists userReviews = new IntEdgeLists();
+    private final Stats userStats = new Stats();
+    private final SortedRows userOrder = new SortedRows(userIds::compare);
+    private volatile int userCount;
+
+    private final DenseIds beerIds = new DenseIds();
+    private final Columns.Strings beerNames = new Columns.Strings();
+    private final Columns.Strings beerStyles = new Columns.Strings();
+    private final Columns.Ints beerBreweries = new Columns.Ints();
+    private final IntEdgeLists beerReviews = new IntEdgeLists();
+    private final Stats beerStats = new Stats();
+    private final SortedRows beerOrder = new SortedRows(beerIds::compare);
+    private volatile int beerCount;
+
+    private final DenseIds reviewIds = new DenseIds();
+    private final Columns.Strings reviewTexts = new Columns.Strings();
+    private final Columns.Ints reviewRatings = new Columns.Ints();
+    private final Columns.Ints reviewBeers = new Columns.Ints();
+    private final Columns.Ints reviewUsers = new Columns.Ints();
+    // Reviews are ordered by rating and then id, like the review index of the in-memory store
+    private final SortedRows reviewOrder = new SortedRows(this::compareReviews);
+    private volatile int reviewCount;
+
+    @Override
+    public Map<String, Beer> findBeers(Set<String> ids) {
+        return findBeers(ids, latest());
+    }
+
+    @Override
+    public Map<String, Brewery> findBreweries(Set<String> ids) {
+        return findBreweries(ids, latest());
+    }
+
+    @Override
+    public Map<String, Review> findReviews(Set<String> ids) {
+        return findReviews(ids, latest());
+    }
+
+    @Override
+    public Map<String, User> findUsers(Set<String> ids) {
+        return findUsers(ids, latest());
+    }
+
+    @Override
+    public Map<String, List<Beer>> findBeersByBrewery(Set<String> breweryIds) {
+        return findBeersByBrewery(breweryIds, latest());
+    }
+
+    @Override
+    public Map<String, List<Review>> findReviewsByBeer(Set<String> beerIds) {
+        return findReviewsByBeer(beerIds, latest());
+    }
+
+    @Override
+    public Map<String, List<Review>> findReviewsByUser(Set<String> userIds) {
+        return findReviewsByUser(userIds, latest());
+    }
+
+    @Override
+    public int countBeers() {
+        return beerCount;
+    }
+
+    @Override
+    public int countBreweries() {
+        return breweryCount;
+    }
+
+    @Override
+    public int countReviews() {
+        return reviewCount;
+    }
+
+    @Override
+    public int countUsers() {
+        return userCount;
+    }
+
+    @Override
+    public Collection<Beer> findAllBeers() {
+        Limits limits = latest();
+        return new RowList<>(limits.beers, row -> new BeerView(limits, row));
+    }
+
+    @Override
+    public Collection<Brewery> findAllBreweries() {
+        Limits limits = latest();
+        return new RowList<>(limits.breweries, row -> new BreweryView(limits, row));
+    }
+
+    @Override
+    public Collection<Review> findAllReviews() {
+        Limits limits = latest();
+        return new RowList<>(limits.reviews, row -> new ReviewView(limits, row));
+    }
+
+    @Override
+    public Collection<User> findAllUsers() {
+        Limits limits = latest();
+        return new RowList<>(limits.users, row -> new UserView(limits, row));
+    }
+
+    @Override
+    public Page<Beer> findBeerPage(String style, String breweryId, String after, int first) {
+        return findBeerPage(style, breweryId, after, first, latest());
+    }
+
+    @Override
+    public Page<Brewery> findBreweryPage(String after, int first) {
+        return findBreweryPage(after, first, latest());
+    }
+
+    @Override
+    public Page<Review> findReviewPage(String beerId, String userId, Integer minRating, Integer maxRating, String after, int first) {
+        return findReviewPage(beerId, userId, minRating, maxRating, after, first, latest());
+    }
+
+    @Override
+    public Page<User> findUserPage(String after, int first) {
+        return findUserPage(after, first, latest());
+    }
+
+    @Override
+    public CatalogRepository snapshot() {
+        return new SnapshotView();
+    }
+
+    @Override
+    public boolean saveBeer(Beer beer) {
+        synchronized (writeLock) {
+            Limits limits = latest();
+            if (beerIds.find(beer.getId(), limits.beers) >= 0) {
+                return false;
+            }
+            beerCount = insertBeer(beer, breweryRow(beer, limits)) + 1;
+            return true;
+        }
+    }
+
+    @Override
+    public boolean saveBrewery(Brewery brewery) {
+        synchronized (writeLock) {
+            if (breweryIds.find(brewery.getId(), breweryCount) >= 0) {
+                return false;
+            }
+            int row = breweryIds.add(brewery.getId());
+            breweryNames.set(row, dedupe(brewery.getName()));
+            breweryCountries.set(row, dedupe(brewery.getCountry()));
+            breweryStats.add(row);
+            breweryCount = row + 1;
+            return true;
+        }
+    }
+
+    @Override
+    public boolean saveReview(Review review) {
+        synchronized (writeLock) {
+            Limits limits = latest();
+            if (reviewIds.find(review.getId(), limits.reviews) >= 0) {
+                return false;
+            }
+            reviewCount = insertReview(review, beerRow(review.getBeer(), limits), userRow(review.getUser(), limits)) + 1;
+            return true;
+        }
+    }
+
+    @Override
+    public boolean saveUser(User user) {
+        synchronized (writeLock) {
+            if (userIds.find(user.getId(), userCount) >= 0) {
+                return false;
+            }
+            userCount = insertUser(user) + 1;
+            return true;
+        }
+    }
+
+    // A batch resolves every relation before it inserts anything, so a bad item fails the batch without
+    // leaving rows behind, and publishes its table count once at the end
+
+    @Override
+    public List<Beer> saveBeers(List<Beer> beers) {
+        synchronized (writeLock) {
+            Limits limits = latest();
+            int[] breweries = new int[beers.size()];
+            for (int i = 0; i < breweries.length; i++) {
+                breweries[i] = breweryRow(beers.get(i), limits);
+            }
+            List<Beer> stored = new ArrayList<>(beers.size());
+            int count = limits.beers;
+            for (int i = 0; i < breweries.length; i++) {
+                Beer beer = beers.get(i);
+                if (beerIds.find(beer.getId(), count) < 0) {
+                    count = insertBeer(beer, breweries[i]) + 1;
+                    stored.add(beer);
+                }
+            }
+            beerCount = count;
+            return stored;
+        }
+    }
+
+    @Override
+    public List<Review> saveReviews(List<Review> reviews) {
+        synchronized (writeLock) {
+            Limits limits = latest();
+            int[] beers = new int[reviews.size()];
+            int[] users = new int[reviews.size()];
+            for (int i = 0; i < beers.length; i++) {
+                beers[i] = beerRow(reviews.get(i).getBeer(), limits);
+                users[i] = userRow(reviews.get(i).getUser(), limits);
+            }
+            List<Review> stored = new ArrayList<>(reviews.size());
+            int count = limits.reviews;
+            for (int i = 0; i < beers.length; i++) {
+                Review review = reviews.get(i);
+                if (reviewIds.find(review.getId(), count) < 0) {
+                    count = insertReview(review, beers[i], users[i]) + 1;
+                    stored.add(review);
+                }
+            }
+            reviewCount = count;
+            return stored;
+        }
+    }
+
+    @Override
+    public List<User> saveUsers(List<User> users) {
+        synchronized (writeLock) {
+            List<User> stored = new ArrayList<>(users.size());
+            int count = userCount;
+            for (User user : users) {
+                if (userIds.find(user.getId(), count) < 0) {
+                    count = insertUser(user) + 1;
+                    stored.add(user);
+                }
+            }
+            userCount = count;
+            return stored;
+        }
+    }
+
+    // The insert methods write a row without publishing it and return its number
+
+    private int insertBeer(Beer beer, int brewery) {
+        int row = beerIds.add(beer.getId());
+        beerNames.set(row, dedupe(beer.getName()));
+        beerStyles.set(row, dedupe(beer.getStyle()));
+        beerBreweries.set(row, brewery);
+        beerStats.add(row);
+        if (brewery >= 0) {
+            breweryBeers.add(brewery, row);
+        }
+        return row;
+    }
+
+    private int insertReview(Review review, int beer, int user) {
+        int row = reviewIds.add(review.getId());
+        reviewTexts.set(row, review.getText());
+        reviewRatings.set(row, review.getRating());
+        reviewBeers.set(row, beer);
+        reviewUsers.set(row, user);
+        beerReviews.add(beer, row);
+        userReviews.add(user, row);
+        beerStats.record(beer, review.getRating());
+        userStats.record(user, review.getRating());
+        int brewery = beerBreweries.get(beer);
+        if (brewery >= 0) {
+            breweryStats.record(brewery, review.getRating());
+        }
+        return row;
+    }
+
+    private int insertUser(User user) {
+        int row = userIds.add(user.getId());
+        userNames.set(row, dedupe(user.getName()));
+        userEmails.set(row, user.getEmail());
+        userStats.add(row);
+        return row;
+    }
+
+    /**
+     * The row counts of all tables. Reviews are read first and breweries last: a row is published after
+     * the rows it links to, so everything a visible row links to is visible too.
+     */
+    private Limits latest() {
+        int reviews = reviewCount;
+        int beers = beerCount;
+        int users = userCount;
+        int breweries = breweryCount;
+        return new Limits(breweries, users, beers, reviews);
+    }
+
+    private String dedupe(String value) {
+        if (value == null) {
+            return null;
+        }
+        String existing = strings.putIfAbsent(value, value);
+        return existing == null ? value : existing;
+    }
+
+    // Relations passed in by callers are usually views of this store and already know their row
+
+    private int breweryRow(Beer beer, Limits limits) {
+        return beer.getBrewery() == null ? -1 : breweryRow(beer.getBrewery(), limits);
+    }
+
+    private int breweryRow(Brewery brewery, Limits limits) {
+        int row = brewery instanceof BreweryView view && view.store() == this ? view.row : breweryIds.find(brewery.getId(), limits.breweries);
+        if (row < 0) {
+            throw new IllegalArgumentException("Unknown brewery: " + brewery.getId());
+        }
+        return row;
+    }
+
+    private int beerRow(Beer beer, Limits limits) {
+        int row = beer instanceof BeerView view && view.store() == this ? view.row : beerIds.find(beer.getId(), limits.beers);
+        if (row < 0) {
+            throw new IllegalArgumentException("Unknown beer: " + beer.getId());
+        }
+        return row;
+    }
+
+    private int userRow(User user, Limits limits) {
+        int row = user instanceof UserView view && view.store() == this ? view.row : userIds.find(user.getId(), limits.users);
+        if (row < 0) {
+            throw new IllegalArgumentException("Unknown user: " + user.getId());
+        }
+        return row;
+    }
+
+    private Map<String, Beer> findBeers(Set<String> ids, Limits limits) {
+        return findRows(ids, beerIds, limits.beers, row -> new BeerView(limits, row));
+    }
+
+    private Map<String, Brewery> findBreweries(Set<String> ids, Limits limits) {
+        return findRows(ids, breweryIds, limits.breweries, row -> new BreweryView(limits, row));
+    }
+
+    private Map<String, Review> findReviews(Set<String> ids, Limits limits) {
+        return findRows(ids, reviewIds, limits.reviews, row -> new ReviewView(limits, row));
+    }
+
+    private Map<String, User> findUsers(Set<String> ids, Limits limits) {
+        return findRows(ids, userIds, limits.users, row -> new UserView(limits, row));
+    }
+
+    private Map<String, List<Beer>> findBeersByBrewery(Set<String> ids, Limits limits) {
+        return findEdges(ids, breweryIds, limits.breweries, breweryBeers, limits.beers, row -> new BeerView(limits, row));
+    }
+
+    private Map<String, List<Review>> findReviewsByBeer(Set<String> ids, Limits limits) {
+        return findEdges(ids, beerIds, limits.beers, beerReviews, limits.reviews, row -> new ReviewView(limits, row));
+    }
+
+    private Map<String, List<Review>> findReviewsByUser(Set<String> ids, Limits limits) {
+        return findEdges(ids, userIds, limits.users, userReviews, limits.reviews, row -> new ReviewView(limits, row));
+    }
+
+    private static <T> Map<String, T> findRows(Set<String> ids, DenseIds index, int limit, IntFunction<T> view) {
+        Map<String, T> result = new HashMap<>();
+        for (String id : ids) {
+            int row = index.find(id, limit);
+            if (row >= 0) {
+                result.put(id, view.apply(row));
+            }
+        }
+        return result;
+    }
+
+    private static <T> Map<String, List<T>> findEdges(Set<String> ids, DenseIds owners, int ownerLimit, IntEdgeLists edges,
+                                                      int limit, IntFunction<T> view) {
+        Map<String, List<T>> result = new HashMap<>();
+        for (String id : ids) {
+            int owner = owners.find(id, ownerLimit);
+            result.put(id, owner < 0 ? List.of() : new RowList<>(edges.rows(owner, limit), view));
+        }
+        return result;
+    }
+
+    private Page<Beer> findBeerPage(String style, String breweryId, String after, int first, Limits limits) {
+        IntPredicate filter = style == null ? null : row -> style.equals(beerStyles.get(row));
+        RowSource source;
+        IntSupplier size;
+        if (breweryId != null) {
+            int brewery = breweryIds.find(breweryId, limits.breweries);
+            if (brewery < 0) {
+                return emptyPage(after);
+            }
+            int[] rows = breweryBeers.rows(brewery, limits.beers);
+            SortedRows.sort(rows, beerIds::compare);
+            source = arraySource(rows);
+            size = () -> rows.length;
+        } else {
+            source = (start, visitor) -> beerOrder.forEach(limits.beers, start, visitor);
+            size = () -> limits.beers;
+        }
+        return page(source, null, idsAfter(beerIds, after), null, filter, first, row -> new BeerView(limits, row),
+                beerIds::get, after != null, size);
+    }
+
+    private Page<Brewery> findBreweryPage(String after, int first, Limits limits) {
+        return page((start, visitor) -> breweryOrder.forEach(limits.breweries, start, visitor), null, idsAfter(breweryIds, after),
+                null, null, first, row -> new BreweryView(limits, row), breweryIds::get, after != null, () -> limits.breweries);
+    }
+
+    private Page<User> findUserPage(String after, int first, Limits limits) {
+        return page((start, visitor) -> userOrder.forEach(limits.users, start, visitor), null, idsAfter(userIds, after),
+                null, null, first, row -> new UserView(limits, row), userIds::get, after != null, () -> limits.users);
+    }
+
+    private Page<Review> findReviewPage(String beerId, String userId, Integer minRating, Integer maxRating, String after, int first,
+                                        Limits limits) {
+        IntPredicate filter = null;
+        RowSource source;
+        IntSupplier size;
+        if (beerId != null || userId != null) {
+            int beer = beerId == null ? -1 : beerIds.find(beerId, limits.beers);
+            int user = userId == null ? -1 : userIds.find(userId, limits.users);
+            if ((beerId != null && beer < 0) || (userId != null && user < 0)) {
+                return emptyPage(after);
+            }
+            int[] rows = beer >= 0 ? beerReviews.rows(beer, limits.reviews) : userReviews.rows(user, limits.reviews);
+            if (beer >= 0 && user >= 0) {
+                filter = row -> reviewUsers.get(row) == user;
+            }
+            SortedRows.sort(rows, this::compareReviews);
+            source = arraySource(rows);
+            size = () -> rows.length;
+        } else {
+            source = (start, visitor) -> reviewOrder.forEach(limits.reviews, start, visitor);
+            size = () -> limits.reviews;
+        }
+
+        IntPredicate below = minRating == null ? null : row -> reviewRatings.get(row) < minRating;
+        IntPredicate above = maxRating == null ? null : row -> reviewRatings.get(row) > maxRating;
+        IntPredicate afterCursor = null;
+        if (after != null) {
+            String key = SortedIndex.decodeCursor(after);
+            if (key.length() < RATING_PREFIX_LENGTH) {
+                throw new IllegalArgumentException("Invalid cursor: " + after);
+            }
+            int rating = (int) (Long.parseLong(key.substring(0, RATING_PREFIX_LENGTH - 1)) + Integer.MIN_VALUE);
+            DenseIds.Key id = DenseIds.Key.of(key.substring(RATING_PREFIX_LENGTH));
+            afterCursor = row -> {
+                int result = Integer.compare(reviewRatings.get(row), rating);
+                return (result != 0 ? result : reviewIds.compare(row, id)) <= 0;
+            };
+        }
+        return page(source, below, afterCursor, above, filter, first, row -> new ReviewView(limits, row),
+                row -> InMemoryCatalogRepository.ratingPrefix(reviewRatings.get(row)) + reviewIds.get(row), after != null, size);
+    }
+
+    private int compareReviews(int a, int b) {
+        int result = Integer.compare(reviewRatings.get(a), reviewRatings.get(b));
+        return result != 0 ? result : reviewIds.compare(a, b);
+    }
+
+    private static IntPredicate idsAfter(DenseIds ids, String after) {
+        if (after == null) {
+            return null;
+        }
+        DenseIds.Key key = DenseIds.Key.of(SortedIndex.decodeCursor(after));
+        return row -> ids.compare(row, key) <= 0;
+    }
+
+    /**
+     * Reads one page from rows in sort key order.
+     *
+     * @param below  rows before the key range, or {@code null}
+     * @param after  rows up to and including the cursor, or {@code null}
+     * @param above  rows after the key range, or {@code null}
+     * @param filter extra condition on rows that the order cannot answer, or {@code null}
+     * @param size   number of rows in the source, the total count when nothing restricts it
+     */
+    private static <T> Page<T> page(RowSource source, IntPredicate below, IntPredicate after, IntPredicate above, IntPredicate filter,
+                                    int first, IntFunction<T> view, IntFunction<String> key, boolean hasPreviousPage, IntSupplier size) {
+        IntPredicate start = below == null ? after : after == null ? below : below.or(after);
+        List<T> items = new ArrayList<>(first);
+        List<String> cursors = new ArrayList<>(first);
+        boolean[] hasNextPage = new boolean[1];
+        source.forEach(start, row -> {
+            if (above != null && above.test(row)) {
+                return false;
+            }
+            if (filter != null && !filter.test(row)) {
+                return true;
+            }
+            if (items.size() == first) {
+                hasNextPage[0] = true;
+                return false;
+            }
+            items.add(view.apply(row));
+            cursors.add(SortedIndex.encodeCursor(key.apply(row)));
+            return true;
+        });
+
+        if (below == null && above == null && filter == null) {
+            return new Page<>(items, cursors, hasPreviousPage, hasNextPage[0], size);
+        }
+        return new Page<>(items, cursors, hasPreviousPage, hasNextPage[0], () -> count(source, below, above, filter));
+    }
+
+    private static int count(RowSource source, IntPredicate below, IntPredicate above, IntPredicate filter) {
+        int[] count = new int[1];
+        source.forEach(below, row -> {
+            if (above != null && above.test(row)) {
+                return false;
+            }
+            if (filter == null || filter.test(row)) {
+                count[0]++;
+            }
+            return true;
+        });
+        return count[0];
+    }
+
+    private static RowSource arraySource(int[] rows) {
+        return (start, visitor) -> {
+            for (int i = start == null ? 0 : SortedRows.skip(rows, rows.length, start); i < rows.length; i++) {
+                if (!visitor.test(rows[i])) {
+                    return;
+                }
+            }
+        };
+    }
+
+    private static <V> Page<V> emptyPage(String after) {
+        return new Page<>(List.of(), List.of(), after != null, false, () -> 0);
+    }
+
+    private static <T extends Versioned> EdgeList<T> edges(int[] rows, IntFunction<T> view) {
+        EdgeList<T> edges = new EdgeList<>();
+        for (int row : rows) {
+            edges.add(view.apply(row));
+        }
+        return edges;
+    }
+
+    /**
+     * Rows in sort key order, visited from the first row for which {@code start} does not hold.
+     */
+    private interface RowSource {
+        void forEach(IntPredicate start, IntPredicate visitor);
+    }
+
+    private record Limits(int breweries, int users, int beers, int reviews) {
+    }
+
+    /**
+     * Review count, rating sum and review count per rating of each row, updated under the write lock
+     * and read without it, so that no aggregate walks the reviews of a row. Count and sum are packed
+     * into one long, the count in the high half and the sum in the low half, so that a reader never
+     * sees the sum of one write with the count of another. The sum of ratings of at most 5 fits the
+     * low half for up to 858 million reviews per row.
+     */
+    private static final class Stats {
+        private final Columns.Longs countsAndSums = new Columns.Longs();
+        private final Columns.Ints[] ratingCounts = new Columns.Ints[RatingStats.MAX_RATING - RatingStats.MIN_RATING + 1];
+
+        Stats() {
+            for (int i = 0; i < ratingCounts.length; i++) {
+                ratingCounts[i] = new Columns.Ints();
+            }
+        }
+
+        void add(int row) {
+            countsAndSums.set(row, 0);
+            for (Columns.Ints counts : ratingCounts) {
+                counts.set(row, 0);
+            }
+        }
+
+        void record(int row, int rating) {
+            Columns.Ints counts = ratingCounts[RatingStats.checkRating(rating) - RatingStats.MIN_RATING];
+            counts.set(row, counts.get(row) + 1);
+            countsAndSums.set(row, countsAndSums.get(row) + (1L << 32) + rating);
+        }
+
+        // Only ratings that were given
+        List<RatingStats.Bucket> histogram(int row) {
+            List<RatingStats.Bucket> buckets = new ArrayList<>(ratingCounts.length);
+            for (int i = 0; i < ratingCounts.length; i++) {
+                int count = ratingCounts[i].get(row);
+                if (count > 0) {
+                    buckets.add(new RatingStats.Bucket(i + RatingStats.MIN_RATING, count));
+                }
+            }
+            return buckets;
+        }
+
+        int count(int row) {
+            return (int) (countsAndSums.get(row) >>> 32);
+        }
+
+        Double average(int row) {
+            long countAndSum = countsAndSums.get(row);
+            int count = (int) (countAndSum >>> 32);
+            return count == 0 ? null : (double) (countAndSum & 0xFFFF_FFFFL) / count;
+        }
+    }
+
+    /**
+     * Read-only list that creates the view of a row when it is read.
+     */
+    private static final class RowList<T> extends AbstractList<T> implements RandomAccess {
+        private final int[] rows;
+        private final int size;
+        private final IntFunction<T> view;
+
+        // All rows below size
+        RowList(int size, IntFunction<T> view) {
+            this.rows = null;
+            this.size = size;
+            this.view = view;
+        }
+
+        RowList(int[] rows, IntFunction<T> view) {
+            this.rows = rows;
+            this.size = rows.length;
+            this.view = view;
+        }
+
+        @Override
+        public T get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+            }
+            return view.apply(rows == null ? index : rows[index]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    // Views read every property from the columns. Relations are read as of the limits the view was created
+    // with, so that views handed out by a snapshot stay within it; rating aggregates come from the stats
+    // columns. Edge lists and rating stats are detached copies built on each call: adding to them does not
+    // change the store.
+
+    private final class BreweryView extends Brewery {
+        private final Limits limits;
+        private final int row;
+
+        BreweryView(Limits limits, int row) {
+            this.limits = limits;
+            this.row = row;
+        }
+
+        ColumnarCatalogRepository store() {
+            return ColumnarCatalogRepository.this;
+        }
+
+        @Override
+        public String getId() {
+            return breweryIds.get(row);
+        }
+
+        @Override
+        public String getName() {
+            return breweryNames.get(row);
+        }
+
+        @Override
+        public String getCountry() {
+            return breweryCountries.get(row);
+        }
+
+        @Override
+        public EdgeList<Beer> getBeers() {
+            return edges(breweryBeers.rows(row, limits.beers), beer -> new BeerView(limits, beer));
+        }
+
+        @Override
+        public RatingStats getRatingStats() {
+            return RatingStats.of(getRatingHistogram());
+        }
+
+        @Override
+        public Double getAverageRating() {
+            return breweryStats.average(row);
+        }
+
+        @Override
+        public int getReviewCount() {
+            return breweryStats.count(row);
+        }
+
+        @Override
+        public List<RatingStats.Bucket> getRatingHistogram() {
+            return breweryStats.histogram(row);
+        }
+    }
+
+    private final class UserView extends User {
+        private final Limits limits;
+        private final int row;
+
+        UserView(Limits limits, int row) {
+            this.limits = limits;
+            this.row = row;
+        }
+
+        ColumnarCatalogRepository store() {
+            return ColumnarCatalogRepository.this;
+        }
+
+        @Override
+        public String getId() {
+            return userIds.get(row);
+        }
+
+        @Override
+        public String getName() {
+            return userNames.get(row);
+        }
+
+        @Override
+        public String getEmail() {
+            return userEmails.get(row);
+        }
+
+        @Override
+        public EdgeList<Review> getReviews() {
+            return edges(userReviews.rows(row, limits.reviews), review -> new ReviewView(limits, review));
+        }
+
+        @Override
+        public RatingStats getRatingStats() {
+            return RatingStats.of(getRatingHistogram());
+        }
+
+        @Override
+        public Double getAverageRating() {
+            return userStats.average(row);
+        }
+
+        @Override
+        public int getReviewCount() {
+            return userStats.count(row);
+        }
+
+        @Override
+        public List<RatingStats.Bucket> getRatingHistogram() {
+            return userStats.histogram(row);
+        }
+    }
+
+    private final class BeerView extends Beer {
+        private final Limits limits;
+        private final int row;
+
+        BeerView(Limits limits, int row) {
+            this.limits = limits;
+            this.row = row;
+        }
+
+        ColumnarCatalogRepository store() {
+            return ColumnarCatalogRepository.this;
+        }
+
+        @Override
+        public String getId() {
+            return beerIds.get(row);
+        }
+
+        @Override
+        public String getName() {
+            return beerNames.get(row);
+        }
+
+        @Override
+        public String getStyle() {
+            return beerStyles.get(row);
+        }
+
+        @Override
+        public Brewery getBrewery() {
+            int brewery = beerBreweries.get(row);
+            return brewery < 0 ? null : new BreweryView(limits, brewery);
+        }
+
+        @Override
+        public EdgeList<Review> getReviews() {
+            return edges(beerReviews.rows(row, limits.reviews), review -> new ReviewView(limits, review));
+        }
+
+        @Override
+        public RatingStats getRatingStats() {
+            return RatingStats.of(getRatingHistogram());
+        }
+
+        @Override
+        public Double getAverageRating() {
+            return beerStats.average(row);
+        }
+
+        @Override
+        public int getReviewCount() {
+            return beerStats.count(row);
+        }
+
+        @Override
+        public List<RatingStats.Bucket> getRatingHistogram() {
+            return beerStats.histogram(row);
+        }
+    }
+
+    private final class ReviewView extends Review {
+        private final Limits limits;
+        private final int row;
+
+        ReviewView(Limits limits, int row) {
+            this.limits = limits;
+            this.row = row;
+        }
+
+        @Override
+        public String getId() {
+            return reviewIds.get(row);
+        }
+
+        @Override
+        public String getText() {
+            return reviewTexts.get(row);
+        }
+
+        @Override
+        public int getRating() {
+            return reviewRatings.get(row);
+        }
+
+        @Override
+        public Beer getBeer() {
+            return new BeerView(limits, reviewBeers.get(row));
+        }
+
+        @Override
+        public User getUser() {
+            return new UserView(limits, reviewUsers.get(row));
+        }
+    }
+
+    /**
+     * Read-only view of the store as of the row counts at its first read, so a mutation that writes
+     * before reading its selection set sees its own writes.
+     */
+    private class SnapshotView implements CatalogRepository {
+
+        private volatile Limits limits;
+
+        private Limits limits() {
+            Limits current = limits;
+            if (current == null) {
+                synchronized (this) {
+                    if (limits == null) {
+                        limits = latest();
+                    }
+                    current = limits;
+                }
+            }
+            return current;
+        }
+
+        @Override
+        public Map<String, Beer> findBeers(Set<String> ids) {
+            return ColumnarCatalogRepository.this.findBeers(ids, limits());
+        }
+
+        @Override
+        public Map<String, Brewery> findBreweries(Set<String> ids) {
+            return ColumnarCatalogRepository.this.findBreweries(ids, limits());
+        }
+
+        @Override
+        public Map<String, Review> findReviews(Set<String> ids) {
+            return ColumnarCatalogRepository.this.findReviews(ids, limits());
+        }
+
+        @Override
+        public Map<String, User> findUsers(Set<String> ids) {
+            return ColumnarCatalogRepository.this.findUsers(ids, limits());
+        }
+
+        @Override
+        public Map<String, List<Beer>> findBeersByBrewery(Set<String> breweryIds) {
+            return ColumnarCatalogRepository.this.findBeersByBrewery(breweryIds, limits());
+        }
+
+        @Override
+        public Map<String, List<Review>> findReviewsByBeer(Set<String> beerIds) {
+            return ColumnarCatalogRepository.this.findReviewsByBeer(beerIds, limits());
+        }
+
+        @Override
+        public Map<String, List<Review>> findReviewsByUser(Set<String> userIds) {
+            return ColumnarCatalogRepository.this.findReviewsByUser(userIds, limits());
+        }
+
+        @Override
+        public int countBeers() {
+            return limits().beers;
+        }
+
+        @Override
+        public int countBreweries() {
+            return limits().breweries;
+        }
+
+        @Override
+        public int countReviews() {
+            return limits().reviews;
+        }
+
+        @Override
+        public int countUsers() {
+            return limits().users;
+        }
+
+        @Override
+        public Collection<Beer> findAllBeers() {
+            Limits current = limits();
+            return new RowList<>(current.beers, row -> new BeerView(current, row));
+        }
+
+        @Override
+        public Collection<Brewery> findAllBreweries() {
+            Limits current = limits();
+            return new RowList<>(current.breweries, row -> new BreweryView(current, row));
+        }
+
+        @Override
+        public Collection<Review> findAllReviews() {
+            Limits current = limits();
+            return new RowList<>(current.reviews, row -> new ReviewView(current, row));
+        }
+
+        @Override
+        public Collection<User> findAllUsers() {
+            Limits current = limits();
+            return new RowList<>(current.users, row -> new UserView(current, row));
+        }
+
+        @Override
+        public Page<Beer> findBeerPage(String style, String breweryId, String after, int first) {
+            return ColumnarCatalogRepository.this.findBeerPage(style, breweryId, after, first, limits());
+        }
+
+        @Override
+        public Page<Brewery> findBreweryPage(String after, int first) {
+            return ColumnarCatalogRepository.this.findBreweryPage(after, first, limits());
+        }
+
+        @Override
+        public Page<Review> findReviewPage(String beerId, String userId, Integer minRating, Integer maxRating, String after, int first) {
+            return ColumnarCatalogRepository.this.findReviewPage(beerId, userId, minRating, maxRating, after, first, limits());
+        }
+
+        @Override
+        public Page<User> findUserPage(String after, int first) {
+            return ColumnarCatalogRepository.this.findUserPage(after, first, limits());
+        }
+
+        @Override
+        public CatalogRepository snapshot() {
+            return this;
+        }
+
+        @Override
+        public boolean saveBeer(Beer beer) {
+            throw new UnsupportedOperationException("Snapshot views are read-only");
+        }
+
+        @Override
+        public boolean saveBrewery(Brewery brewery) {
+            throw new UnsupportedOperationException("Snapshot views are read-only");
+        }
+
+        @Override
+        public boolean saveReview(Review review) {
+            throw new UnsupportedOperationException("Snapshot views are read-only");
+        }
+
+        @Override
+        public boolean saveUser(User user) {
+            throw new UnsupportedOperationException("Snapshot views are read-only");
+        }
+
+        @Override
+        public List<Beer> saveBeers(List<Beer> beers) {
+            throw new UnsupportedOperationException("Snapshot views are read-only");
+        }
+
+        @Override
+        public List<Review> saveReviews(List<Review> reviews) {
+            throw new UnsupportedOperationException("Snapshot views are read-only");
+        }
+
+        @Override
+        public List<User> saveUsers(List<User> users) {
+            throw new UnsupportedOperationException("Snapshot views are read-only");
+        }
+    }
+}
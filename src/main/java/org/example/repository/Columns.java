@@ -0,0 +1,96 @@
+package org.example.repository;
+
+import java.util.Arrays;
+
+/**
+ * Growable primitive columns for {@link ColumnarCatalogRepository}.
+ * <p>
+ * Only one thread writes at a time. A reader may look at a row once the row count that covers it has
+ * been published through a volatile write, which happens after the row was set, so it sees either the
+ * array the row was written to or a larger copy of it.
+ */
+final class Columns {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Columns() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    static int grow(int capacity, int row) {
+        int grown = Math.max(INITIAL_CAPACITY, capacity + (capacity >> 1));
+        return Math.max(grown, row + 1);
+    }
+
+    static final class Bytes {
+        private volatile byte[] values = new byte[INITIAL_CAPACITY];
+
+        byte get(int row) {
+            return values[row];
+        }
+
+        void set(int row, byte value) {
+            byte[] current = values;
+            if (row >= current.length) {
+                current = Arrays.copyOf(current, grow(current.length, row));
+                values = current;
+            }
+            current[row] = value;
+        }
+    }
+
+    static final class Ints {
+        private volatile int[] values = new int[INITIAL_CAPACITY];
+
+        int get(int row) {
+            return values[row];
+        }
+
+        void set(int row, int value) {
+            int[] current = values;
+            if (row >= current.length) {
+                current = Arrays.copyOf(current, grow(current.length, row));
+                values = current;
+            }
+            current[row] = value;
+        }
+    }
+
+    static final class Longs {
+        private volatile long[] values = new long[INITIAL_CAPACITY];
+
+        long get(int row) {
+            return values[row];
+        }
+
+        void set(int row, long value) {
+            long[] current = values;
+            if (row >= current.length) {
+                current = Arrays.copyOf(current, grow(current.length, row));
+                values = current;
+            }
+            current[row] = value;
+        }
+    }
+
+    /**
+     * String column whose array is only allocated once a value is set, so a column that stays empty costs nothing.
+     */
+    static final class Strings {
+        private volatile String[] values;
+
+        String get(int row) {
+            String[] current = values;
+            return current == null || row >= current.length ? null : current[row];
+        }
+
+        void set(int row, String value) {
+            String[] current = values;
+            if (current == null || row >= current.length) {
+                current = current == null ? new String[grow(0, row)] : Arrays.copyOf(current, grow(current.length, row));
+                values = current;
+            }
+            current[row] = value;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package org.example.repository;
+
+import java.util.UUID;
+
+/**
+ * Assigns dense row numbers to string ids and finds them again. Canonical lower-case UUIDs and plain
+ * decimal numbers, which is what the catalogue uses, are kept as two longs rather than as a String;
+ * anything else is kept as is. Ids compare in {@link String} order without being materialized.
+ * <p>
+ * Rows are appended by one writer at a time. Lookups never lock and only return rows below the limit
+ * they are given, which must be a row count the writer has already published.
+ */
+class DenseIds {
+
+    private static final byte TEXT = 0;
+    private static final byte UUID_ID = 1;
+    private static final byte NUMBER = 2;
+
+    private static final int MAX_NUMBER_DIGITS = 18;
+    private static final long[] POWERS_OF_TEN = new long[MAX_NUMBER_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final Columns.Bytes kinds = new Columns.Bytes();
+    private final Columns.Longs high = new Columns.Longs();
+    private final Columns.Longs low = new Columns.Longs();
+    private final Columns.Strings texts = new Columns.Strings();
+
+    // Open addressing, holding row + 1 so that 0 marks an empty slot
+    private volatile int[] slots = new int[64];
+    private int size;
+
+    /**
+     * Appends the id as the next row. The caller checks that the id is not present yet.
+     */
+    int add(String id) {
+        Key key = Key.of(id);
+        int row = size;
+        kinds.set(row, key.kind);
+        high.set(row, key.high);
+        low.set(row, key.low);
+        if (key.kind == TEXT) {
+            texts.set(row, key.text);
+        }
+
+        int[] table = slots;
+        if ((size + 1) * 2 > table.length) {
+            table = rehash(table.length * 2);
+        }
+        insert(table, key.hashCode(), row);
+        // A reader that sees the new table also sees the row it was filled from
+        slots = table;
+        size = row + 1;
+        return row;
+    }
+
+    /**
+     * @return the row of the id, or -1 if it is not among the rows below {@code limit}
+     */
+    int find(String id, int limit) {
+        if (id == null) {
+            return -1;
+        }
+        Key key = Key.of(id);
+        int[] table = slots;
+        int mask = table.length - 1;
+        for (int i = key.hashCode() & mask; table[i] != 0; i = (i + 1) & mask) {
+            int row = table[i] - 1;
+            if (row < limit && matches(row, key)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    String get(int row) {
+        return Key.text(kinds.get(row), high.get(row), low.get(row), texts.get(row));
+    }
+
+    /**
+     * Compares the ids of two rows the way their strings compare.
+     */
+    int compare(int a, int b) {
+        return compare(kinds.get(a), high.get(a), low.get(a), texts.get(a), kinds.get(b), high.get(b), low.get(b), texts.get(b));
+    }
+
+    /**
+     * Compares the id of a row with an id the way their strings compare.
+     */
+    int compare(int row, Key key) {
+        return compare(kinds.get(row), high.get(row), low.get(row), texts.get(row), key.kind, key.high, key.low, key.text);
+    }
+
+    private boolean matches(int row, Key key) {
+        byte kind = kinds.get(row);
+        if (kind != key.kind) {
+            return false;
+        }
+        return kind == TEXT ? key.text.equals(texts.get(row)) : high.get(row) == key.high && low.get(row) == key.low;
+    }
+
+    private int[] rehash(int capacity) {
+        int[] table = new int[capacity];
+        for (int row = 0; row < size; row++) {
+            insert(table, Key.hash(kinds.get(row), high.get(row), low.get(row), texts.get(row)), row);
+        }
+        return table;
+    }
+
+    private static void insert(int[] table, int hash, int row) {
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = row + 1;
+    }
+
+    private static int compare(byte kindA, long highA, long lowA, String textA, byte kindB, long highB, long lowB, String textB) {
+        if (kindA == kindB) {
+            switch (kindA) {
+                case UUID_ID -> {
+                    // Fixed-width lower-case hex, so string order is unsigned numeric order
+                    int result = Long.compareUnsigned(highA, highB);
+                    return result != 0 ? result : Long.compareUnsigned(lowA, lowB);
+                }
+                case NUMBER -> {
+                    return compareDecimalStrings(lowA, lowB);
+                }
+                default -> {
+                    return textA.compareTo(textB);
+                }
+            }
+        }
+        return Key.text(kindA, highA, lowA, textA).compareTo(Key.text(kindB, highB, lowB, textB));
+    }
+
+    /**
+     * String order of two decimal numbers: the shorter one is scaled to the same number of digits, and
+     * if that makes them equal it is a prefix of the other and sorts first.
+     */
+    private static int compareDecimalStrings(long a, long b) {
+        int digitsA = digits(a);
+        int digitsB = digits(b);
+        if (digitsA == digitsB) {
+            return Long.compare(a, b);
+        }
+        long scaledA = digitsA < digitsB ? a * POWERS_OF_TEN[digitsB - digitsA] : a;
+        long scaledB = digitsB < digitsA ? b * POWERS_OF_TEN[digitsA - digitsB] : b;
+        int result = Long.compare(scaledA, scaledB);
+        return result != 0 ? result : Integer.compare(digitsA, digitsB);
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * An id in the encoding used by the columns.
+     */
+    static final class Key {
+        private final byte kind;
+        private final long high;
+        private final long low;
+        private final String text;
+
+        private Key(byte kind, long high, long low, String text) {
+            this.kind = kind;
+            this.high = high;
+            this.low = low;
+            this.text = text;
+        }
+
+        static Key of(String id) {
+            if (isNumber(id)) {
+                return new Key(NUMBER, 0, Long.parseLong(id), null);
+            }
+            if (isCanonicalUuid(id)) {
+                UUID uuid = UUID.fromString(id);
+                return new Key(UUID_ID, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), null);
+            }
+            return new Key(TEXT, 0, 0, id);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash(kind, high, low, text);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && kind == key.kind && high == key.high && low == key.low
+                    && (kind != TEXT || text.equals(key.text));
+        }
+
+        @Override
+        public String toString() {
+            return text(kind, high, low, text);
+        }
+
+        private static int hash(byte kind, long high, long low, String text) {
+            if (kind == TEXT) {
+                long mixed = text.hashCode() * 0x9E3779B97F4A7C15L;
+                return (int) (mixed >>> 32);
+            }
+            long mixed = (high * 31 + low + kind) * 0x9E3779B97F4A7C15L;
+            return (int) (mixed ^ (mixed >>> 32));
+        }
+
+        private static String text(byte kind, long high, long low, String text) {
+            return switch (kind) {
+                case UUID_ID -> new UUID(high, low).toString();
+                case NUMBER -> Long.toString(low);
+                default -> text;
+            };
+        }
+
+        private static boolean isNumber(String id) {
+            int length = id.length();
+            if (length == 0 || length > MAX_NUMBER_DIGITS || (length > 1 && id.charAt(0) == '0')) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                char c = id.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isCanonicalUuid(String id) {
+            if (id.length() != 36) {
+                return false;
+            }
+            for (int i = 0; i < 36; i++) {
+                char c = id.charAt(i);
+                boolean valid = (i == 8 || i == 13 || i == 18 || i == 23)
+                        ? c == '-'
+                        : (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+                if (!valid) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
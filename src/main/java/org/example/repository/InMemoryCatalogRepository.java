@@ -0,0 +1,531 @@
+package org.example.repository;
+
+import org.example.models.Beer;
+import org.example.models.Brewery;
+import org.example.models.EdgeList;
+import org.example.models.Review;
+import org.example.models.User;
+import org.example.models.Versioned;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Keeps the whole catalogue on the heap. Relations are the object references held by the models.
+ * <p>
+ * Every write runs under the striped locks of all entities it links and is stamped with a commit
+ * version, which keeps edge lists in version order. Reads never lock: the repository itself reads the
+ * latest state, while {@link #snapshot()} views filter out anything committed after their read version.
+ * Rating aggregates are not versioned and may already include a review a snapshot does not see.
+ */
+public class InMemoryCatalogRepository implements CatalogRepository {
+
+    private static final long LATEST = Long.MAX_VALUE;
+    private static final int LOCK_STRIPES = 64;
+
+    private final Map<String, Beer> beers = new ConcurrentHashMap<>();
+    private final Map<String, Brewery> breweries = new ConcurrentHashMap<>();
+    private final Map<String, Review> reviews = new ConcurrentHashMap<>();
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+
+    // Secondary indexes for paging; beers, breweries and users are keyed by id, reviews by rating and id
+    private final SortedIndex<Beer> beerIndex = new SortedIndex<>();
+    private final Map<String, SortedIndex<Beer>> beersByStyle = new ConcurrentHashMap<>();
+    private final Map<String, SortedIndex<Beer>> beersByBrewery = new ConcurrentHashMap<>();
+    private final SortedIndex<Brewery> breweryIndex = new SortedIndex<>();
+    private final SortedIndex<Review> reviewIndex = new SortedIndex<>();
+    private final Map<String, SortedIndex<Review>> reviewsByBeer = new ConcurrentHashMap<>();
+    private final Map<String, SortedIndex<Review>> reviewsByUser = new ConcurrentHashMap<>();
+    private final SortedIndex<User> userIndex = new SortedIndex<>();
+
+    private final StripedLocks locks = new StripedLocks(LOCK_STRIPES);
+    private final VersionClock clock = new VersionClock();
+
+    @Override
+    public Map<String, Beer> findBeers(Set<String> ids) {
+        return findAll(beers, ids, LATEST);
+    }
+
+    @Override
+    public Map<String, Brewery> findBreweries(Set<String> ids) {
+        return findAll(breweries, ids, LATEST);
+    }
+
+    @Override
+    public Map<String, Review> findReviews(Set<String> ids) {
+        return findAll(reviews, ids, LATEST);
+    }
+
+    @Override
+    public Map<String, User> findUsers(Set<String> ids) {
+        return findAll(users, ids, LATEST);
+    }
+
+    @Override
+    public Map<String, List<Beer>> findBeersByBrewery(Set<String> breweryIds) {
+        return findEdges(breweries, breweryIds, Brewery::getBeers, LATEST);
+    }
+
+    @Override
+    public Map<String, List<Review>> findReviewsByBeer(Set<String> beerIds) {
+        return findEdges(beers, beerIds, Beer::getReviews, LATEST);
+    }
+
+    @Override
+    public Map<String, List<Review>> findReviewsByUser(Set<String> userIds) {
+        return findEdges(users, userIds, User::getReviews, LATEST);
+    }
+
+    @Override
+    public int countBeers() {
+        return beerIndex.size();
+    }
+
+    @Override
+    public int countBreweries() {
+        return breweryIndex.size();
+    }
+
+    @Override
+    public int countReviews() {
+        return reviewIndex.size();
+    }
+
+    @Override
+    public int countUsers() {
+        return userIndex.size();
+    }
+
+    @Override
+    public Collection<Beer> findAllBeers() {
+        return findAll(beers, LATEST);
+    }
+
+    @Override
+    public Collection<Brewery> findAllBreweries() {
+        return findAll(breweries, LATEST);
+    }
+
+    @Override
+    public Collection<Review> findAllReviews() {
+        return findAll(reviews, LATEST);
+    }
+
+    @Override
+    public Collection<User> findAllUsers() {
+        return findAll(users, LATEST);
+    }
+
+    @Override
+    public Page<Beer> findBeerPage(String style, String breweryId, String after, int first) {
+        return findBeerPage(style, breweryId, after, first, LATEST);
+    }
+
+    @Override
+    public Page<Brewery> findBreweryPage(String after, int first) {
+        return breweryIndex.page(null, null, after, first, null, LATEST);
+    }
+
+    @Override
+    public Page<Review> findReviewPage(String beerId, String userId, Integer minRating, Integer maxRating, String after, int first) {
+        return findReviewPage(beerId, userId, minRating, maxRating, after, first, LATEST);
+    }
+
+    @Override
+    public Page<User> findUserPage(String after, int first) {
+        return userIndex.page(null, null, after, first, null, LATEST);
+    }
+
+    @Override
+    public CatalogRepository snapshot() {
+        return new SnapshotView();
+    }
+
+    @Override
+    public boolean saveBeer(Beer beer) {
+        return commit(beers, beer, () -> linkBeer(beer), beerLockKeys(beer));
+    }
+
+    @Override
+    public boolean saveBrewery(Brewery brewery) {
+        return commit(breweries, brewery, () -> breweryIndex.add(brewery.getId(), brewery), "brewery:" + brewery.getId());
+    }
+
+    @Override
+    public boolean saveReview(Review review) {
+        return commit(reviews, review, () -> linkReview(review), reviewLockKeys(review));
+    }
+
+    @Override
+    public boolean saveUser(User user) {
+        return commit(users, user, () -> userIndex.add(user.getId(), user), "user:" + user.getId());
+    }
+
+    @Override
+    public List<Beer> saveBeers(List<Beer> beers) {
+        return commitAll(this.beers, beers, this::linkBeer, InMemoryCatalogRepository::beerLockKeys);
+    }
+
+    @Override
+    public List<Review> saveReviews(List<Review> reviews) {
+        return commitAll(this.reviews, reviews, this::linkReview, InMemoryCatalogRepository::reviewLockKeys);
+    }
+
+    @Override
+    public List<User> saveUsers(List<User> users) {
+        return commitAll(this.users, users, user -> userIndex.add(user.getId(), user), user -> new String[]{"user:" + user.getId()});
+    }
+
+    private void linkBeer(Beer beer) {
+        Brewery brewery = beer.getBrewery();
+        if (brewery != null) {
+            brewery.getBeers().add(beer);
+            partition(beersByBrewery, brewery.getId()).add(beer.getId(), beer);
+        }
+        beerIndex.add(beer.getId(), beer);
+        partition(beersByStyle, beer.getStyle()).add(beer.getId(), beer);
+    }
+
+    private void linkReview(Review review) {
+        Beer beer = review.getBeer();
+        User user = review.getUser();
+        beer.getReviews().add(review);
+        user.getReviews().add(review);
+        beer.getRatingStats().record(review.getRating());
+        user.getRatingStats().record(review.getRating());
+        if (beer.getBrewery() != null) {
+            beer.getBrewery().getRatingStats().record(review.getRating());
+        }
+
+        String key = ratingPrefix(review.getRating()) + review.getId();
+        reviewIndex.add(key, review);
+        partition(reviewsByBeer, beer.getId()).add(key, review);
+        partition(reviewsByUser, user.getId()).add(key, review);
+    }
+
+    private static String[] beerLockKeys(Beer beer) {
+        Brewery brewery = beer.getBrewery();
+        return brewery == null
+                ? new String[]{"beer:" + beer.getId()}
+                : new String[]{"beer:" + beer.getId(), "brewery:" + brewery.getId()};
+    }
+
+    private static String[] reviewLockKeys(Review review) {
+        return new String[]{"review:" + review.getId(), "beer:" + review.getBeer().getId(), "user:" + review.getUser().getId()};
+    }
+
+    /**
+     * Stores an entity unless its id is taken, stamping it with a new version and running {@code link}
+     * to attach it to its relations and indexes while all of {@code lockKeys} are held.
+     */
+    private <T extends Versioned> boolean commit(Map<String, T> table, T entity, Runnable link, String... lockKeys) {
+        String id = idOf(entity);
+        return locks.withLocks(() -> {
+            if (table.containsKey(id)) {
+                return false;
+            }
+            long version = clock.begin();
+            try {
+                entity.setVersion(version);
+                table.put(id, entity);
+                link.run();
+            } finally {
+                clock.complete(version);
+            }
+            return true;
+        }, lockKeys);
+    }
+
+    /**
+     * Like {@link #commit}, for several entities under the locks of all of them and one shared version.
+     */
+    private <T extends Versioned> List<T> commitAll(Map<String, T> table, List<T> entities, Consumer<T> link,
+                                                    Function<T, String[]> lockKeys) {
+        String[] keys = entities.stream().flatMap(entity -> Arrays.stream(lockKeys.apply(entity))).toArray(String[]::new);
+        return locks.withLocks(() -> {
+            List<T> stored = new ArrayList<>(entities.size());
+            long version = clock.begin();
+            try {
+                for (T entity : entities) {
+                    String id = idOf(entity);
+                    if (table.containsKey(id)) {
+                        continue;
+                    }
+                    entity.setVersion(version);
+                    table.put(id, entity);
+                    link.accept(entity);
+                    stored.add(entity);
+                }
+            } finally {
+                clock.complete(version);
+            }
+            return stored;
+        }, keys);
+    }
+
+    private static String idOf(Versioned entity) {
+        if (entity instanceof Beer beer) {
+            return beer.getId();
+        } else if (entity instanceof Brewery brewery) {
+            return brewery.getId();
+        } else if (entity instanceof Review review) {
+            return review.getId();
+        } else if (entity instanceof User user) {
+            return user.getId();
+        }
+        throw new IllegalArgumentException("Unknown entity type: " + entity.getClass().getName());
+    }
+
+    private Page<Beer> findBeerPage(String style, String breweryId, String after, int first, long maxVersion) {
+        SortedIndex<Beer> index;
+        Predicate<Beer> filter = null;
+        if (breweryId != null) {
+            index = beersByBrewery.get(breweryId);
+            if (style != null) {
+                filter = beer -> style.equals(beer.getStyle());
+            }
+        } else if (style != null) {
+            index = beersByStyle.get(style);
+        } else {
+            index = beerIndex;
+        }
+        return index == null ? emptyPage(after) : index.page(null, null, after, first, filter, maxVersion);
+    }
+
+    private Page<Review> findReviewPage(String beerId, String userId, Integer minRating, Integer maxRating, String after, int first, long maxVersion) {
+        SortedIndex<Review> index;
+        Predicate<Review> filter = null;
+        if (beerId != null) {
+            index = reviewsByBeer.get(beerId);
+            if (userId != null) {
+                filter = review -> userId.equals(review.getUser().getId());
+            }
+        } else if (userId != null) {
+            index = reviewsByUser.get(userId);
+        } else {
+            index = reviewIndex;
+        }
+        if (index == null || (minRating != null && maxRating != null && minRating > maxRating)) {
+            return emptyPage(after);
+        }
+        String from = minRating == null ? null : ratingPrefix(minRating);
+        String to = maxRating == null ? null : ratingPrefix((long) maxRating + 1);
+        return index.page(from, to, after, first, filter, maxVersion);
+    }
+
+    private static <T extends Versioned> Map<String, T> findAll(Map<String, T> source, Set<String> ids, long maxVersion) {
+        Map<String, T> result = new HashMap<>();
+        for (String id : ids) {
+            T value = source.get(id);
+            if (value != null && value.getVersion() <= maxVersion) {
+                result.put(id, value);
+            }
+        }
+        return result;
+    }
+
+    private static <T extends Versioned> List<T> findAll(Map<String, T> source, long maxVersion) {
+        List<T> result = new ArrayList<>(source.size());
+        for (T value : source.values()) {
+            if (value.getVersion() <= maxVersion) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    private static <O extends Versioned, T extends Versioned> Map<String, List<T>> findEdges(Map<String, O> owners, Set<String> ownerIds,
+                                                                                           Function<O, EdgeList<T>> edges, long maxVersion) {
+        Map<String, List<T>> result = new HashMap<>();
+        for (String id : ownerIds) {
+            O owner = owners.get(id);
+            result.put(id, owner == null || owner.getVersion() > maxVersion ? List.of() : edges.apply(owner).snapshot(maxVersion));
+        }
+        return result;
+    }
+
+    private static <V extends Versioned> SortedIndex<V> partition(Map<String, SortedIndex<V>> partitions, String key) {
+        return partitions.computeIfAbsent(key, ignored -> new SortedIndex<>());
+    }
+
+    private static <V> Page<V> emptyPage(String after) {
+        return new Page<>(List.of(), List.of(), after != null, false, () -> 0);
+    }
+
+    /**
+     * Fixed-width, offset encoding of the rating, so that string order of review keys is numeric
+     * rating order. Also used as the bounds of rating range queries, and by the cursors of
+     * {@link ColumnarCatalogRepository}.
+     */
+    static String ratingPrefix(long rating) {
+        return String.format("%011d:", rating - Integer.MIN_VALUE);
+    }
+
+    /**
+     * Read-only view of the repository as of one read version. The version is taken on first read,
+     * so a mutation that writes before reading its selection set sees its own writes.
+     */
+    private class SnapshotView implements CatalogRepository {
+
+        private volatile long readVersion = -1;
+
+        private long readVersion() {
+            long version = readVersion;
+            if (version < 0) {
+                synchronized (this) {
+                    if (readVersion < 0) {
+                        readVersion = clock.readVersion();
+                    }
+                    version = readVersion;
+                }
+            }
+            return version;
+        }
+
+        @Override
+        public Map<String, Beer> findBeers(Set<String> ids) {
+            return findAll(beers, ids, readVersion());
+        }
+
+        @Override
+        public Map<String, Brewery> findBreweries(Set<String> ids) {
+            return findAll(breweries, ids, readVersion());
+        }
+
+        @Override
+        public Map<String, Review> findReviews(Set<String> ids) {
+            return findAll(reviews, ids, readVersion());
+        }
+
+        @Override
+        public Map<String, User> findUsers(Set<String> ids) {
+            return findAll(users, ids, readVersion());
+        }
+
+        @Override
+        public Map<String, List<Beer>> findBeersByBrewery(Set<String> breweryIds) {
+            return findEdges(breweries, breweryIds, Brewery::getBeers, readVersion());
+        }
+
+        @Override
+        public Map<String, List<Review>> findReviewsByBeer(Set<String> beerIds) {
+            return findEdges(beers, beerIds, Beer::getReviews, readVersion());
+        }
+
+        @Override
+        public Map<String, List<Review>> findReviewsByUser(Set<String> userIds) {
+            return findEdges(users, userIds, User::getReviews, readVersion());
+        }
+
+        // Counts are estimates for query planning and are not filtered by version
+
+        @Override
+        public int countBeers() {
+            return InMemoryCatalogRepository.this.countBeers();
+        }
+
+        @Override
+        public int countBreweries() {
+            return InMemoryCatalogRepository.this.countBreweries();
+        }
+
+        @Override
+        public int countReviews() {
+            return InMemoryCatalogRepository.this.countReviews();
+        }
+
+        @Override
+        public int countUsers() {
+            return InMemoryCatalogRepository.this.countUsers();
+        }
+
+        @Override
+        public Collection<Beer> findAllBeers() {
+            return findAll(beers, readVersion());
+        }
+
+        @Override
+        public Collection<Brewery> findAllBreweries() {
+            return findAll(breweries, readVersion());
+        }
+
+        @Override
+        public Collection<Review> findAllReviews() {
+            return findAll(reviews, readVersion());
+        }
+
+        @Override
+        public Collection<User> findAllUsers() {
+            return findAll(users, readVersion());
+        }
+
+        @Override
+        public Page<Beer> findBeerPage(String style, String breweryId, String after, int first) {
+            return InMemoryCatalogRepository.this.findBeerPage(style, breweryId, after, first, readVersion());
+        }
+
+        @Override
+        public Page<Brewery> findBreweryPage(String after, int first) {
+            return breweryIndex.page(null, null, after, first, null, readVersion());
+        }
+
+        @Override
+        public Page<Review> findReviewPage(String beerId, String userId, Integer minRating, Integer maxRating, String after, int first) {
+            return InMemoryCatalogRepository.this.findReviewPage(beerId, userId, minRating, maxRating, after, first, readVersion());
+        }
+
+        @Override
+        public Page<User> findUserPage(String after, int first) {
+            return userIndex.page(null, null, after, first, null, readVersion());
+        }
+
+        @Override
+        public CatalogRepository snapshot() {
+            return this;
+        }
+
+        @Override
+        public boolean saveBeer(Beer beer) {
+            throw new UnsupportedOperationException("Snapshot views are read-only");
+        }
+
+        @Override
+        public boolean saveBrewery(Brewery brewery) {
+            throw new UnsupportedOperationException("Snapshot views are read-only");
+        }
+
+        @Override
+        public boolean saveReview(Review review) {
+            throw new UnsupportedOperationException("Snapshot views are read-only");
+        }
+
+        @Override
+        public boolean saveUser(User user) {
+            throw new UnsupportedOperationException("Snapshot views are read-only");
+        }
+
+        @Override
+        public List<Beer> saveBeers(List<Beer> beers) {
+            throw new UnsupportedOperationException("Snapshot views are read-only");
+        }
+
+        @Override
+        public List<Review> saveReviews(List<Review> reviews) {
+            throw new UnsupportedOperationException("Snapshot views are read-only");
+        }
+
+        @Override
+        public List<User> saveUsers(List<User> users) {
+            throw new UnsupportedOperationException("Snapshot views are read-only");
+        }
+    }
+}
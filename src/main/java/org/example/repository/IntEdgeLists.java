@@ -0,0 +1,68 @@
+package org.example.repository;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * One append-only list of row numbers per owner row, such as the review rows of every beer. Rows are
+ * appended in increasing order, so the rows visible below a limit are a prefix of each list.
+ * <p>
+ * One writer at a time. The size of a list is published after its new element, so a reader never sees
+ * a size larger than the array it then reads.
+ */
+class IntEdgeLists {
+
+    private static final int INITIAL_LIST_CAPACITY = 4;
+    private static final int[] EMPTY = new int[0];
+
+    private volatile int[][] lists = new int[16][];
+    private volatile AtomicIntegerArray sizes = new AtomicIntegerArray(16);
+
+    void add(int owner, int row) {
+        ensureOwner(owner);
+        int[][] currentLists = lists;
+        int size = sizes.get(owner);
+        int[] list = currentLists[owner];
+        if (list == null || size == list.length) {
+            list = list == null ? new int[INITIAL_LIST_CAPACITY] : Arrays.copyOf(list, Columns.grow(list.length, size));
+            currentLists[owner] = list;
+        }
+        list[size] = row;
+        sizes.set(owner, size + 1);
+    }
+
+    /**
+     * @return the rows of the owner that are below {@code limit}, in increasing order
+     */
+    int[] rows(int owner, int limit) {
+        AtomicIntegerArray currentSizes = sizes;
+        if (owner >= currentSizes.length()) {
+            return EMPTY;
+        }
+        int size = currentSizes.get(owner);
+        if (size == 0) {
+            return EMPTY;
+        }
+        int[] list = lists[owner];
+        int visible = size;
+        if (list[size - 1] >= limit) {
+            int index = Arrays.binarySearch(list, 0, size, limit);
+            visible = index >= 0 ? index : -index - 1;
+        }
+        return Arrays.copyOf(list, visible);
+    }
+
+    private void ensureOwner(int owner) {
+        AtomicIntegerArray currentSizes = sizes;
+        if (owner < currentSizes.length()) {
+            return;
+        }
+        int capacity = Columns.grow(currentSizes.length(), owner);
+        lists = Arrays.copyOf(lists, capacity);
+        AtomicIntegerArray grownSizes = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < currentSizes.length(); i++) {
+            grownSizes.set(i, currentSizes.get(i));
+        }
+        sizes = grownSizes;
+    }
+}
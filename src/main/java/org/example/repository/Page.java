@@ -0,0 +1,47 @@
+package org.example.repository;
+
+import java.util.List;
+import java.util.function.IntSupplier;
+
+/**
+ * One slice of a sorted index, with an opaque cursor per item.
+ */
+public class Page<T> {
+    private final List<T> items;
+    private final List<String> cursors;
+    private final boolean hasPreviousPage;
+    private final boolean hasNextPage;
+    private final IntSupplier totalCount;
+
+    public Page(List<T> items, List<String> cursors, boolean hasPreviousPage, boolean hasNextPage, IntSupplier totalCount) {
+        this.items = items;
+        this.cursors = cursors;
+        this.hasPreviousPage = hasPreviousPage;
+        this.hasNextPage = hasNextPage;
+        this.totalCount = totalCount;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public List<String> getCursors() {
+        return cursors;
+    }
+
+    public boolean hasPreviousPage() {
+        return hasPreviousPage;
+    }
+
+    public boolean hasNextPage() {
+        return hasNextPage;
+    }
+
+    /**
+     * Number of items matching the query across all pages. Computed on demand, since with a filter
+     * that is not backed by an index it has to walk the matching range.
+     */
+    public int getTotalCount() {
+        return totalCount.getAsInt();
+    }
+}
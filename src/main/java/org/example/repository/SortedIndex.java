@@ -0,0 +1,148 @@
+package org.example.repository;
+
+import org.example.models.Versioned;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Values ordered by a string sort key. A page is read by seeking to the cursor, so its cost depends
+ * on the page size and not on the size of the index.
+ * <p>
+ * The number of values added by each of the last {@value #RECENT_COMMITS} commits is kept, so that
+ * the size of the index as of a snapshot taken since then is known without a walk.
+ */
+class SortedIndex<V extends Versioned> {
+
+    private static final int RECENT_COMMITS = 1024;
+
+    private final ConcurrentSkipListMap<String, V> entries = new ConcurrentSkipListMap<>();
+    // ConcurrentSkipListMap.size() walks the whole map
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong latestVersion = new AtomicLong();
+    // Values added by recent versions, up to foldedVersion they are only in added. Guarded by addedByVersion
+    private final TreeMap<Long, Integer> addedByVersion = new TreeMap<>();
+    private int added;
+    private long foldedVersion;
+
+    void add(String key, V value) {
+        if (entries.putIfAbsent(key, value) == null) {
+            synchronized (addedByVersion) {
+                addedByVersion.merge(value.getVersion(), 1, Integer::sum);
+                added++;
+                if (addedByVersion.size() > RECENT_COMMITS) {
+                    foldedVersion = Math.max(foldedVersion, addedByVersion.pollFirstEntry().getKey());
+                }
+            }
+            size.incrementAndGet();
+            latestVersion.accumulateAndGet(value.getVersion(), Math::max);
+        }
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * @param from   inclusive lower bound of the key range, or {@code null}
+     * @param to     exclusive upper bound of the key range, or {@code null}
+     * @param after  cursor of the last item of the previous page, or {@code null}
+     * @param filter extra condition on values that the index cannot answer, or {@code null}
+     * @param maxVersion only values committed at or before this version are visible, or {@link Long#MAX_VALUE}
+     *                   for every value
+     */
+    Page<V> page(String from, String to, String after, int first, Predicate<V> filter, long maxVersion) {
+        boolean hidesLater = latestVersion.get() > maxVersion;
+        Predicate<V> matches = !hidesLater ? filter : filter == null ? visibleAt(maxVersion) : filter.and(visibleAt(maxVersion));
+
+        NavigableMap<String, V> range = range(from, to);
+        NavigableMap<String, V> tail = after == null ? range : range.tailMap(decodeCursor(after), false);
+
+        List<V> items = new ArrayList<>(first);
+        List<String> cursors = new ArrayList<>(first);
+        boolean hasNextPage = false;
+        for (Map.Entry<String, V> entry : tail.entrySet()) {
+            if (matches != null && !matches.test(entry.getValue())) {
+                continue;
+            }
+            if (items.size() == first) {
+                hasNextPage = true;
+                break;
+            }
+            items.add(entry.getValue());
+            cursors.add(encodeCursor(entry.getKey()));
+        }
+
+        // The total is counted when asked for, by which time more values may have been added
+        if (maxVersion == Long.MAX_VALUE) {
+            return new Page<>(items, cursors, after != null, hasNextPage,
+                    from == null && to == null && filter == null ? size::get : () -> count(range, filter));
+        }
+        if (from == null && to == null && filter == null) {
+            return new Page<>(items, cursors, after != null, hasNextPage, () -> sizeAt(maxVersion));
+        }
+        Predicate<V> counted = filter == null ? visibleAt(maxVersion) : filter.and(visibleAt(maxVersion));
+        return new Page<>(items, cursors, after != null, hasNextPage, () -> count(range, counted));
+    }
+
+    // Every commit at or before maxVersion is complete, so its additions are all counted; those of
+    // later commits cancel out whether they are counted yet or not
+    private int sizeAt(long maxVersion) {
+        synchronized (addedByVersion) {
+            if (maxVersion >= foldedVersion) {
+                int visible = added;
+                for (int count : addedByVersion.tailMap(maxVersion, false).values()) {
+                    visible -= count;
+                }
+                return visible;
+            }
+        }
+        return count(entries, visibleAt(maxVersion));
+    }
+
+    private static <V extends Versioned> Predicate<V> visibleAt(long maxVersion) {
+        return value -> value.getVersion() <= maxVersion;
+    }
+
+    private NavigableMap<String, V> range(String from, String to) {
+        if (from != null && to != null) {
+            return entries.subMap(from, true, to, false);
+        } else if (from != null) {
+            return entries.tailMap(from, true);
+        } else if (to != null) {
+            return entries.headMap(to, false);
+        }
+        return entries;
+    }
+
+    private static <V> int count(NavigableMap<String, V> range, Predicate<V> filter) {
+        int count = 0;
+        for (V value : range.values()) {
+            if (filter == null || filter.test(value)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static String encodeCursor(String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String decodeCursor(String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+}
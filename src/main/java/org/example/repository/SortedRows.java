@@ -0,0 +1,145 @@
+package org.example.repository;
+
+import java.util.Arrays;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntPredicate;
+
+/**
+ * Row numbers of one table in sort key order, for paging without boxing every row into an index entry.
+ * <p>
+ * Rows sorted so far are kept in one array. Rows appended since are sorted on the fly by the reader
+ * and merged in, until there are enough of them to be worth folding into a new sorted array.
+ */
+class SortedRows {
+
+    private static final int MIN_MERGE_ROWS = 1024;
+
+    private final IntBinaryOperator comparator;
+    private volatile int[] sorted = new int[0];
+
+    SortedRows(IntBinaryOperator comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * Visits the rows below {@code limit} in order, skipping the leading rows for which {@code before}
+     * holds, until {@code visitor} returns {@code false}. {@code before} must hold for a prefix of the
+     * order, or be {@code null} to start at the first row.
+     */
+    void forEach(int limit, IntPredicate before, IntPredicate visitor) {
+        int[] run = sorted;
+        if (limit - run.length > Math.max(MIN_MERGE_ROWS, run.length >> 4)) {
+            run = fold(limit);
+        }
+        int[] tail = new int[Math.max(0, limit - run.length)];
+        for (int i = 0; i < tail.length; i++) {
+            tail[i] = run.length + i;
+        }
+        sort(tail, comparator);
+
+        int i = before == null ? 0 : skip(run, run.length, before);
+        int j = before == null ? 0 : skip(tail, tail.length, before);
+        while (i < run.length || j < tail.length) {
+            int row;
+            if (j == tail.length || (i < run.length && comparator.applyAsInt(run[i], tail[j]) <= 0)) {
+                row = run[i++];
+                // A run folded after this reader's limit holds rows it must not see
+                if (row >= limit) {
+                    continue;
+                }
+            } else {
+                row = tail[j++];
+            }
+            if (!visitor.test(row)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Merges the rows appended since the last fold into the sorted array.
+     */
+    private synchronized int[] fold(int limit) {
+        int[] run = sorted;
+        if (run.length >= limit) {
+            return run;
+        }
+        int[] tail = new int[limit - run.length];
+        for (int i = 0; i < tail.length; i++) {
+            tail[i] = run.length + i;
+        }
+        sort(tail, comparator);
+
+        int[] merged = new int[limit];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < run.length && j < tail.length) {
+            merged[k++] = comparator.applyAsInt(run[i], tail[j]) <= 0 ? run[i++] : tail[j++];
+        }
+        while (i < run.length) {
+            merged[k++] = run[i++];
+        }
+        while (j < tail.length) {
+            merged[k++] = tail[j++];
+        }
+        sorted = merged;
+        return merged;
+    }
+
+    /**
+     * @return the index of the first of the first {@code length} rows for which {@code before} does not hold
+     */
+    static int skip(int[] rows, int length, IntPredicate before) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (before.test(rows[middle])) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Stable merge sort of row numbers by a comparator, without boxing them.
+     */
+    static void sort(int[] rows, IntBinaryOperator comparator) {
+        if (rows.length < 2) {
+            return;
+        }
+        int[] buffer = Arrays.copyOf(rows, rows.length);
+        mergeSort(buffer, rows, 0, rows.length, comparator);
+    }
+
+    private static void mergeSort(int[] source, int[] target, int from, int to, IntBinaryOperator comparator) {
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; i++) {
+                int row = target[i];
+                int j = i - 1;
+                while (j >= from && comparator.applyAsInt(target[j], row) > 0) {
+                    target[j + 1] = target[j];
+                    j--;
+                }
+                target[j + 1] = row;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        // Sort both halves of target into source, then merge them back into target
+        mergeSort(target, source, from, middle, comparator);
+        mergeSort(target, source, middle, to, comparator);
+        int i = from;
+        int j = middle;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < middle && comparator.applyAsInt(source[i], source[j]) <= 0)) {
+                target[k] = source[i++];
+            } else {
+                target[k] = source[j++];
+            }
+        }
+    }
+}
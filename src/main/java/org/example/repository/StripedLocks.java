@@ -0,0 +1,42 @@
+package org.example.repository;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * A fixed set of locks shared by entity keys. Locks for several keys are always taken in stripe order,
+ * so writers touching overlapping entities cannot deadlock.
+ */
+public class StripedLocks {
+
+    private final ReentrantLock[] locks;
+
+    public StripedLocks(int stripes) {
+        locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public <T> T withLocks(Supplier<T> action, String... keys) {
+        int[] stripes = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            stripes[i] = Math.floorMod(keys[i].hashCode(), locks.length);
+        }
+        stripes = Arrays.stream(stripes).sorted().distinct().toArray();
+
+        int locked = 0;
+        try {
+            for (int stripe : stripes) {
+                locks[stripe].lock();
+                locked++;
+            }
+            return action.get();
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                locks[stripes[i]].unlock();
+            }
+        }
+    }
+}
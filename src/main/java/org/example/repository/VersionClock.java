@@ -0,0 +1,27 @@
+package org.example.repository;
+
+import java.util.TreeSet;
+
+/**
+ * Hands out commit versions and tracks which of them are still being applied. The read version is the
+ * highest version below which every commit has completed, so a reader never sees half of a write.
+ */
+class VersionClock {
+
+    private final TreeSet<Long> inFlight = new TreeSet<>();
+    private long latest;
+
+    synchronized long begin() {
+        latest++;
+        inFlight.add(latest);
+        return latest;
+    }
+
+    synchronized void complete(long version) {
+        inFlight.remove(version);
+    }
+
+    synchronized long readVersion() {
+        return inFlight.isEmpty() ? latest : inFlight.first() - 1;
+    }
+}
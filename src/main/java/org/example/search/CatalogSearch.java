@@ -0,0 +1,112 @@
+package org.example.search;
+
+import org.example.models.Beer;
+import org.example.models.Review;
+import org.example.repository.CatalogRepository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Full-text search over beers, by name and style, and reviews, by text. The indexes only hold ids, so
+ * matches are resolved through the store view of the execution, which drops anything it cannot see yet.
+ */
+public class CatalogSearch {
+
+    public static final String BEER = "BEER";
+    public static final String REVIEW = "REVIEW";
+
+    private final SearchIndex beers;
+    private final SearchIndex reviews;
+
+    private CatalogSearch(SearchIndex beers, SearchIndex reviews) {
+        this.beers = beers;
+        this.reviews = reviews;
+    }
+
+    /**
+     * Indexes every beer and review of the store, both indexes at the same time.
+     */
+    public static CatalogSearch build(CatalogRepository store) {
+        CompletableFuture<SearchIndex> beers = CompletableFuture.supplyAsync(
+                () -> SearchIndex.build(store.findAllBeers(), Beer::getId, Beer::getName, Beer::getStyle));
+        SearchIndex reviews = SearchIndex.build(store.findAllReviews(), Review::getId, review -> null, Review::getText);
+        return new CatalogSearch(beers.join(), reviews);
+    }
+
+    public void add(Beer beer) {
+        beers.add(beer.getId(), beer.getName(), beer.getStyle());
+    }
+
+    public void add(Review review) {
+        reviews.add(review.getId(), null, review.getText());
+    }
+
+    public void addBeers(Collection<Beer> added) {
+        added.forEach(this::add);
+    }
+
+    public void addReviews(Collection<Review> added) {
+        added.forEach(this::add);
+    }
+
+    /**
+     * Returns up to {@code first} beers and reviews matching the term, best first.
+     *
+     * @param types {@link #BEER} and/or {@link #REVIEW}
+     */
+    public List<Object> search(CatalogRepository view, String term, Collection<String> types, int first) {
+        return scoredSearch(view, term, types, first).stream().map(Scored::item).toList();
+    }
+
+    /**
+     * Like {@link #search}, with the score of every beer and review.
+     */
+    public List<Scored> scoredSearch(CatalogRepository view, String term, Collection<String> types, int first) {
+        List<Match> matches = new ArrayList<>();
+        if (types.contains(BEER)) {
+            beers.search(term, first).forEach(hit -> matches.add(new Match(hit, true)));
+        }
+        if (types.contains(REVIEW)) {
+            reviews.search(term, first).forEach(hit -> matches.add(new Match(hit, false)));
+        }
+        matches.sort(Comparator.comparingDouble((Match match) -> match.hit().score()).reversed());
+
+        Set<String> beerIds = new HashSet<>();
+        Set<String> reviewIds = new HashSet<>();
+        for (Match match : matches) {
+            (match.beer() ? beerIds : reviewIds).add(match.hit().id());
+        }
+        Map<String, Beer> foundBeers = beerIds.isEmpty() ? Map.of() : view.findBeers(beerIds);
+        Map<String, Review> foundReviews = reviewIds.isEmpty() ? Map.of() : view.findReviews(reviewIds);
+
+        List<Scored> results = new ArrayList<>(Math.min(first, matches.size()));
+        for (Match match : matches) {
+            Object result = match.beer() ? foundBeers.get(match.hit().id()) : foundReviews.get(match.hit().id());
+            if (result != null && results.size() < first) {
+                results.add(new Scored(result, match.hit().score()));
+            }
+        }
+        return results;
+    }
+
+    public Map<String, Map<String, Long>> getStats() {
+        Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+        stats.put("beers", beers.getStats());
+        stats.put("reviews", reviews.getStats());
+        return stats;
+    }
+
+    public record Scored(Object item, double score) {
+    }
+
+    private record Match(SearchIndex.Hit hit, boolean beer) {
+    }
+}
@@ -0,0 +1,487 @@
+package org.example.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Inverted index of short documents, each made of an optional title and a body, ranked with BM25.
+ * <p>
+ * Text is split into lowercase runs of letters and digits; title words count twice. A query matches
+ * documents that contain all of its words, the last one as a prefix. Instead of a term frequency every
+ * posting stores its BM25 weight quantized into one of {@value #LEVELS} levels, and the postings of a
+ * term are kept in one list per level, in insertion order. A query visits combinations of one level per
+ * word from the best score down, newest documents first, and stops as soon as nothing left can beat the
+ * results it has, so common words do not cost a scan of their whole posting list. A query whose words
+ * rarely occur together gives up after looking at {@value #MAX_WORK} documents and returns the best it
+ * has found.
+ * <p>
+ * Documents are only ever added. Writers are serialized; readers do not lock and see a consistent prefix
+ * of every posting list.
+ */
+public class SearchIndex {
+
+    private static final int LEVELS = 8;
+    private static final int TITLE_WEIGHT = 2;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // A prefix matches at most this many terms, the most frequent of the first MAX_PREFIX_SCAN in order
+    private static final int MAX_EXPANSIONS = 16;
+    private static final int MAX_PREFIX_SCAN = 1024;
+    private static final int MIN_CHUNK_SIZE = 4096;
+    // A search gives up after looking at this many documents and returns the best it has found
+    private static final int MAX_WORK = 1 << 18;
+    // Combinations of levels are keyed by 8 bits per word
+    private static final int MAX_WORDS = 8;
+    // Terms in at least one of this many documents also keep a level per document, for fast lookups
+    private static final int DENSE_RATIO = 16;
+    private static final int MIN_DENSE_DOCUMENTS = 1024;
+
+    private final ConcurrentSkipListMap<String, Postings> terms = new ConcurrentSkipListMap<>();
+    private volatile String[] ids;
+    private volatile int size;
+
+    // Guarded by this
+    private long totalLength;
+
+    private SearchIndex(String[] ids) {
+        this.ids = ids;
+    }
+
+    public static SearchIndex empty() {
+        return new SearchIndex(new String[16]);
+    }
+
+    /**
+     * Indexes all items at once, in parallel: every worker indexes a contiguous range of them and the
+     * ranges are appended in order, which keeps every posting list sorted.
+     */
+    public static <T> SearchIndex build(Collection<T> items, Function<T, String> id, Function<T, String> title, Function<T, String> body) {
+        List<T> list = items instanceof List<T> random && items instanceof RandomAccess ? random : new ArrayList<>(items);
+        int n = list.size();
+        SearchIndex index = new SearchIndex(new String[Math.max(16, n)]);
+
+        // Document lengths are normalized by the average, so it has to be known before the first posting
+        long totalLength = IntStream.range(0, n).parallel()
+                .mapToLong(i -> length(title.apply(list.get(i)), body.apply(list.get(i))))
+                .sum();
+        double averageLength = n == 0 ? 1 : Math.max(1.0, (double) totalLength / n);
+
+        int chunks = Math.max(1, Math.min(n / MIN_CHUNK_SIZE, Runtime.getRuntime().availableProcessors() * 4));
+        List<Map<String, IntList[]>> partial = IntStream.range(0, chunks).parallel()
+                .mapToObj(chunk -> {
+                    Map<String, IntList[]> postings = new HashMap<>();
+                    for (int i = (int) ((long) n * chunk / chunks), end = (int) ((long) n * (chunk + 1) / chunks); i < end; i++) {
+                        T item = list.get(i);
+                        index.ids[i] = id.apply(item);
+                        Map<String, Integer> frequencies = frequencies(title.apply(item), body.apply(item));
+                        int length = frequencies.values().stream().mapToInt(Integer::intValue).sum();
+                        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                            IntList[] levels = postings.computeIfAbsent(entry.getKey(), ignored -> new IntList[LEVELS]);
+                            int level = level(entry.getValue(), length, averageLength);
+                            if (levels[level] == null) {
+                                levels[level] = new IntList();
+                            }
+                            levels[level].add(i);
+                        }
+                    }
+                    return postings;
+                })
+                .toList();
+
+        synchronized (index) {
+            for (Map<String, IntList[]> postings : partial) {
+                for (Map.Entry<String, IntList[]> entry : postings.entrySet()) {
+                    Postings merged = index.terms.computeIfAbsent(entry.getKey(), ignored -> new Postings());
+                    for (int level = 0; level < LEVELS; level++) {
+                        if (entry.getValue()[level] != null) {
+                            merged.addAll(level, entry.getValue()[level]);
+                        }
+                    }
+                }
+            }
+            for (Postings postings : index.terms.values()) {
+                if (isDense(postings, n)) {
+                    postings.densify(index.ids.length);
+                }
+            }
+            index.totalLength = totalLength;
+            index.size = n;
+        }
+        return index;
+    }
+
+    public synchronized void add(String id, String title, String body) {
+        int document = size;
+        if (document == ids.length) {
+            ids = Arrays.copyOf(ids, document * 2);
+        }
+        ids[document] = id;
+
+        Map<String, Integer> frequencies = frequencies(title, body);
+        int length = frequencies.values().stream().mapToInt(Integer::intValue).sum();
+        totalLength += length;
+        double averageLength = Math.max(1.0, (double) totalLength / (document + 1));
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            Postings postings = terms.computeIfAbsent(entry.getKey(), ignored -> new Postings());
+            postings.add(level(entry.getValue(), length, averageLength), document);
+            if (postings.dense == null && isDense(postings, document + 1)) {
+                postings.densify(ids.length);
+            }
+        }
+        size = document + 1;
+    }
+
+    private static boolean isDense(Postings postings, int documents) {
+        return documents >= MIN_DENSE_DOCUMENTS && (long) postings.frequency() * DENSE_RATIO >= documents;
+    }
+
+    /**
+     * Returns up to {@code first} matches of the query, best first; equal scores go to the newest document.
+     */
+    public List<Hit> search(String query, int first) {
+        List<String> words = tokenize(query);
+        if (words.isEmpty() || first <= 0) {
+            return List.of();
+        }
+        if (words.size() > MAX_WORDS) {
+            words = words.subList(words.size() - MAX_WORDS, words.size());
+        }
+        int documents = size;
+
+        List<Clause> clauses = new ArrayList<>(words.size());
+        for (int i = 0; i < words.size() - 1; i++) {
+            Postings postings = terms.get(words.get(i));
+            if (postings == null) {
+                return List.of();
+            }
+            clauses.add(new Clause(new Postings[]{postings}, documents));
+        }
+        Postings[] expansions = expand(words.get(words.size() - 1));
+        if (expansions.length == 0) {
+            return List.of();
+        }
+        clauses.add(new Clause(expansions, documents));
+
+        // Every matching document has one level per clause, and all documents with the same levels
+        // score the same. Combinations of levels are visited best first, each one by walking its
+        // shortest list newest first and looking the document up in the others, until the next
+        // combination cannot beat the results found so far
+        PriorityQueue<Hit> best = new PriorityQueue<>(first + 1, Hit.ORDER);
+        // With several terms for a clause, a document is in several combinations; the first one is its best
+        boolean multiTerm = clauses.stream().anyMatch(clause -> clause.postings.length > 1);
+        Set<Integer> seen = multiTerm ? new HashSet<>() : null;
+        PriorityQueue<Combination> combinations = new PriorityQueue<>(Comparator.comparingDouble(Combination::score).reversed());
+        Set<Long> queued = new HashSet<>();
+        combinations.add(combination(clauses, new int[clauses.size()]));
+        queued.add(0L);
+        int work = 0;
+        while (!combinations.isEmpty() && work < MAX_WORK) {
+            Combination combination = combinations.poll();
+            if (best.size() == first && best.peek().score() >= combination.score()) {
+                break;
+            }
+            work += scan(combination, clauses, best, first, seen);
+            for (int i = 0; i < clauses.size(); i++) {
+                if (combination.positions()[i] + 1 < clauses.get(i).cursors.size()) {
+                    int[] positions = combination.positions().clone();
+                    positions[i]++;
+                    if (queued.add(key(positions))) {
+                        combinations.add(combination(clauses, positions));
+                    }
+                }
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(best);
+        hits.sort(Hit.ORDER.reversed());
+        return hits;
+    }
+
+    private static Combination combination(List<Clause> clauses, int[] positions) {
+        double score = 0;
+        for (int i = 0; i < positions.length; i++) {
+            score += clauses.get(i).cursors.get(positions[i]).score();
+        }
+        return new Combination(positions, score);
+    }
+
+    private static long key(int[] positions) {
+        long key = 0;
+        for (int position : positions) {
+            key = key << 8 | position;
+        }
+        return key;
+    }
+
+    /**
+     * Adds the documents in all lists of the combination to the results, and returns how many
+     * documents it looked at.
+     */
+    private int scan(Combination combination, List<Clause> clauses, PriorityQueue<Hit> best, int first, Set<Integer> seen) {
+        int shortest = 0;
+        for (int i = 1; i < clauses.size(); i++) {
+            if (cursor(clauses, combination, i).list().size() < cursor(clauses, combination, shortest).list().size()) {
+                shortest = i;
+            }
+        }
+        IntList driver = cursor(clauses, combination, shortest).list();
+        // The size is read first, so the array holds at least that many published values
+        int count = driver.size();
+        int[] documents = driver.elements;
+        int scanned = 0;
+        candidates:
+        for (int i = count - 1; i >= 0; i--) {
+            if (best.size() == first && best.peek().score() >= combination.score()) {
+                // Everything left here ties with the results at best, and is older
+                break;
+            }
+            int document = documents[i];
+            scanned++;
+            for (int clause = 0; clause < clauses.size(); clause++) {
+                if (clause != shortest && !clauses.get(clause).contains(cursor(clauses, combination, clause), document)) {
+                    continue candidates;
+                }
+            }
+            if (seen != null && !seen.add(document)) {
+                continue;
+            }
+            best.add(new Hit(ids[document], document, combination.score()));
+            if (best.size() > first) {
+                best.poll();
+            }
+        }
+        return scanned;
+    }
+
+    private static Cursor cursor(List<Clause> clauses, Combination combination, int clause) {
+        return clauses.get(clause).cursors.get(combination.positions()[clause]);
+    }
+
+    private Postings[] expand(String prefix) {
+        List<Postings> matches = new ArrayList<>();
+        for (Postings postings : terms.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+            matches.add(postings);
+            if (matches.size() == MAX_PREFIX_SCAN) {
+                break;
+            }
+        }
+        if (matches.size() > MAX_EXPANSIONS) {
+            matches.sort(Comparator.comparingInt(Postings::frequency).reversed());
+            matches = matches.subList(0, MAX_EXPANSIONS);
+        }
+        return matches.toArray(new Postings[0]);
+    }
+
+    public Map<String, Long> getStats() {
+        long postings = 0;
+        for (Postings term : terms.values()) {
+            postings += term.frequency();
+        }
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("documents", (long) size);
+        stats.put("terms", (long) terms.size());
+        stats.put("postings", postings);
+        return stats;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    private static long length(String title, String body) {
+        return (long) tokenize(title).size() * TITLE_WEIGHT + tokenize(body).size();
+    }
+
+    private static Map<String, Integer> frequencies(String title, String body) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String word : tokenize(title)) {
+            frequencies.merge(word, TITLE_WEIGHT, Integer::sum);
+        }
+        for (String word : tokenize(body)) {
+            frequencies.merge(word, 1, Integer::sum);
+        }
+        return frequencies;
+    }
+
+    /**
+     * The BM25 term frequency component, which lies between 0 and {@code K1 + 1}, in one of the levels.
+     */
+    private static int level(int frequency, int length, double averageLength) {
+        double weight = frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / averageLength));
+        return Math.min(LEVELS - 1, (int) (weight / (K1 + 1) * LEVELS));
+    }
+
+    private static double weight(int level) {
+        return (level + 1) * (K1 + 1) / LEVELS;
+    }
+
+    private static double idf(long frequency, int documents) {
+        return Math.log(1 + (documents - frequency + 0.5) / (frequency + 0.5));
+    }
+
+    public record Hit(String id, int document, double score) {
+        static final Comparator<Hit> ORDER = Comparator.comparingDouble(Hit::score).thenComparingInt(Hit::document);
+    }
+
+    private record Cursor(int term, int level, IntList list, double score) {
+    }
+
+    private record Combination(int[] positions, double score) {
+    }
+
+    /**
+     * One query word: the terms it matches, any of which will do, with the levels of all of them in
+     * descending order of score.
+     */
+    private static final class Clause {
+        final Postings[] postings;
+        final List<Cursor> cursors = new ArrayList<>();
+
+        Clause(Postings[] postings, int documents) {
+            this.postings = postings;
+            for (int term = 0; term < postings.length; term++) {
+                double idf = idf(postings[term].frequency(), documents);
+                for (int level = postings[term].maxLevel(); level >= 0; level--) {
+                    IntList list = postings[term].levels[level];
+                    if (list != null && list.size() > 0) {
+                        cursors.add(new Cursor(term, level, list, idf * weight(level)));
+                    }
+                }
+            }
+            cursors.sort(Comparator.comparingDouble(Cursor::score).reversed());
+        }
+
+        boolean contains(Cursor cursor, int document) {
+            byte[] levelByDocument = postings[cursor.term()].dense;
+            if (levelByDocument != null) {
+                return document < levelByDocument.length && levelByDocument[document] == cursor.level() + 1;
+            }
+            return cursor.list().contains(document);
+        }
+    }
+
+    private static final class Postings {
+        // A level created by a writer is published by the volatile write of frequency that follows
+        final IntList[] levels = new IntList[LEVELS];
+        volatile int frequency;
+        volatile int maxLevel;
+        // For frequent terms, level + 1 of every document, 0 for documents without the term
+        volatile byte[] dense;
+
+        // Writes are serialized by the index
+
+        void add(int level, int document) {
+            byte[] levelByDocument = dense;
+            if (levelByDocument != null) {
+                if (document >= levelByDocument.length) {
+                    levelByDocument = Arrays.copyOf(levelByDocument, Math.max(document + 1, levelByDocument.length * 2));
+                }
+                levelByDocument[document] = (byte) (level + 1);
+                dense = levelByDocument;
+            }
+            list(level).add(document);
+            maxLevel = Math.max(maxLevel, level);
+            frequency++;
+        }
+
+        void addAll(int level, IntList documents) {
+            list(level).addAll(documents);
+            maxLevel = Math.max(maxLevel, level);
+            frequency += documents.size();
+        }
+
+        private IntList list(int level) {
+            IntList list = levels[level];
+            if (list == null) {
+                list = new IntList();
+                levels[level] = list;
+            }
+            return list;
+        }
+
+        void densify(int capacity) {
+            byte[] levelByDocument = new byte[capacity];
+            for (int level = 0; level < LEVELS; level++) {
+                IntList list = levels[level];
+                if (list != null) {
+                    for (int i = 0; i < list.size(); i++) {
+                        levelByDocument[list.elements[i]] = (byte) (level + 1);
+                    }
+                }
+            }
+            dense = levelByDocument;
+        }
+
+        int frequency() {
+            return frequency;
+        }
+
+        int maxLevel() {
+            return maxLevel;
+        }
+    }
+
+    /**
+     * Growable int array that publishes appended values through its volatile size.
+     */
+    private static final class IntList {
+        volatile int[] elements = new int[4];
+        private volatile int size;
+
+        void add(int value) {
+            int n = size;
+            if (n == elements.length) {
+                elements = Arrays.copyOf(elements, n * 2);
+            }
+            elements[n] = value;
+            size = n + 1;
+        }
+
+        void addAll(IntList values) {
+            int n = size;
+            int added = values.size;
+            if (n + added > elements.length) {
+                elements = Arrays.copyOf(elements, Math.max(n + added, n * 2));
+            }
+            System.arraycopy(values.elements, 0, elements, n, added);
+            size = n + added;
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean contains(int value) {
+            int n = size;
+            return Arrays.binarySearch(elements, 0, n, value) >= 0;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package org.example.server;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.preparsed.persisted.PersistedQuerySupport;
+import org.example.execution.ResponseCache;
+import org.example.utils.JsonUtils;
+import org.example.utils.ResultWriter;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Serves GraphQL over HTTP with the JDK's built-in server. Every exchange runs on its own virtual
+ * thread. A POST body is either a single operation or a JSON array of operations, which are executed
+ * concurrently and answered with an array of results in the same order. A batch is only executed once
+ * every operation in it is well-formed, so a bad one never leaves the others half run. The body size
+ * and the number of operations in a batch are capped.
+ * <p>
+ * A single subscription is answered with a stream of server-sent events, one {@code next} event per
+ * result and a {@code complete} event at the end, as in the distinct connections mode of GraphQL over SSE.
+ * <p>
+ * A single operation is looked up in the {@link ResponseCache} when it is enabled; only query results
+ * are stored in it.
+ */
+public class GraphQLHttpServer {
+
+    public static final String PATH = "/graphql";
+
+    private static final long HEARTBEAT_PERIOD_SECONDS = 15;
+    // Room for a bulk mutation of the largest allowed size passed as variables
+    private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Supplier<GraphQL> graphQL;
+    private final UnaryOperator<ExecutionInput> inputPreparer;
+    private final ResponseCache responseCache;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    // Writing to an idle event stream is the only way to notice that its client went away
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory());
+
+    /**
+     * @param inputPreparer attaches the per-execution state (context, data loaders) to each operation
+     */
+    public GraphQLHttpServer(GraphQL graphQL, UnaryOperator<ExecutionInput> inputPreparer, ResponseCache responseCache, int port) {
+        this(() -> graphQL, inputPreparer, responseCache, port);
+    }
+
+    /**
+     * @param graphQL supplies the instance each operation executes on, so that it can be replaced while serving
+     * @param inputPreparer attaches the per-execution state (context, data loaders) to each operation
+     */
+    public GraphQLHttpServer(Supplier<GraphQL> graphQL, UnaryOperator<ExecutionInput> inputPreparer, ResponseCache responseCache, int port) {
+        this.graphQL = graphQL;
+        this.inputPreparer = inputPreparer;
+        this.responseCache = responseCache;
+        try {
+            this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to bind HTTP server to port " + port, e);
+        }
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("GraphQL endpoint listening on http://localhost:" + server.getAddress().getPort() + PATH);
+    }
+
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        heartbeats.shutdown();
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendError(exchange, 405, "Only POST is supported");
+                return;
+            }
+
+            byte[] bytes;
+            try (InputStream requestBody = exchange.getRequestBody()) {
+                // One byte more than allowed tells a body at the limit from one over it
+                bytes = requestBody.readNBytes(MAX_BODY_BYTES + 1);
+            }
+            if (bytes.length > MAX_BODY_BYTES) {
+                sendError(exchange, 413, "Request body exceeds " + MAX_BODY_BYTES + " bytes");
+                return;
+            }
+            JsonNode body;
+            try {
+                body = JsonUtils.readTree(new ByteArrayInputStream(bytes));
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+
+            try {
+                if (body.isArray()) {
+                    if (body.size() > MAX_BATCH_SIZE) {
+                        sendError(exchange, 413, "A batch holds at most " + MAX_BATCH_SIZE + " operations");
+                        return;
+                    }
+                    List<ExecutionResult> results = executeBatch(body);
+                    sendResults(exchange, results);
+                    return;
+                } else {
+                    ExecutionInput input = inputPreparer.apply(toExecutionInput(body));
+                    String cacheKey = responseCache.keyOf(input);
+                    if (cacheKey != null) {
+                        sendCached(exchange, cacheKey, input);
+                        return;
+                    }
+                    ExecutionResult result = graphQL.get().executeAsync(input).join();
+                    if (result.getData() instanceof Publisher<?>) {
+                        stream(exchange, result.getData());
+                        return;
+                    }
+                    sendResult(exchange, result);
+                }
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+            }
+        }
+    }
+
+    private List<ExecutionResult> executeBatch(JsonNode operations) {
+        // All converted first: a malformed operation fails the request before any other one runs
+        List<ExecutionInput> inputs = new ArrayList<>(operations.size());
+        for (JsonNode operation : operations) {
+            inputs.add(inputPreparer.apply(toExecutionInput(operation)));
+        }
+        GraphQL instance = graphQL.get();
+        List<CompletableFuture<ExecutionResult>> results = new ArrayList<>(inputs.size());
+        for (ExecutionInput input : inputs) {
+            results.add(instance.executeAsync(input));
+        }
+        List<ExecutionResult> response = new ArrayList<>(results.size());
+        for (CompletableFuture<ExecutionResult> result : results) {
+            ExecutionResult executionResult = result.join();
+            if (executionResult.getData() instanceof Publisher<?> events) {
+                // Nothing would ever read the events, so do not leave the subscription open
+                events.subscribe(new CancellingSubscriber());
+                response.add(ExecutionResult.newExecutionResult()
+                        .addError(GraphqlErrorBuilder.newError().message("Subscriptions cannot be batched").build())
+                        .build());
+            } else {
+                response.add(executionResult);
+            }
+        }
+        return response;
+    }
+
+    private void sendCached(HttpExchange exchange, String cacheKey, ExecutionInput input) throws IOException {
+        byte[] response = responseCache.get(cacheKey);
+        if (response == null) {
+            long generation = responseCache.track(input);
+            ExecutionResult result = graphQL.get().executeAsync(input).join();
+            // Only known to be a subscription now if just the hash of a persisted query was sent
+            if (result.getData() instanceof Publisher<?>) {
+                stream(exchange, result.getData());
+                return;
+            }
+            response = responseCache.put(cacheKey, input, result, generation);
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(response);
+        }
+    }
+
+    private static ExecutionInput toExecutionInput(JsonNode operation) {
+        if (!operation.isObject()) {
+            throw new IllegalArgumentException("Each operation must be a JSON object");
+        }
+        Map<String, Object> extensions = objectField(operation, "extensions");
+        String query = operation.path("query").asText(null);
+        if (query == null) {
+            if (!extensions.containsKey("persistedQuery")) {
+                throw new IllegalArgumentException("Missing query");
+            }
+            query = PersistedQuerySupport.PERSISTED_QUERY_MARKER;
+        }
+        return ExecutionInput.newExecutionInput()
+                .query(query)
+                .operationName(operation.path("operationName").asText(null))
+                .variables(objectField(operation, "variables"))
+                .extensions(extensions)
+                .build();
+    }
+
+    private static Map<String, Object> objectField(JsonNode operation, String field) {
+        JsonNode value = operation.get(field);
+        if (value == null || value.isNull()) {
+            return Map.of();
+        }
+        if (!value.isObject()) {
+            throw new IllegalArgumentException("'" + field + "' must be a JSON object");
+        }
+        return JsonUtils.convertValue(value, new TypeReference<>() {});
+    }
+
+    /**
+     * Writes the events of a subscription until it completes or the client goes away, requesting one
+     * event at a time so that a slow client only fills its own buffer on the publishing side.
+     */
+    private void stream(HttpExchange exchange, Publisher<ExecutionResult> events) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream responseBody = exchange.getResponseBody();
+        CompletableFuture<Void> finished = new CompletableFuture<>();
+        AtomicReference<Subscription> subscription = new AtomicReference<>();
+
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(() -> {
+            if (!write(responseBody, HEARTBEAT)) {
+                finish(subscription.get(), finished);
+            }
+        }, HEARTBEAT_PERIOD_SECONDS, HEARTBEAT_PERIOD_SECONDS, TimeUnit.SECONDS);
+
+        events.subscribe(new Subscriber<>() {
+            @Override
+            public void onSubscribe(Subscription handle) {
+                subscription.set(handle);
+                handle.request(1);
+            }
+
+            @Override
+            public void onNext(ExecutionResult event) {
+                if (write(responseBody, serverSentEvent("next", ResultWriter.toBytes(event)))) {
+                    subscription.get().request(1);
+                } else {
+                    finish(subscription.get(), finished);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                Map<String, Object> error = Map.of("errors", List.of(Map.of("message", String.valueOf(throwable.getMessage()))));
+                write(responseBody, serverSentEvent("next", JsonUtils.serializeToCompactJsonBytes(error)));
+                finished.complete(null);
+            }
+
+            @Override
+            public void onComplete() {
+                write(responseBody, serverSentEvent("complete", new byte[0]));
+                finished.complete(null);
+            }
+        });
+
+        try {
+            finished.join();
+        } finally {
+            heartbeat.cancel(false);
+        }
+    }
+
+    private static void finish(Subscription subscription, CompletableFuture<Void> finished) {
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        finished.complete(null);
+    }
+
+    private static byte[] serverSentEvent(String event, byte[] data) {
+        byte[] header = ("event: " + event + "\ndata: ").getBytes(StandardCharsets.UTF_8);
+        byte[] message = Arrays.copyOf(header, header.length + data.length + 2);
+        System.arraycopy(data, 0, message, header.length, data.length);
+        message[message.length - 2] = '\n';
+        message[message.length - 1] = '\n';
+        return message;
+    }
+
+    /**
+     * @return {@code false} if the client is gone
+     */
+    private static boolean write(OutputStream responseBody, byte[] bytes) {
+        // Heartbeats and events come from different threads
+        synchronized (responseBody) {
+            try {
+                responseBody.write(bytes);
+                responseBody.flush();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    private static class CancellingSubscriber implements Subscriber<Object> {
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            subscription.cancel();
+        }
+
+        @Override
+        public void onNext(Object item) {
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, Map.of("errors", List.of(Map.of("message", message))));
+    }
+
+    private static void sendResult(HttpExchange exchange, ExecutionResult result) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            ResultWriter.write(responseBody, result);
+        }
+    }
+
+    private static void sendResults(HttpExchange exchange, List<ExecutionResult> results) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            ResultWriter.writeAll(responseBody, results);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, Object response) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        // Length 0 means chunked, so the body is streamed as it is serialized
+        exchange.sendResponseHeaders(status, 0);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            JsonUtils.writeCompactJson(responseBody, response);
+        }
+    }
+}
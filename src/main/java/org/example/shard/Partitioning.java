@@ -0,0 +1,34 @@
+package org.example.shard;
+
+import org.example.models.Beer;
+import org.example.models.Review;
+
+import java.util.Set;
+
+/**
+ * How the catalogue is split across shards. A brewery, its beers and the reviews of those beers live
+ * on the shard of the brewery id. Users are not partitioned: every shard holds all of them, so that a
+ * review can always be stored next to its beer, and the aggregates of a user are summed over shards.
+ */
+public final class Partitioning {
+
+    // Types whose rows are copied to every shard rather than split across them
+    static final Set<String> REPLICATED_TYPES = Set.of("User");
+
+    private Partitioning() {
+        throw new UnsupportedOperationException("This class is not supposed to be instantiated");
+    }
+
+    public static int shardOf(String breweryId, int shardCount) {
+        return Math.floorMod(breweryId.hashCode(), shardCount);
+    }
+
+    // A beer without a brewery cannot be routed by its brewery, and stays on the first shard
+    public static int shardOf(Beer beer, int shardCount) {
+        return beer.getBrewery() == null ? 0 : shardOf(beer.getBrewery().getId(), shardCount);
+    }
+
+    public static int shardOf(Review review, int shardCount) {
+        return shardOf(review.getBeer(), shardCount);
+    }
+}
@@ -0,0 +1,265 @@
+package org.example.shard;
+
+import graphql.schema.DataFetchingFieldSelectionSet;
+import graphql.schema.GraphQLCompositeType;
+import graphql.schema.GraphQLList;
+import graphql.schema.GraphQLNamedType;
+import graphql.schema.GraphQLOutputType;
+import graphql.schema.GraphQLTypeUtil;
+import graphql.schema.SelectedField;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.example.shard.ShardDocument.EDGES;
+import static org.example.shard.ShardDocument.PAGE_INFO;
+import static org.example.shard.ShardDocument.TOTAL_COUNT;
+import static org.example.shard.ShardDocument.TYPENAME;
+
+/**
+ * Merges the values the shards returned for one field into the value of the router, shaped by the
+ * client's selection. Values are passed as one slot per shard, {@code null} for a shard that did not
+ * return the value.
+ * <p>
+ * Lists of partitioned entities are concatenated in shard order. A user is on every shard, so lists of
+ * users are joined on the user id, and its review count, histogram and average rating are combined
+ * from the shards. A merged user keeps its id under {@link ShardDocument#ID}, so that the router can
+ * look up a user that only one shard returned. Connections of partitioned entities page through the
+ * shards one after another. Any other value is taken from the first shard that returned one.
+ */
+@SuppressWarnings("unchecked")
+final class ResultMerger {
+
+    private ResultMerger() {
+        throw new UnsupportedOperationException("This class is not supposed to be instantiated");
+    }
+
+    static Object merge(GraphQLOutputType type, DataFetchingFieldSelectionSet selection, Map<String, Object> arguments, Object[] values) {
+        GraphQLOutputType unwrapped = (GraphQLOutputType) GraphQLTypeUtil.unwrapNonNull(type);
+        if (unwrapped instanceof GraphQLList list) {
+            return mergeList((GraphQLOutputType) GraphQLTypeUtil.unwrapNonNull(list.getWrappedType()), selection, values);
+        }
+        if (!(unwrapped instanceof GraphQLCompositeType)) {
+            return firstOf(values);
+        }
+        Map<String, Object> first = (Map<String, Object>) firstOf(values);
+        if (first == null) {
+            return null;
+        }
+        String typeName = (String) first.get(TYPENAME);
+        if (ShardDocument.isPartitionedConnection((GraphQLNamedType) unwrapped)) {
+            return mergeConnection(typeName, selection, arguments, values);
+        }
+        return mergeObject(typeName, selection, values);
+    }
+
+    private static Object mergeList(GraphQLOutputType elementType, DataFetchingFieldSelectionSet selection, Object[] values) {
+        if (firstOf(values) == null) {
+            return null;
+        }
+        String elementTypeName = ((GraphQLNamedType) GraphQLTypeUtil.unwrapAll(elementType)).getName();
+        String joinKey = switch (elementTypeName) {
+            case "User" -> ShardDocument.ID;
+            case "UserEdge" -> ShardDocument.CURSOR;
+            case "RatingBucket" -> ShardDocument.RATING;
+            default -> null;
+        };
+        List<Object[]> elements = new ArrayList<>();
+        Map<Object, Object[]> joined = new LinkedHashMap<>();
+        for (int shard = 0; shard < values.length; shard++) {
+            if (values[shard] == null) {
+                continue;
+            }
+            for (Object element : (List<Object>) values[shard]) {
+                Object[] slots = joinKey == null || element == null
+                        ? null
+                        : joined.computeIfAbsent(((Map<String, Object>) element).get(joinKey), key -> new Object[values.length]);
+                if (slots == null) {
+                    slots = new Object[values.length];
+                    elements.add(slots);
+                }
+                slots[shard] = element;
+            }
+        }
+        elements.addAll(joined.values());
+        if (elementTypeName.equals("RatingBucket")) {
+            elements.sort(Comparator.comparingInt(slots -> ((Number) ((Map<?, ?>) firstOf(slots)).get(ShardDocument.RATING)).intValue()));
+        }
+        List<Object> merged = new ArrayList<>(elements.size());
+        for (Object[] slots : elements) {
+            merged.add(merge(elementType, selection, Map.of(), slots));
+        }
+        return merged;
+    }
+
+    private static Map<String, Object> mergeObject(String typeName, DataFetchingFieldSelectionSet selection, Object[] values) {
+        Map<String, Object> merged = new LinkedHashMap<>();
+        merged.put(TYPENAME, typeName);
+        if (typeName.equals("User")) {
+            merged.put(ShardDocument.ID, ((Map<String, Object>) firstOf(values)).get(ShardDocument.ID));
+        }
+        for (SelectedField field : fieldsOf(selection, typeName)) {
+            String key = field.getResultKey();
+            if (merged.containsKey(key)) {
+                continue;
+            }
+            Object[] fieldValues = new Object[values.length];
+            for (int shard = 0; shard < values.length; shard++) {
+                if (values[shard] != null) {
+                    fieldValues[shard] = ((Map<String, Object>) values[shard]).get(key);
+                }
+            }
+            merged.put(key, mergeField(typeName, field, values, fieldValues));
+        }
+        return merged;
+    }
+
+    private static Object mergeField(String typeName, SelectedField field, Object[] objects, Object[] values) {
+        String name = field.getName();
+        if (typeName.equals("User") && name.equals("reviewCount") || typeName.equals("RatingBucket") && name.equals("count")) {
+            return sum(values);
+        }
+        if (typeName.equals("User") && name.equals("averageRating")) {
+            return weightedAverage(objects, values);
+        }
+        if (name.equals("cursor") && typeName.endsWith("Edge")
+                && !Partitioning.REPLICATED_TYPES.contains(ShardDocument.nodeTypeOf(typeName, "Edge"))) {
+            for (int shard = 0; shard < values.length; shard++) {
+                if (values[shard] != null) {
+                    return ShardDocument.cursor(shard, (String) values[shard]);
+                }
+            }
+            return null;
+        }
+        return merge(field.getType(), field.getSelectionSet(), field.getArguments(), values);
+    }
+
+    /**
+     * Concatenates the pages of the shards, from the shard of the {@code after} cursor on, and cuts
+     * the result to the requested size. Edge cursors carry the shard they came from.
+     */
+    private static Map<String, Object> mergeConnection(String typeName, DataFetchingFieldSelectionSet selection,
+                                                       Map<String, Object> arguments, Object[] values) {
+        int first = arguments.get("first") instanceof Integer size ? size : Integer.MAX_VALUE;
+        String after = (String) arguments.get("after");
+        int fromShard = ShardDocument.shardOfCursor(after);
+
+        // The edges of the page as (shard, index within the shard's edges)
+        List<int[]> page = new ArrayList<>();
+        boolean hasNextPage = false;
+        for (int shard = fromShard; shard < values.length; shard++) {
+            Map<String, Object> connection = (Map<String, Object>) values[shard];
+            if (connection == null) {
+                continue;
+            }
+            List<?> edges = (List<?>) connection.get(EDGES);
+            for (int index = 0; index < edges.size(); index++) {
+                if (page.size() == first) {
+                    hasNextPage = true;
+                    break;
+                }
+                page.add(new int[]{shard, index});
+            }
+            if (Boolean.TRUE.equals(((Map<?, ?>) connection.get(PAGE_INFO)).get("hasNextPage"))) {
+                hasNextPage = true;
+            }
+        }
+
+        Map<String, Object> merged = new LinkedHashMap<>();
+        merged.put(TYPENAME, typeName);
+        for (SelectedField field : fieldsOf(selection, typeName)) {
+            String key = field.getResultKey();
+            switch (field.getName()) {
+                case "edges" -> {
+                    GraphQLOutputType edgeType = (GraphQLOutputType) GraphQLTypeUtil.unwrapNonNull(
+                            ((GraphQLList) GraphQLTypeUtil.unwrapNonNull(field.getType())).getWrappedType());
+                    List<Object> edges = new ArrayList<>(page.size());
+                    for (int[] position : page) {
+                        Object[] slots = new Object[values.length];
+                        slots[position[0]] = ((List<?>) ((Map<?, ?>) values[position[0]]).get(key)).get(position[1]);
+                        edges.add(merge(edgeType, field.getSelectionSet(), Map.of(), slots));
+                    }
+                    merged.put(key, edges);
+                }
+                case "pageInfo" -> merged.put(key, pageInfo(field, values, page, after != null, hasNextPage));
+                case "totalCount" -> {
+                    Object[] totals = new Object[values.length];
+                    for (int shard = 0; shard < values.length; shard++) {
+                        if (values[shard] != null) {
+                            totals[shard] = ((Map<?, ?>) values[shard]).get(TOTAL_COUNT);
+                        }
+                    }
+                    merged.put(key, sum(totals));
+                }
+                default -> merged.put(key, typeName);
+            }
+        }
+        return merged;
+    }
+
+    private static Map<String, Object> pageInfo(SelectedField pageInfoField, Object[] values, List<int[]> page,
+                                                boolean hasPreviousPage, boolean hasNextPage) {
+        Map<String, Object> pageInfo = new LinkedHashMap<>();
+        pageInfo.put(TYPENAME, "PageInfo");
+        for (SelectedField field : fieldsOf(pageInfoField.getSelectionSet(), "PageInfo")) {
+            pageInfo.put(field.getResultKey(), switch (field.getName()) {
+                case "startCursor" -> page.isEmpty() ? null : cursorAt(values, page.getFirst());
+                case "endCursor" -> page.isEmpty() ? null : cursorAt(values, page.getLast());
+                case "hasPreviousPage" -> hasPreviousPage;
+                case "hasNextPage" -> hasNextPage;
+                default -> "PageInfo";
+            });
+        }
+        return pageInfo;
+    }
+
+    private static String cursorAt(Object[] values, int[] position) {
+        List<?> edges = (List<?>) ((Map<?, ?>) values[position[0]]).get(EDGES);
+        return ShardDocument.cursor(position[0], (String) ((Map<?, ?>) edges.get(position[1])).get("cursor"));
+    }
+
+    // A user's average over all shards, weighting the average of each shard by its number of reviews
+    private static Double weightedAverage(Object[] users, Object[] averages) {
+        double total = 0;
+        long count = 0;
+        for (int shard = 0; shard < users.length; shard++) {
+            if (averages[shard] == null) {
+                continue;
+            }
+            long reviews = ((Number) ((Map<?, ?>) users[shard]).get(ShardDocument.REVIEW_COUNT)).longValue();
+            total += ((Number) averages[shard]).doubleValue() * reviews;
+            count += reviews;
+        }
+        return count == 0 ? null : total / count;
+    }
+
+    private static Integer sum(Object[] values) {
+        int sum = 0;
+        boolean present = false;
+        for (Object value : values) {
+            if (value != null) {
+                sum += ((Number) value).intValue();
+                present = true;
+            }
+        }
+        return present ? sum : null;
+    }
+
+    private static List<SelectedField> fieldsOf(DataFetchingFieldSelectionSet selection, String typeName) {
+        return selection.getImmediateFields().stream()
+                .filter(field -> field.getObjectTypeNames().contains(typeName))
+                .toList();
+    }
+
+    private static Object firstOf(Object[] values) {
+        for (Object value : values) {
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.shard;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.example.metrics.Histogram;
+import org.example.metrics.Metrics;
+import org.example.server.GraphQLHttpServer;
+import org.example.utils.JsonUtils;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+/**
+ * Sends operations to the GraphQL endpoints of the shards, in the same JSON format clients use.
+ */
+public class ShardClient {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    // A shard that accepted the connection but hangs fails the request rather than the whole operation
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final Histogram SHARD_REQUEST = Metrics.timer("router.shardRequest");
+
+    private final List<URI> endpoints;
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(CONNECT_TIMEOUT)
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+
+    public ShardClient(List<URI> endpoints) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.endpoints = List.copyOf(endpoints);
+    }
+
+    /**
+     * The endpoints of shards listening on consecutive ports of this host.
+     */
+    public static List<URI> localEndpoints(int shardCount, int firstPort) {
+        return IntStream.range(0, shardCount)
+                .mapToObj(shard -> URI.create("http://localhost:" + (firstPort + shard) + GraphQLHttpServer.PATH))
+                .toList();
+    }
+
+    public int size() {
+        return endpoints.size();
+    }
+
+    public URI endpoint(int shard) {
+        return endpoints.get(shard);
+    }
+
+    /**
+     * Executes an operation on one shard and completes with its response: a map with the data, errors
+     * and extensions members that are present. Completes exceptionally if the shard does not answer
+     * within the request timeout.
+     */
+    public CompletableFuture<Map<String, Object>> execute(int shard, String query, Map<String, Object> variables,
+                                                          Map<String, Object> extensions) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("query", query);
+        if (!variables.isEmpty()) {
+            body.put("variables", variables);
+        }
+        if (!extensions.isEmpty()) {
+            body.put("extensions", extensions);
+        }
+        HttpRequest request = HttpRequest.newBuilder(endpoints.get(shard))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(JsonUtils.serializeToCompactJsonBytes(body)))
+                .build();
+        long start = System.nanoTime();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> {
+                    SHARD_REQUEST.recordSince(start);
+                    return parse(shard, response);
+                });
+    }
+
+    private Map<String, Object> parse(int shard, HttpResponse<InputStream> response) {
+        Map<String, Object> parsed;
+        try (InputStream body = response.body()) {
+            parsed = JsonUtils.convertValue(JsonUtils.readTree(body), new TypeReference<>() {
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException("Shard " + shard + " answered with malformed JSON (HTTP " + response.statusCode() + ")", e);
+        }
+        if (parsed == null || !parsed.containsKey("data") && !parsed.containsKey("errors")) {
+            throw new IllegalStateException("Shard " + shard + " answered without a result (HTTP " + response.statusCode() + ")");
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,149 @@
+package org.example.shard;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the shards of a catalogue as child JVMs on this host. Shard {@code i} serves the data directory
+ * {@code <data dir>/shard-i} on port {@code firstPort + i}, and writes its output to a {@code server.log}
+ * in that directory. The children get the JVM options of this process, so that heap size and
+ * system properties apply to every shard, and the {@linkplain ShardRouter#TOKEN_PROPERTY router token}
+ * of this process, which is generated unless one was set.
+ */
+public class ShardCluster implements AutoCloseable {
+
+    public static final String DATA_DIR_PROPERTY = "data.dir";
+    private static final long READY_POLL_MILLIS = 200;
+
+    private final List<Process> processes;
+    private final List<Path> dataDirs;
+    private final List<URI> endpoints;
+
+    private ShardCluster(List<Process> processes, List<Path> dataDirs, List<URI> endpoints) {
+        this.processes = processes;
+        this.dataDirs = dataDirs;
+        this.endpoints = endpoints;
+    }
+
+    public static Path shardDataDir(String dataDir, int shard) {
+        return Path.of(dataDir, "shard-" + shard);
+    }
+
+    /**
+     * Whether the data directory was already split into this many shards, whose data must then be
+     * served as it is rather than split again.
+     */
+    public static boolean isSplit(String dataDir, int shardCount) {
+        for (int shard = 0; shard < shardCount; shard++) {
+            if (!Files.isDirectory(shardDataDir(dataDir, shard))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts one JVM per shard, running {@code mainClass --serve <port>}.
+     */
+    public static ShardCluster start(Class<?> mainClass, String dataDir, int shardCount, int firstPort) {
+        String java = ProcessHandle.current().info().command()
+                .orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        List<String> jvmOptions = ManagementFactory.getRuntimeMXBean().getInputArguments().stream()
+                .filter(option -> !option.startsWith("-D" + DATA_DIR_PROPERTY + "=") && !option.startsWith("-D" + ShardRouter.TOKEN_PROPERTY + "=")
+                        && !option.startsWith("-agentlib:jdwp"))
+                .toList();
+        String token = System.getProperty(ShardRouter.TOKEN_PROPERTY);
+        if (token == null) {
+            token = UUID.randomUUID().toString();
+            System.setProperty(ShardRouter.TOKEN_PROPERTY, token);
+        }
+
+        List<Process> processes = new ArrayList<>(shardCount);
+        List<Path> dataDirs = new ArrayList<>(shardCount);
+        ShardCluster cluster = new ShardCluster(processes, dataDirs, ShardClient.localEndpoints(shardCount, firstPort));
+        try {
+            for (int shard = 0; shard < shardCount; shard++) {
+                Path shardDir = shardDataDir(dataDir, shard);
+                List<String> command = new ArrayList<>();
+                command.add(java);
+                command.addAll(jvmOptions);
+                command.add("-D" + DATA_DIR_PROPERTY + "=" + shardDir);
+                command.add("-D" + ShardRouter.TOKEN_PROPERTY + "=" + token);
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(mainClass.getName());
+                command.add("--serve");
+                command.add(String.valueOf(firstPort + shard));
+                File log = shardDir.resolve("server.log").toFile();
+                processes.add(new ProcessBuilder(command)
+                        .redirectErrorStream(true)
+                        .redirectOutput(ProcessBuilder.Redirect.appendTo(log))
+                        .start());
+                dataDirs.add(shardDir);
+            }
+        } catch (Exception e) {
+            cluster.close();
+            throw new RuntimeException("Failed to start the shard processes", e);
+        }
+        return cluster;
+    }
+
+    public List<URI> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Waits until every shard answers an operation. Fails early if a shard process exits.
+     */
+    public void awaitReady(ShardClient client, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int shard = 0; shard < processes.size(); shard++) {
+            while (true) {
+                try {
+                    client.execute(shard, "{ __typename }", Map.of(), Map.of()).join();
+                    break;
+                } catch (Exception notYet) {
+                    if (!processes.get(shard).isAlive()) {
+                        throw new IllegalStateException("Shard " + shard + " exited, see " + dataDirs.get(shard).resolve("server.log"));
+                    }
+                    if (System.nanoTime() > deadline) {
+                        throw new IllegalStateException("Shard " + shard + " did not start within " + timeout + " " + unit);
+                    }
+                    sleep();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        processes.forEach(Process::destroy);
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(READY_POLL_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the shards to start", e);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package org.example.shard;
+
+import graphql.language.Argument;
+import graphql.language.ArrayValue;
+import graphql.language.AstPrinter;
+import graphql.language.BooleanValue;
+import graphql.language.Directive;
+import graphql.language.Document;
+import graphql.language.Field;
+import graphql.language.FloatValue;
+import graphql.language.FragmentDefinition;
+import graphql.language.FragmentSpread;
+import graphql.language.InlineFragment;
+import graphql.language.IntValue;
+import graphql.language.NullValue;
+import graphql.language.ObjectField;
+import graphql.language.ObjectValue;
+import graphql.language.OperationDefinition;
+import graphql.language.Selection;
+import graphql.language.SelectionSet;
+import graphql.language.StringValue;
+import graphql.language.Value;
+import graphql.language.VariableDefinition;
+import graphql.language.VariableReference;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLCompositeType;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLFieldsContainer;
+import graphql.schema.GraphQLNamedType;
+import graphql.schema.GraphQLType;
+import graphql.schema.GraphQLTypeUtil;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Prints the operation one shard executes for a root field of a routed operation: that field with
+ * its selections, fragments inlined, and only the variables it still refers to.
+ * <p>
+ * The {@link ResultMerger} needs a few more values than the client asked for, which are selected
+ * under aliases starting with {@value #HIDDEN_PREFIX}: the type of every object, the id and review
+ * count of a user, the rating of a histogram bucket, the cursors, next page flag and total of a
+ * connection, the cursor of an edge, and the index and error of a bulk result.
+ * <p>
+ * The {@code after} cursor of a partitioned connection is a router cursor, {@code <shard>:<shard cursor>}.
+ * Shards before that shard are asked for no edges, the shard itself for the edges after its cursor
+ * and later shards for their first page.
+ */
+final class ShardDocument {
+
+    static final String HIDDEN_PREFIX = "_shard";
+    static final String TYPENAME = "__typename";
+    static final String ID = HIDDEN_PREFIX + "Id";
+    static final String REVIEW_COUNT = HIDDEN_PREFIX + "ReviewCount";
+    static final String RATING = HIDDEN_PREFIX + "Rating";
+    static final String EDGES = HIDDEN_PREFIX + "Edges";
+    static final String CURSOR = HIDDEN_PREFIX + "Cursor";
+    static final String PAGE_INFO = HIDDEN_PREFIX + "PageInfo";
+    static final String TOTAL_COUNT = HIDDEN_PREFIX + "TotalCount";
+    static final String INDEX = HIDDEN_PREFIX + "Index";
+    static final String ERROR = HIDDEN_PREFIX + "Error";
+
+    private static final Field TYPENAME_FIELD = Field.newField(TYPENAME).build();
+    private static final List<Selection<?>> USER_FIELDS = List.of(
+            Field.newField("id").alias(ID).build(),
+            Field.newField("reviewCount").alias(REVIEW_COUNT).build());
+    private static final List<Selection<?>> BUCKET_FIELDS = List.of(Field.newField("rating").alias(RATING).build());
+    private static final List<Selection<?>> CONNECTION_FIELDS = List.of(
+            Field.newField("edges", selectionOf("cursor")).alias(EDGES).build(),
+            Field.newField("pageInfo", selectionOf("hasNextPage")).alias(PAGE_INFO).build(),
+            Field.newField("totalCount").alias(TOTAL_COUNT).build());
+    private static final List<Selection<?>> EDGE_FIELDS = List.of(Field.newField("cursor").alias(CURSOR).build());
+    private static final List<Selection<?>> RESULT_FIELDS = List.of(
+            Field.newField("index").alias(INDEX).build(),
+            Field.newField("error").alias(ERROR).build());
+
+    record ShardRequest(String query, Map<String, Object> variables) {
+    }
+
+    private final DataFetchingEnvironment environment;
+    private final int shard;
+    private final Set<String> usedVariables = new LinkedHashSet<>();
+
+    private ShardDocument(DataFetchingEnvironment environment, int shard) {
+        this.environment = environment;
+        this.shard = shard;
+    }
+
+    /**
+     * @param argumentOverrides root field arguments to send instead of those of the client
+     */
+    static ShardRequest build(DataFetchingEnvironment environment, int shard, Map<String, Object> argumentOverrides) {
+        return build(environment, shard, (GraphQLCompositeType) environment.getParentType(),
+                environment.getOperationDefinition().getOperation(), argumentOverrides);
+    }
+
+    /**
+     * Like {@link #build}, for a field below the root that is looked up again as the query field of
+     * the same name, such as the user of a review as {@code user(id:)}.
+     */
+    static ShardRequest buildLookup(DataFetchingEnvironment environment, int shard, Map<String, Object> argumentOverrides) {
+        return build(environment, shard, environment.getGraphQLSchema().getQueryType(), OperationDefinition.Operation.QUERY, argumentOverrides);
+    }
+
+    private static ShardRequest build(DataFetchingEnvironment environment, int shard, GraphQLCompositeType rootType,
+                                      OperationDefinition.Operation operationType, Map<String, Object> argumentOverrides) {
+        ShardDocument document = new ShardDocument(environment, shard);
+        List<Selection<?>> fields = new ArrayList<>();
+        for (Field field : environment.getMergedField().getFields()) {
+            fields.add(document.rewriteField(field, rootType, argumentOverrides));
+        }
+
+        OperationDefinition operation = environment.getOperationDefinition();
+        List<VariableDefinition> definitions = new ArrayList<>();
+        Map<String, Object> variables = new LinkedHashMap<>();
+        for (VariableDefinition definition : operation.getVariableDefinitions()) {
+            if (document.usedVariables.contains(definition.getName())) {
+                definitions.add(definition);
+                if (environment.getVariables().containsKey(definition.getName())) {
+                    variables.put(definition.getName(), environment.getVariables().get(definition.getName()));
+                }
+            }
+        }
+        OperationDefinition forwarded = OperationDefinition.newOperationDefinition()
+                .operation(operationType)
+                .variableDefinitions(definitions)
+                .selectionSet(SelectionSet.newSelectionSet(fields).build())
+                .build();
+        return new ShardRequest(AstPrinter.printAstCompact(Document.newDocument().definition(forwarded).build()), variables);
+    }
+
+    /**
+     * The router cursor of an edge that came from a shard.
+     */
+    static String cursor(int shard, String shardCursor) {
+        return shard + ":" + shardCursor;
+    }
+
+    /**
+     * The shard a router cursor points into, or 0 for no cursor.
+     */
+    static int shardOfCursor(String cursor) {
+        return cursor == null ? 0 : Integer.parseInt(cursor.substring(0, separatorOf(cursor)));
+    }
+
+    private static int separatorOf(String cursor) {
+        int separator = cursor.indexOf(':');
+        if (separator <= 0 || !cursor.substring(0, separator).chars().allMatch(Character::isDigit)) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return separator;
+    }
+
+    // Only __typename can be selected on a union, which is the one parent that is not a fields container
+    private Field rewriteField(Field field, GraphQLCompositeType parent, Map<String, Object> argumentOverrides) {
+        field.getDirectives().forEach(this::collectVariables);
+        if (field.getName().equals(TYPENAME)) {
+            return field;
+        }
+        GraphQLFieldDefinition definition = ((GraphQLFieldsContainer) parent).getFieldDefinition(field.getName());
+        GraphQLNamedType type = GraphQLTypeUtil.unwrapAll(definition.getType());
+
+        List<Argument> given = new ArrayList<>();
+        for (Argument argument : field.getArguments()) {
+            if (!argumentOverrides.containsKey(argument.getName())) {
+                given.add(argument);
+            }
+        }
+        argumentOverrides.forEach((name, value) -> given.add(Argument.newArgument(name, toValue(value)).build()));
+        List<Argument> arguments = isPartitionedConnection(type) ? pageArguments(given) : given;
+        arguments.forEach(argument -> collectVariables(argument.getValue()));
+
+        SelectionSet selectionSet = type instanceof GraphQLCompositeType composite
+                ? rewriteSelectionSet(field.getSelectionSet(), composite)
+                : field.getSelectionSet();
+        return field.transform(builder -> builder.arguments(arguments).selectionSet(selectionSet));
+    }
+
+    private SelectionSet rewriteSelectionSet(SelectionSet selectionSet, GraphQLCompositeType type) {
+        List<Selection<?>> selections = new ArrayList<>();
+        selections.add(TYPENAME_FIELD);
+        for (Selection<?> selection : selectionSet.getSelections()) {
+            switch (selection) {
+                case Field field -> selections.add(rewriteField(field, type, Map.of()));
+                case InlineFragment fragment -> {
+                    fragment.getDirectives().forEach(this::collectVariables);
+                    GraphQLCompositeType condition = fragment.getTypeCondition() == null ? type : compositeType(fragment.getTypeCondition().getName());
+                    selections.add(fragment.transform(builder -> builder.selectionSet(rewriteSelectionSet(fragment.getSelectionSet(), condition))));
+                }
+                case FragmentSpread spread -> {
+                    spread.getDirectives().forEach(this::collectVariables);
+                    FragmentDefinition definition = environment.getFragmentsByName().get(spread.getName());
+                    GraphQLCompositeType condition = compositeType(definition.getTypeCondition().getName());
+                    selections.add(InlineFragment.newInlineFragment()
+                            .typeCondition(definition.getTypeCondition())
+                            .directives(spread.getDirectives())
+                            .selectionSet(rewriteSelectionSet(definition.getSelectionSet(), condition))
+                            .build());
+                }
+                default -> throw new IllegalArgumentException("Unsupported selection: " + selection);
+            }
+        }
+        selections.addAll(hiddenFields(type.getName()));
+        return SelectionSet.newSelectionSet(selections).build();
+    }
+
+    private static List<Selection<?>> hiddenFields(String typeName) {
+        if (typeName.equals("User")) {
+            return USER_FIELDS;
+        }
+        if (typeName.equals("RatingBucket")) {
+            return BUCKET_FIELDS;
+        }
+        if (typeName.endsWith("Connection")) {
+            return CONNECTION_FIELDS;
+        }
+        if (typeName.endsWith("Edge")) {
+            return EDGE_FIELDS;
+        }
+        if (typeName.endsWith("Result") && !typeName.equals("SearchResult")) {
+            return RESULT_FIELDS;
+        }
+        return List.of();
+    }
+
+    private List<Argument> pageArguments(List<Argument> arguments) {
+        String after = null;
+        for (Argument argument : arguments) {
+            if (argument.getName().equals("after")) {
+                after = (String) valueOf(argument.getValue());
+            }
+        }
+        if (after == null) {
+            return arguments;
+        }
+        int cursorShard = shardOfCursor(after);
+        String shardCursor = after.substring(separatorOf(after) + 1);
+        List<Argument> rewritten = new ArrayList<>();
+        for (Argument argument : arguments) {
+            if (!argument.getName().equals("after") && !(argument.getName().equals("first") && shard < cursorShard)) {
+                rewritten.add(argument);
+            }
+        }
+        if (shard < cursorShard) {
+            // Still asked for, for its total count
+            rewritten.add(Argument.newArgument("first", IntValue.of(0)).build());
+        } else if (shard == cursorShard) {
+            rewritten.add(Argument.newArgument("after", StringValue.of(shardCursor)).build());
+        }
+        return rewritten;
+    }
+
+    static boolean isPartitionedConnection(GraphQLType type) {
+        if (!(type instanceof GraphQLNamedType named) || !named.getName().endsWith("Connection")) {
+            return false;
+        }
+        return !Partitioning.REPLICATED_TYPES.contains(nodeTypeOf(named.getName(), "Connection"));
+    }
+
+    static String nodeTypeOf(String typeName, String suffix) {
+        return typeName.substring(0, typeName.length() - suffix.length());
+    }
+
+    private Object valueOf(Value<?> value) {
+        return switch (value) {
+            case StringValue string -> string.getValue();
+            case VariableReference variable -> environment.getVariables().get(variable.getName());
+            case NullValue ignored -> null;
+            default -> throw new IllegalArgumentException("Unexpected cursor value: " + AstPrinter.printAstCompact(value));
+        };
+    }
+
+    private GraphQLCompositeType compositeType(String name) {
+        return (GraphQLCompositeType) environment.getGraphQLSchema().getType(name);
+    }
+
+    private void collectVariables(Directive directive) {
+        directive.getArguments().forEach(argument -> collectVariables(argument.getValue()));
+    }
+
+    private void collectVariables(Value<?> value) {
+        switch (value) {
+            case VariableReference variable -> usedVariables.add(variable.getName());
+            case ObjectValue object -> object.getObjectFields().forEach(field -> collectVariables(field.getValue()));
+            case ArrayValue array -> array.getValues().forEach(this::collectVariables);
+            default -> {
+            }
+        }
+    }
+
+    private static Value<?> toValue(Object value) {
+        return switch (value) {
+            case null -> NullValue.of();
+            case String string -> StringValue.of(string);
+            case Integer number -> IntValue.of(number);
+            case Double number -> FloatValue.of(number);
+            case Boolean bool -> BooleanValue.of(bool);
+            case Map<?, ?> map -> {
+                List<ObjectField> fields = new ArrayList<>();
+                map.forEach((name, fieldValue) -> fields.add(ObjectField.newObjectField().name((String) name).value(toValue(fieldValue)).build()));
+                yield ObjectValue.newObjectValue().objectFields(fields).build();
+            }
+            case List<?> list -> {
+                ArrayValue.Builder array = ArrayValue.newArrayValue();
+                list.forEach(element -> array.value(toValue(element)));
+                yield array.build();
+            }
+            default -> throw new IllegalArgumentException("Cannot forward argument value: " + value);
+        };
+    }
+
+    private static SelectionSet selectionOf(String fieldName) {
+        return SelectionSet.newSelectionSet().selection(Field.newField(fieldName).build()).build();
+    }
+}
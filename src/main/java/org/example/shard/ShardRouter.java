@@ -0,0 +1,579 @@
+package org.example.shard;
+
+import graphql.ExecutionInput;
+import graphql.GraphQL;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.DataFetcherResult;
+import graphql.execution.instrumentation.Instrumentation;
+import graphql.language.OperationDefinition;
+import graphql.schema.DataFetcherFactories;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLCodeRegistry;
+import graphql.schema.GraphQLList;
+import graphql.schema.GraphQLNamedType;
+import graphql.schema.GraphQLOutputType;
+import graphql.schema.GraphQLTypeUtil;
+import graphql.schema.PropertyDataFetcher;
+import graphql.schema.SelectedField;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.TypeDefinitionRegistry;
+import org.example.execution.DurabilityInstrumentation;
+import org.example.metrics.Metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Serves the catalogue schema from a set of shards without holding any data. Each root field is
+ * forwarded to the shards that can hold a part of its value, concurrently, and their answers are
+ * merged by {@link ResultMerger}.
+ * <p>
+ * A brewery lookup and the beers of one brewery go to the shard of the brewery, everything else to
+ * all shards. Of the mutations, a beer goes to the shard of its brewery, and a review to every shard,
+ * since only the shard of its beer accepts it. A user is added to every shard under an id the router
+ * assigns, which it passes on with the {@linkplain #TOKEN_PROPERTY token} it shares with the shards,
+ * so that clients cannot choose user ids. Subscriptions are not routed; clients subscribe on the shard
+ * they are interested in.
+ * <p>
+ * A review comes from the shard of its beer, which only holds its part of the reviews of the review's
+ * user. So a user below a review that is selected with any of its {@linkplain #USER_AGGREGATES
+ * aggregates} is looked up again with {@code user(id:)} on every shard, once per operation for the
+ * same selection.
+ * <p>
+ * Since every shard holds every user, a user is sent again, a few times, to the shards that failed
+ * or did not answer; a shard takes a user it already holds under the same id and fields as added. A
+ * user some shards still miss after that is reported with an error naming the user and those shards.
+ * Adding it again through the router would create another user, so the missing copies are restored
+ * by hand: its entry is copied, without the {@code batch} field, from the mutation log of a shard
+ * that has it to the logs of the shards that miss it, which replay it on their next start.
+ */
+@SuppressWarnings("unchecked")
+public class ShardRouter {
+
+    /**
+     * System property with the secret a router and its shards share. A shard only takes the user ids
+     * of an operation that carries it.
+     */
+    public static final String TOKEN_PROPERTY = "shard.token";
+
+    /**
+     * Response extension in which a shard reports the score of every search hit, by the result key
+     * of the search field.
+     */
+    public static final String SEARCH_SCORES = "searchScores";
+
+    private static final String EXTENSIONS = "router.extensions";
+    private static final String DURABILITY = "durability";
+    private static final String ROUTER = "router";
+    private static final String TOKEN = "token";
+    private static final String USER_IDS = "userIds";
+    private static final String USER_LOOKUPS = "router.userLookups";
+    // The fields of a user each shard only knows its part of
+    private static final Set<String> USER_AGGREGATES = Set.of("reviews", "reviewsConnection", "averageRating", "reviewCount", "ratingHistogram");
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int USER_WRITE_ATTEMPTS = 3;
+    private static final long USER_RETRY_DELAY_MILLIS = 500;
+    private static final IntFunction<Map<String, Object>> CLIENT_ARGUMENTS = shard -> Map.of();
+
+    private final ShardClient client;
+    private final boolean syncByDefault;
+    private final String token;
+
+    private ShardRouter(ShardClient client, boolean syncByDefault, String token) {
+        this.client = client;
+        this.syncByDefault = syncByDefault;
+        this.token = token;
+    }
+
+    /**
+     * @param syncByDefault whether mutations wait for durability on the shards unless a request says otherwise
+     */
+    public static GraphQL newGraphQL(TypeDefinitionRegistry typeDefinitionRegistry, ShardClient client,
+                                     Instrumentation instrumentation, boolean syncByDefault) {
+        String token = System.getProperty(TOKEN_PROPERTY);
+        if (token == null || token.isEmpty()) {
+            throw new IllegalStateException("The router needs the token of its shards, set -D" + TOKEN_PROPERTY);
+        }
+        ShardRouter router = new ShardRouter(client, syncByDefault, token);
+        return GraphQL.newGraphQL(new SchemaGenerator().makeExecutableSchema(typeDefinitionRegistry, router.buildRuntimeWiring()))
+                .instrumentation(instrumentation)
+                .build();
+    }
+
+    /**
+     * Keeps the request extensions of an operation around, to forward its durability request.
+     */
+    public static ExecutionInput prepareExecutionInput(ExecutionInput input) {
+        return input.transform(builder -> builder.graphQLContext(Map.of(EXTENSIONS, input.getExtensions())));
+    }
+
+    /**
+     * The user ids a router assigned to the users an operation adds, in input order, or {@code null}
+     * if the operation did not come from a router. Used by the shards.
+     *
+     * @throws IllegalArgumentException if the operation carries ids without the token of this shard
+     */
+    public static List<String> assignedUserIds(Map<String, Object> extensions) {
+        Object routed = extensions == null ? null : extensions.get(ROUTER);
+        if (routed == null) {
+            return null;
+        }
+        String token = System.getProperty(TOKEN_PROPERTY);
+        if (!(routed instanceof Map<?, ?> router) || token == null || token.isEmpty() || !(router.get(TOKEN) instanceof String given)
+                || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8))) {
+            throw new IllegalArgumentException("Only the shard router can assign user ids");
+        }
+        if (!(router.get(USER_IDS) instanceof List<?> ids) || !ids.stream().allMatch(String.class::isInstance)) {
+            throw new IllegalArgumentException("Invalid user ids from the shard router: " + router.get(USER_IDS));
+        }
+        return (List<String>) ids;
+    }
+
+    private RuntimeWiring buildRuntimeWiring() {
+        return RuntimeWiring.newRuntimeWiring()
+                .codeRegistry(GraphQLCodeRegistry.newCodeRegistry()
+                        .defaultDataFetcher(DataFetcherFactories.useDataFetcher(ShardRouter::mergedField)))
+                .type("Query", typeWiring -> typeWiring
+                        .defaultDataFetcher(this::query)
+                        .dataFetcher("search", this::search)
+                        .dataFetcher("metrics", environment -> Metrics.snapshot()))
+                .type("Review", typeWiring -> typeWiring
+                        .dataFetcher("user", this::reviewUser))
+                .type("SearchResult", typeWiring -> typeWiring
+                        .typeResolver(environment -> environment.getSchema().getObjectType(
+                                (String) ((Map<String, Object>) environment.getObject()).get(ShardDocument.TYPENAME))))
+                .type("Mutation", typeWiring -> typeWiring
+                        .dataFetcher("addBeer", this::addBeer)
+                        .dataFetcher("addReview", this::addReview)
+                        .dataFetcher("addUser", this::addUser)
+                        .dataFetcher("addBeers", this::addBeers)
+                        .dataFetcher("addReviews", this::addReviews)
+                        .dataFetcher("addUsers", this::addUsers))
+                .type("Subscription", typeWiring -> typeWiring
+                        .defaultDataFetcher(environment -> {
+                            throw new IllegalArgumentException("Subscriptions are not routed, subscribe on a shard instead");
+                        }))
+                .build();
+    }
+
+    // Below the root, values are read from the merged result under their alias
+    private static Object mergedField(DataFetchingEnvironment environment) {
+        if (environment.getSource() instanceof Map<?, ?> merged && merged.containsKey(ShardDocument.TYPENAME)) {
+            return merged.get(environment.getMergedField().getResultKey());
+        }
+        return PropertyDataFetcher.fetching(environment.getField().getName()).get(environment);
+    }
+
+    private CompletableFuture<DataFetcherResult<Object>> query(DataFetchingEnvironment environment) {
+        List<Integer> shards = switch (environment.getField().getName()) {
+            case "brewery" -> List.of(shardOf(environment.getArgument("id")));
+            case "beersConnection" -> environment.getArgument("breweryId") == null
+                    ? allShards()
+                    : List.of(shardOf(environment.getArgument("breweryId")));
+            default -> allShards();
+        };
+        return forward(environment, shards, CLIENT_ARGUMENTS).thenApply(responses -> merged(environment, responses));
+    }
+
+    /**
+     * Every shard ranks its own matches and reports their scores, so the hits of all shards are merged
+     * by score, best first and the lower shard first on a tie, up to the requested number.
+     */
+    private CompletableFuture<DataFetcherResult<Object>> search(DataFetchingEnvironment environment) {
+        Integer requested = environment.getArgument("first");
+        int first = requested == null ? DEFAULT_PAGE_SIZE : requested;
+        return forward(environment, allShards(), CLIENT_ARGUMENTS).thenApply(responses -> {
+            Object[] values = valuesOf(responses);
+            List<Double>[] scores = new List[values.length];
+            responses.forEach(response -> scores[response.shard()] = response.scores());
+            int[] taken = new int[values.length];
+            List<Object> hits = new ArrayList<>();
+            while (hits.size() < first) {
+                int best = -1;
+                for (int shard = 0; shard < values.length; shard++) {
+                    List<Object> shardHits = (List<Object>) values[shard];
+                    if (shardHits != null && taken[shard] < shardHits.size()
+                            && (best < 0 || scoreOf(scores[shard], taken[shard]) > scoreOf(scores[best], taken[best]))) {
+                        best = shard;
+                    }
+                }
+                if (best < 0) {
+                    break;
+                }
+                hits.add(ResultMerger.merge(elementTypeOf(environment), environment.getSelectionSet(), Map.of(),
+                        slotOf(best, ((List<Object>) values[best]).get(taken[best]++))));
+            }
+            return result(environment, hits, responses);
+        });
+    }
+
+    // A shard that reported no scores ranks its hits after every scored one
+    private static double scoreOf(List<Double> scores, int rank) {
+        return scores == null || rank >= scores.size() ? Double.NEGATIVE_INFINITY : scores.get(rank);
+    }
+
+    private Object reviewUser(DataFetchingEnvironment environment) {
+        Map<String, Object> user = (Map<String, Object>) mergedField(environment);
+        if (user == null || environment.getSelectionSet().getImmediateFields().stream()
+                .noneMatch(field -> USER_AGGREGATES.contains(field.getName()))) {
+            return user;
+        }
+        Map<String, Object> arguments = Map.of("id", user.get(ShardDocument.ID));
+        ShardDocument.ShardRequest request = ShardDocument.buildLookup(environment, 0, arguments);
+        Map<String, CompletableFuture<List<ShardResponse>>> lookups = environment.getGraphQlContext()
+                .computeIfAbsent(USER_LOOKUPS, key -> new ConcurrentHashMap<>());
+        return lookups.computeIfAbsent(request.query() + request.variables(),
+                        key -> send(environment, allShards(), shard -> ShardDocument.buildLookup(environment, shard, arguments), Map.of()))
+                .thenApply(responses -> merged(environment, responses));
+    }
+
+    private CompletableFuture<DataFetcherResult<Object>> addBeer(DataFetchingEnvironment environment) {
+        Map<String, Object> input = environment.getArgument("input");
+        return forward(environment, List.of(shardOf(input.get("breweryId"))), CLIENT_ARGUMENTS)
+                .thenApply(responses -> merged(environment, responses));
+    }
+
+    // Stored by the shard of its beer and rejected by the others
+    private CompletableFuture<DataFetcherResult<Object>> addReview(DataFetchingEnvironment environment) {
+        return forward(environment, allShards(), CLIENT_ARGUMENTS).thenApply(responses -> {
+            for (ShardResponse response : responses) {
+                if (response.value() != null) {
+                    return merged(environment, List.of(response));
+                }
+            }
+            return result(environment, null, responses);
+        });
+    }
+
+    private CompletableFuture<DataFetcherResult<Object>> addUser(DataFetchingEnvironment environment) {
+        String id = UUID.randomUUID().toString();
+        return replicate(environment, List.of(id), ShardRouter::hasNoErrors).thenApply(responses -> {
+            List<ShardResponse> stored = responses.stream().filter(ShardRouter::hasNoErrors).toList();
+            Object value = ResultMerger.merge(environment.getFieldType(), environment.getSelectionSet(), environment.getArguments(),
+                    valuesOf(stored.isEmpty() ? responses : stored));
+            DataFetcherResult<Object> result = result(environment, value, responses);
+            if (stored.isEmpty() || stored.size() == responses.size()) {
+                return result;
+            }
+            return result.transform(builder -> builder.error(GraphqlErrorBuilder.newError(environment)
+                    .message(missingUser(id, responses.stream().filter(response -> !hasNoErrors(response)).map(ShardResponse::shard).toList()))
+                    .build()));
+        });
+    }
+
+    private CompletableFuture<DataFetcherResult<Object>> addBeers(DataFetchingEnvironment environment) {
+        List<Map<String, Object>> inputs = environment.getArgument("inputs");
+        Map<Integer, List<Integer>> indexesByShard = new TreeMap<>();
+        for (int index = 0; index < inputs.size(); index++) {
+            indexesByShard.computeIfAbsent(shardOf(inputs.get(index).get("breweryId")), shard -> new ArrayList<>()).add(index);
+        }
+        return forward(environment, new ArrayList<>(indexesByShard.keySet()),
+                shard -> Map.of("inputs", indexesByShard.get(shard).stream().map(inputs::get).toList()))
+                .thenApply(responses -> {
+                    Object[][] items = new Object[inputs.size()][];
+                    for (ShardResponse response : responses) {
+                        if (response.value() == null) {
+                            continue;
+                        }
+                        List<Integer> indexes = indexesByShard.get(response.shard());
+                        for (Map<String, Object> item : (List<Map<String, Object>>) response.value()) {
+                            items[indexes.get(((Number) item.get(ShardDocument.INDEX)).intValue())] = slotOf(response.shard(), item);
+                        }
+                    }
+                    return bulkResult(environment, items, responses);
+                });
+    }
+
+    // Each review is taken from the shard that stored it, or the first one that rejected it
+    private CompletableFuture<DataFetcherResult<Object>> addReviews(DataFetchingEnvironment environment) {
+        int count = environment.<List<?>>getArgument("inputs").size();
+        return forward(environment, allShards(), CLIENT_ARGUMENTS).thenApply(responses -> {
+            Object[][] items = new Object[count][];
+            for (ShardResponse response : responses) {
+                if (response.value() == null) {
+                    continue;
+                }
+                List<Map<String, Object>> results = (List<Map<String, Object>>) response.value();
+                for (int index = 0; index < count; index++) {
+                    Map<String, Object> item = results.get(index);
+                    if (items[index] == null || item.get(ShardDocument.ERROR) == null && isRejected(items[index])) {
+                        items[index] = slotOf(response.shard(), item);
+                    }
+                }
+            }
+            return bulkResult(environment, items, responses);
+        });
+    }
+
+    private CompletableFuture<DataFetcherResult<Object>> addUsers(DataFetchingEnvironment environment) {
+        List<String> ids = environment.<List<?>>getArgument("inputs").stream().map(input -> UUID.randomUUID().toString()).toList();
+        return replicate(environment, ids, ShardRouter::storedAll).thenApply(responses -> {
+            Object[][] items = new Object[ids.size()][];
+            String[] errors = new String[ids.size()];
+            for (int index = 0; index < ids.size(); index++) {
+                Object[] stored = new Object[client.size()];
+                Object[] rejected = new Object[client.size()];
+                List<Integer> missing = new ArrayList<>();
+                for (ShardResponse response : responses) {
+                    Map<String, Object> item = response.value() == null ? null : ((List<Map<String, Object>>) response.value()).get(index);
+                    if (item == null || item.get(ShardDocument.ERROR) != null) {
+                        missing.add(response.shard());
+                        rejected[response.shard()] = item;
+                    } else {
+                        stored[response.shard()] = item;
+                    }
+                }
+                if (missing.size() < responses.size()) {
+                    items[index] = stored;
+                    if (!missing.isEmpty()) {
+                        errors[index] = missingUser(ids.get(index), missing);
+                    }
+                } else if (!isEmpty(rejected)) {
+                    items[index] = rejected;
+                }
+            }
+            // Also reported outside the items, so that it is seen when their errors are not selected
+            DataFetcherResult<Object> result = bulkResult(environment, items, errors, responses);
+            return result.transform(builder -> Arrays.stream(errors).filter(Objects::nonNull).forEach(
+                    error -> builder.error(GraphqlErrorBuilder.newError(environment).message(error).build())));
+        });
+    }
+
+    /**
+     * Sends a user mutation to every shard, with the ids the router assigned to its users, and again
+     * to the shards on which {@code stored} does not hold yet, until the attempts run out. Completes
+     * with the last response of every shard.
+     */
+    private CompletableFuture<List<ShardResponse>> replicate(DataFetchingEnvironment environment, List<String> ids,
+                                                             Predicate<ShardResponse> stored) {
+        Map<String, Object> extensions = new LinkedHashMap<>(forwardedExtensions(environment));
+        extensions.put(ROUTER, Map.of(TOKEN, token, USER_IDS, ids));
+        ShardResponse[] latest = new ShardResponse[client.size()];
+        return replicate(environment, extensions, stored, allShards(), latest, 1).thenApply(ignored -> {
+            List<ShardResponse> responses = List.of(latest);
+            trackDurability(environment, responses);
+            return responses;
+        });
+    }
+
+    private CompletableFuture<Void> replicate(DataFetchingEnvironment environment, Map<String, Object> extensions,
+                                              Predicate<ShardResponse> stored, List<Integer> shards, ShardResponse[] latest, int attempt) {
+        return send(environment, shards, shard -> ShardDocument.build(environment, shard, Map.of()), extensions).thenCompose(responses -> {
+            responses.forEach(response -> latest[response.shard()] = response);
+            List<Integer> failed = responses.stream().filter(response -> !stored.test(response)).map(ShardResponse::shard).toList();
+            if (failed.isEmpty() || attempt == USER_WRITE_ATTEMPTS) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return CompletableFuture.runAsync(() -> {
+            }, CompletableFuture.delayedExecutor(USER_RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS))
+                    .thenCompose(ignored -> replicate(environment, extensions, stored, failed, latest, attempt + 1));
+        });
+    }
+
+    private static boolean hasNoErrors(ShardResponse response) {
+        return response.value() != null && response.errors().isEmpty();
+    }
+
+    private static boolean storedAll(ShardResponse response) {
+        return hasNoErrors(response)
+                && ((List<Map<String, Object>>) response.value()).stream().allMatch(item -> item.get(ShardDocument.ERROR) == null);
+    }
+
+    private static String missingUser(String id, List<Integer> shards) {
+        return "User " + id + " was not added on shards " + shards + " and has to be restored there";
+    }
+
+    private CompletableFuture<List<ShardResponse>> forward(DataFetchingEnvironment environment, List<Integer> shards,
+                                                           IntFunction<Map<String, Object>> argumentOverrides) {
+        return send(environment, shards, shard -> ShardDocument.build(environment, shard, argumentOverrides.apply(shard)),
+                forwardedExtensions(environment)).thenApply(responses -> {
+            trackDurability(environment, responses);
+            return responses;
+        });
+    }
+
+    private CompletableFuture<List<ShardResponse>> send(DataFetchingEnvironment environment, List<Integer> shards,
+                                                        IntFunction<ShardDocument.ShardRequest> requests, Map<String, Object> extensions) {
+        String resultKey = environment.getMergedField().getResultKey();
+        List<CompletableFuture<ShardResponse>> responses = new ArrayList<>(shards.size());
+        for (int shard : shards) {
+            ShardDocument.ShardRequest request = requests.apply(shard);
+            responses.add(client.execute(shard, request.query(), request.variables(), extensions)
+                    .thenApply(response -> ShardResponse.of(shard, resultKey, response))
+                    .exceptionally(failure -> ShardResponse.unavailable(shard, failure)));
+        }
+        return CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> responses.stream().map(CompletableFuture::join).toList());
+    }
+
+    // A mutation is forwarded with the durability the client asked the router for
+    private Map<String, Object> forwardedExtensions(DataFetchingEnvironment environment) {
+        if (environment.getOperationDefinition().getOperation() != OperationDefinition.Operation.MUTATION) {
+            return Map.of();
+        }
+        return Map.of(DURABILITY, isSync(environment) ? DurabilityInstrumentation.SYNC : DurabilityInstrumentation.ASYNC);
+    }
+
+    private boolean isSync(DataFetchingEnvironment environment) {
+        Map<String, Object> extensions = environment.getGraphQlContext().get(EXTENSIONS);
+        Object requested = extensions == null ? null : extensions.get(DURABILITY);
+        return requested == null ? syncByDefault : DurabilityInstrumentation.SYNC.equals(requested);
+    }
+
+    /**
+     * Hands the durability each shard reported over to the router's own acknowledgement. A write a
+     * shard did not sync yet is not followed up on, so it stays reported as not durable.
+     */
+    private void trackDurability(DataFetchingEnvironment environment, List<ShardResponse> responses) {
+        for (ShardResponse response : responses) {
+            if (response.durable() == null) {
+                continue;
+            }
+            CompletableFuture<Void> durable;
+            if (response.durable()) {
+                durable = CompletableFuture.completedFuture(null);
+            } else if (isSync(environment)) {
+                durable = CompletableFuture.failedFuture(new IllegalStateException("Shard " + response.shard() + " could not sync the mutation"));
+            } else {
+                durable = new CompletableFuture<>();
+            }
+            DurabilityInstrumentation.track(environment.getGraphQlContext(), durable);
+        }
+    }
+
+    private DataFetcherResult<Object> merged(DataFetchingEnvironment environment, List<ShardResponse> responses) {
+        Object value = ResultMerger.merge(environment.getFieldType(), environment.getSelectionSet(), environment.getArguments(), valuesOf(responses));
+        return result(environment, value, responses);
+    }
+
+    private DataFetcherResult<Object> bulkResult(DataFetchingEnvironment environment, Object[][] items, List<ShardResponse> responses) {
+        return bulkResult(environment, items, new String[items.length], responses);
+    }
+
+    /**
+     * One result per input, in input order, each merged from the shards in its slots and with the
+     * given error, if any. An input no shard answered for is rejected.
+     */
+    private DataFetcherResult<Object> bulkResult(DataFetchingEnvironment environment, Object[][] items, String[] errors,
+                                                 List<ShardResponse> responses) {
+        GraphQLOutputType resultType = elementTypeOf(environment);
+        List<SelectedField> fields = environment.getSelectionSet().getImmediateFields();
+        List<Object> results = new ArrayList<>(items.length);
+        for (int index = 0; index < items.length; index++) {
+            Map<String, Object> result;
+            if (items[index] == null) {
+                result = new LinkedHashMap<>();
+                result.put(ShardDocument.TYPENAME, ((GraphQLNamedType) GraphQLTypeUtil.unwrapAll(resultType)).getName());
+                for (SelectedField field : fields) {
+                    result.put(field.getResultKey(), field.getName().equals("error") ? "No shard answered for this item" : null);
+                }
+            } else {
+                result = (Map<String, Object>) ResultMerger.merge(resultType, environment.getSelectionSet(), Map.of(), items[index]);
+            }
+            // Shards number the items they were sent, which may be a subset of the inputs
+            for (SelectedField field : fields) {
+                if (field.getName().equals("index")) {
+                    result.put(field.getResultKey(), index);
+                } else if (field.getName().equals("error") && errors[index] != null) {
+                    result.put(field.getResultKey(), errors[index]);
+                }
+            }
+            results.add(result);
+        }
+        return result(environment, results, responses);
+    }
+
+    // Every shard usually reports the same problem with a request, so each message is reported once
+    private static DataFetcherResult<Object> result(DataFetchingEnvironment environment, Object value, List<ShardResponse> responses) {
+        Set<String> messages = new LinkedHashSet<>();
+        responses.forEach(response -> messages.addAll(response.errors()));
+        DataFetcherResult.Builder<Object> result = DataFetcherResult.newResult().data(value);
+        messages.forEach(message -> result.error(GraphqlErrorBuilder.newError(environment).message(message).build()));
+        return result.build();
+    }
+
+    private Object[] valuesOf(List<ShardResponse> responses) {
+        Object[] values = new Object[client.size()];
+        responses.forEach(response -> values[response.shard()] = response.value());
+        return values;
+    }
+
+    private Object[] slotOf(int shard, Object value) {
+        Object[] slots = new Object[client.size()];
+        slots[shard] = value;
+        return slots;
+    }
+
+    private static boolean isEmpty(Object[] slots) {
+        for (Object slot : slots) {
+            if (slot != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isRejected(Object[] slots) {
+        for (Object slot : slots) {
+            if (slot != null) {
+                return ((Map<?, ?>) slot).get(ShardDocument.ERROR) != null;
+            }
+        }
+        return true;
+    }
+
+    private static GraphQLOutputType elementTypeOf(DataFetchingEnvironment environment) {
+        GraphQLList list = (GraphQLList) GraphQLTypeUtil.unwrapNonNull(environment.getFieldType());
+        return (GraphQLOutputType) GraphQLTypeUtil.unwrapNonNull(list.getWrappedType());
+    }
+
+    private int shardOf(Object breweryId) {
+        return Partitioning.shardOf((String) breweryId, client.size());
+    }
+
+    private List<Integer> allShards() {
+        return IntStream.range(0, client.size()).boxed().toList();
+    }
+
+    private record ShardResponse(int shard, Object value, List<String> errors, Boolean durable, List<Double> scores) {
+
+        static ShardResponse of(int shard, String resultKey, Map<String, Object> response) {
+            Map<String, Object> data = (Map<String, Object>) response.get("data");
+            List<String> errors = new ArrayList<>();
+            List<Map<String, Object>> reported = (List<Map<String, Object>>) response.get("errors");
+            if (reported != null) {
+                reported.forEach(error -> errors.add(String.valueOf(error.get("message"))));
+            }
+            Map<String, Object> extensions = (Map<String, Object>) response.get("extensions");
+            Map<String, Object> durability = extensions == null ? null : (Map<String, Object>) extensions.get(DURABILITY);
+            Map<String, List<Number>> scores = extensions == null ? null : (Map<String, List<Number>>) extensions.get(SEARCH_SCORES);
+            List<Number> fieldScores = scores == null ? null : scores.get(resultKey);
+            return new ShardResponse(shard, data == null ? null : data.get(resultKey), errors,
+                    durability == null ? null : (Boolean) durability.get("durable"),
+                    fieldScores == null ? null : fieldScores.stream().map(Number::doubleValue).toList());
+        }
+
+        static ShardResponse unavailable(int shard, Throwable failure) {
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+            return new ShardResponse(shard, null, List.of("Shard " + shard + " is unavailable: " + cause.getMessage()), null, null);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package org.example.subscription;
+
+import org.example.metrics.Histogram;
+import org.example.metrics.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Fans events out to subscribers that each listen to one key, such as the id of a beer, or to all keys.
+ * <p>
+ * Subscribers are indexed by key, so publishing only touches the subscribers that want the event.
+ * Publishing never blocks: the event is put into each subscriber's bounded buffer, applying the
+ * subscriber's {@link OverflowPolicy} if it is full, and the buffer is drained on the executor as the
+ * subscriber requests more.
+ */
+public class EventPublisher<T> {
+
+    private final Executor executor;
+    private final int bufferSize;
+    private final Set<BufferedSubscription> allKeys = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Set<BufferedSubscription>> byKey = new ConcurrentHashMap<>();
+    private final LongAdder dropped = new LongAdder();
+    private final Histogram fanOut;
+
+    /**
+     * @param name       used for the metrics of this publisher
+     * @param bufferSize maximum number of undelivered events per subscriber
+     */
+    public EventPublisher(String name, Executor executor, int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+        this.fanOut = Metrics.histogram("subscription." + name + ".fanOut", Metrics.ITEMS);
+    }
+
+    /**
+     * Delivers the event to the subscribers of its key and to the subscribers of all keys.
+     *
+     * @param key the key of the event, or {@code null} to deliver it only to the subscribers of all keys
+     */
+    public void publish(String key, T event) {
+        int subscribers = 0;
+        Set<BufferedSubscription> keySubscribers = key == null ? null : byKey.get(key);
+        if (keySubscribers != null) {
+            for (BufferedSubscription subscription : keySubscribers) {
+                subscription.offer(event);
+                subscribers++;
+            }
+        }
+        for (BufferedSubscription subscription : allKeys) {
+            subscription.offer(event);
+            subscribers++;
+        }
+        fanOut.record(subscribers);
+    }
+
+    /**
+     * @param key the key to listen to, or {@code null} for all keys
+     * @return a publisher that starts a new subscription, with its own buffer, for every subscriber
+     */
+    public Flow.Publisher<T> subscribe(String key, OverflowPolicy policy) {
+        return subscriber -> {
+            BufferedSubscription subscription = new BufferedSubscription(key, policy, subscriber);
+            subscriber.onSubscribe(subscription);
+            if (!subscription.cancelled) {
+                add(subscription);
+            }
+        };
+    }
+
+    /**
+     * Completes every subscription once its buffered events are delivered.
+     */
+    public void close() {
+        allKeys.forEach(BufferedSubscription::complete);
+        byKey.values().forEach(subscriptions -> subscriptions.forEach(BufferedSubscription::complete));
+    }
+
+    public int getSubscriberCount() {
+        int count = allKeys.size();
+        for (Set<BufferedSubscription> subscriptions : byKey.values()) {
+            count += subscriptions.size();
+        }
+        return count;
+    }
+
+    /**
+     * Number of events discarded because a subscriber's buffer was full.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns a publisher that runs {@code action} on each item just before passing it on.
+     */
+    public static <T> Flow.Publisher<T> onEach(Flow.Publisher<T> source, Consumer<? super T> action) {
+        return subscriber -> source.subscribe(new Flow.Subscriber<T>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscriber.onSubscribe(subscription);
+            }
+
+            @Override
+            public void onNext(T item) {
+                action.accept(item);
+                subscriber.onNext(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                subscriber.onError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                subscriber.onComplete();
+            }
+        });
+    }
+
+    // Sets of a key are added to and removed inside compute, so a subscription is never added to a set
+    // that is being dropped because it became empty
+
+    private void add(BufferedSubscription subscription) {
+        if (subscription.key == null) {
+            allKeys.add(subscription);
+            return;
+        }
+        byKey.compute(subscription.key, (key, subscriptions) -> {
+            Set<BufferedSubscription> result = subscriptions == null ? ConcurrentHashMap.newKeySet() : subscriptions;
+            result.add(subscription);
+            return result;
+        });
+    }
+
+    private void remove(BufferedSubscription subscription) {
+        if (subscription.key == null) {
+            allKeys.remove(subscription);
+            return;
+        }
+        byKey.computeIfPresent(subscription.key, (key, subscriptions) -> {
+            subscriptions.remove(subscription);
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+    }
+
+    /**
+     * Signals to one subscriber are serialized by the work-in-progress counter: whoever raises it from
+     * zero schedules a drain, and the drain keeps going until it has seen every increment.
+     */
+    private class BufferedSubscription implements Flow.Subscription {
+        private final String key;
+        private final OverflowPolicy policy;
+        private final Flow.Subscriber<? super T> subscriber;
+        private final ArrayDeque<T> buffer = new ArrayDeque<>();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger workInProgress = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private volatile Throwable error;
+
+        private BufferedSubscription(String key, OverflowPolicy policy, Flow.Subscriber<? super T> subscriber) {
+            this.key = key;
+            this.policy = policy;
+            this.subscriber = subscriber;
+        }
+
+        private void offer(T event) {
+            synchronized (buffer) {
+                if (buffer.size() == bufferSize) {
+                    dropped.increment();
+                    if (policy == OverflowPolicy.DROP) {
+                        return;
+                    }
+                    buffer.pollFirst();
+                }
+                buffer.addLast(event);
+            }
+            // Without demand the event waits for the next request, which schedules a drain itself
+            if (demand.get() > 0) {
+                schedule();
+            }
+        }
+
+        private void complete() {
+            completed = true;
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Requested a non-positive number of events: " + n);
+            } else {
+                demand.accumulateAndGet(n, (current, requested) -> current + requested < 0 ? Long.MAX_VALUE : current + requested);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            remove(this);
+            synchronized (buffer) {
+                buffer.clear();
+            }
+        }
+
+        private void schedule() {
+            if (workInProgress.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                deliver();
+                missed = workInProgress.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void deliver() {
+            while (!cancelled) {
+                if (error != null) {
+                    cancel();
+                    subscriber.onError(error);
+                    return;
+                }
+                T event = null;
+                if (demand.get() > 0) {
+                    synchronized (buffer) {
+                        event = buffer.pollFirst();
+                    }
+                }
+                if (event == null) {
+                    if (completed && isEmpty()) {
+                        cancel();
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                demand.decrementAndGet();
+                try {
+                    subscriber.onNext(event);
+                } catch (RuntimeException e) {
+                    // A subscriber must not throw; treat it as gone
+                    cancel();
+                    return;
+                }
+            }
+        }
+
+        private boolean isEmpty() {
+            synchronized (buffer) {
+                return buffer.isEmpty();
+            }
+        }
+    }
+}
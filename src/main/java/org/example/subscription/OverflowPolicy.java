@@ -0,0 +1,16 @@
+package org.example.subscription;
+
+/**
+ * What a subscriber's buffer does with a new event when it is full because the subscriber is not
+ * keeping up.
+ */
+public enum OverflowPolicy {
+    /**
+     * Discard the new event and keep the buffered ones.
+     */
+    DROP,
+    /**
+     * Discard the oldest buffered event, so the subscriber always receives the most recent ones.
+     */
+    LATEST
+}
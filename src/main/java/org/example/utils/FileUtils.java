@@ -2,9 +2,13 @@ package org.example.utils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 public class FileUtils {
 
@@ -38,4 +42,19 @@ public class FileUtils {
             throw new IllegalArgumentException("Failed to read classpath resource: " + resourcePath, e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Moves a completely written file over the target so that the replacement survives a power loss
+     * once this returns: the file is synced before the move, and the directory entry after it.
+     */
+    public static void replaceDurably(Path written, Path target) throws IOException {
+        try (FileChannel file = FileChannel.open(written, StandardOpenOption.WRITE)) {
+            file.force(true);
+        }
+        Files.move(written, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Path directory = target.toAbsolutePath().getParent();
+        try (FileChannel entries = FileChannel.open(directory, StandardOpenOption.READ)) {
+            entries.force(true);
+        }
+    }
+}
@@ -1,23 +1,38 @@
 package org.example.utils;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.example.metrics.Histogram;
+import org.example.metrics.Metrics;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.function.Consumer;
 
 public class JsonUtils {
 
     private static final ObjectMapper OBJECT_MAPPER = objectMapper();
-    private static final String DATA_DIR = "data";
+    private static final ObjectWriter COMPACT_WRITER = OBJECT_MAPPER.writer().without(SerializationFeature.INDENT_OUTPUT);
+    private static final ObjectWriter CANONICAL_WRITER = COMPACT_WRITER.with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+    private static final Histogram SAVE_TO_FILE = Metrics.timer("persistence.saveToJsonFile");
 
     private JsonUtils() {
         throw new UnsupportedOperationException("This class is not supposed to be instantiated");
@@ -28,6 +43,41 @@ public class JsonUtils {
         return deserializeFromJson(json, typeReference);
     }
 
+    /**
+     * Streams a JSON array of flat objects token by token. For each object the values of the requested
+     * fields are written into one reused array, in the order of {@code fields}, and handed to the consumer;
+     * missing fields are {@code null}. The consumer must copy anything it keeps.
+     */
+    public static void streamFromJsonFile(String path, String[] fields, Consumer<String[]> consumer) {
+        Map<String, Integer> fieldIndexes = new HashMap<>();
+        for (int i = 0; i < fields.length; i++) {
+            fieldIndexes.put(fields[i], i);
+        }
+        String[] values = new String[fields.length];
+
+        try (InputStream inputStream = openResourceStream(path);
+             JsonParser parser = OBJECT_MAPPER.getFactory().createParser(inputStream)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("Expected a JSON array in: " + path);
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Arrays.fill(values, null);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    Integer index = fieldIndexes.get(parser.currentName());
+                    JsonToken value = parser.nextToken();
+                    if (value.isStructStart()) {
+                        parser.skipChildren();
+                    } else if (index != null && value != JsonToken.VALUE_NULL) {
+                        values[index] = parser.getText();
+                    }
+                }
+                consumer.accept(values);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error occurred while streaming JSON from: " + path, e);
+        }
+    }
+
     public static <T> String serializeToJson(T data) {
         try {
             return OBJECT_MAPPER.writeValueAsString(data);
@@ -36,6 +86,61 @@ public class JsonUtils {
         }
     }
 
+    public static <T> String serializeToCompactJson(T data) {
+        try {
+            return COMPACT_WRITER.writeValueAsString(data);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Error occurred while serializing object to JSON", e);
+        }
+    }
+
+    public static byte[] serializeToCompactJsonBytes(Object data) {
+        try {
+            return COMPACT_WRITER.writeValueAsBytes(data);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Error occurred while serializing object to JSON", e);
+        }
+    }
+
+    /**
+     * Compact JSON with the entries of every map sorted by key, so that equal values always serialize
+     * to the same string.
+     */
+    public static String serializeToCanonicalJson(Object data) {
+        try {
+            return CANONICAL_WRITER.writeValueAsString(data);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Error occurred while serializing object to JSON", e);
+        }
+    }
+
+    /**
+     * Writes compact JSON straight to the stream, without building an intermediate String.
+     */
+    public static void writeCompactJson(OutputStream outputStream, Object data) {
+        try {
+            COMPACT_WRITER.writeValue(outputStream, data);
+        } catch (IOException e) {
+            throw new RuntimeException("Error occurred while writing JSON to stream", e);
+        }
+    }
+
+    static void writeCompactJson(JsonGenerator generator, Object data) throws IOException {
+        COMPACT_WRITER.writeValue(generator, data);
+    }
+
+    public static JsonNode readTree(InputStream inputStream) {
+        try {
+            return OBJECT_MAPPER.readTree(inputStream);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed JSON: " + e.getMessage(), e);
+        }
+    }
+
+    public static <T> T convertValue(JsonNode node, TypeReference<T> typeReference) {
+        return OBJECT_MAPPER.convertValue(node, typeReference);
+    }
+
     public static <T> T deserializeFromJson(String json, TypeReference<T> typeReference) {
         try {
             return OBJECT_MAPPER.readValue(json, typeReference);
@@ -54,21 +159,24 @@ public class JsonUtils {
     }
 
     public static void saveToJsonFile(String path, Object data) {
+        long start = System.nanoTime();
         try {
-            // Create a directory in the current working directory for data storage
-            File dataDirectory = new File(DATA_DIR);
+            // Create the data directory of the file, relative to the current working directory
+            File outputFile = new File(path).getAbsoluteFile();
+            File dataDirectory = outputFile.getParentFile();
             if (!dataDirectory.exists()) {
                 dataDirectory.mkdirs();
             }
+            String filename = outputFile.getName();
 
-            // Extract the filename from the path
-            String filename = new File(path).getName();
-            File outputFile = new File(dataDirectory, filename);
-
-            // Serialize and save
+            // Serialize into a temporary file and swap it in, so a crash never leaves a half-written file
+            // and the file is on disk once this returns
             String json = OBJECT_MAPPER.writeValueAsString(data);
-            Files.writeString(outputFile.toPath(), json);
+            Path tempFile = new File(dataDirectory, filename + ".tmp").toPath();
+            Files.writeString(tempFile, json);
+            FileUtils.replaceDurably(tempFile, outputFile.toPath());
 
+            SAVE_TO_FILE.recordSince(start);
             System.out.println("Data saved to: " + outputFile.getAbsolutePath());
         } catch (Exception e) {
             throw new RuntimeException("Error saving data to JSON file: " + path, e);
@@ -76,35 +184,27 @@ public class JsonUtils {
     }
 
     /**
-     * Reads content from a resource path, trying classpath first then filesystem
+     * Reads content from a resource path. An existing file on the filesystem wins over the classpath,
+     * so data saved by {@link #saveToJsonFile} is preferred to the bundled copy.
      */
     private static String readResourceContent(String path) {
-        try {
-            // First try to load as absolute classpath resource
-            if (path.startsWith("/")) {
-                return readFromClasspath(path);
-            }
-
-            // Then try to load as relative classpath resource
-            try {
-                return readFromClasspath("/" + path);
-            } catch (IllegalArgumentException e) {
-                // Finally try as filesystem path
-                return new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
-            }
+        try (InputStream inputStream = openResourceStream(path)) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
         } catch (IOException e) {
             throw new RuntimeException("Failed to read resource: " + path, e);
         }
     }
 
-    private static String readFromClasspath(String resourcePath) {
-        try (InputStream inputStream = JsonUtils.class.getResourceAsStream(resourcePath)) {
-            if (inputStream == null) {
-                throw new IllegalArgumentException("Resource not found in classpath: " + resourcePath);
-            }
-            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
-        } catch (IOException e) {
-            throw new IllegalArgumentException("Failed to read classpath resource: " + resourcePath, e);
+    private static InputStream openResourceStream(String path) throws IOException {
+        Path filePath = Paths.get(path);
+        if (Files.exists(filePath)) {
+            return Files.newInputStream(filePath);
+        }
+        String resourcePath = path.startsWith("/") ? path : "/" + path;
+        InputStream inputStream = JsonUtils.class.getResourceAsStream(resourcePath);
+        if (inputStream == null) {
+            throw new IllegalArgumentException("Resource not found in classpath: " + resourcePath);
         }
+        return inputStream;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,216 @@
+package org.example.utils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonFactoryBuilder;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes execution results as compact UTF-8 JSON by walking their data directly, instead of building
+ * the {@link ExecutionResult#toSpecification()} map and handing it to an object mapper. The members
+ * come in the same order: errors, data, extensions.
+ * <p>
+ * Generators are pooled together with their encoding buffers, and write through a stream that is
+ * pointed at the caller's target for the duration of one result. Pretty printing is for debugging
+ * only and is not pooled.
+ */
+public final class ResultWriter {
+
+    private static final int POOL_SIZE = 32;
+    // A pooled buffer that grew past this is dropped instead of kept for the next result
+    private static final int MAX_RETAINED_BUFFER = 4 << 20;
+
+    // A pooled generator writes many root values, and its target is switched around under it
+    private static final JsonFactory FACTORY = new JsonFactoryBuilder()
+            .rootValueSeparator((String) null)
+            .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+            .disable(StreamWriteFeature.FLUSH_PASSED_TO_STREAM)
+            .build();
+    private static final BlockingQueue<PooledGenerator> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private ResultWriter() {
+        throw new UnsupportedOperationException("This class is not supposed to be instantiated");
+    }
+
+    /**
+     * Streams the result to the output without buffering all of it first. The output is not closed.
+     */
+    public static void write(OutputStream outputStream, ExecutionResult result) {
+        PooledGenerator pooled = acquire();
+        write(outputStream, result, pooled);
+        release(pooled);
+    }
+
+    /**
+     * Writes the results as one JSON array, in order.
+     */
+    public static void writeAll(OutputStream outputStream, List<ExecutionResult> results) {
+        PooledGenerator pooled = acquire();
+        pooled.target.delegate = outputStream;
+        try {
+            pooled.generator.writeStartArray();
+            for (ExecutionResult result : results) {
+                writeResult(pooled.generator, result);
+            }
+            pooled.generator.writeEndArray();
+            pooled.generator.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Error occurred while writing results to stream", e);
+        } finally {
+            pooled.target.delegate = null;
+        }
+        release(pooled);
+    }
+
+    public static byte[] toBytes(ExecutionResult result) {
+        PooledGenerator pooled = acquire();
+        pooled.buffer.reset();
+        write(pooled.buffer, result, pooled);
+        byte[] bytes = pooled.buffer.toByteArray();
+        release(pooled);
+        return bytes;
+    }
+
+    /**
+     * Indented JSON, for debugging.
+     */
+    public static String toPrettyString(ExecutionResult result) {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = FACTORY.createGenerator(writer)) {
+            generator.useDefaultPrettyPrinter();
+            writeResult(generator, result);
+        } catch (IOException e) {
+            throw new RuntimeException("Error occurred while serializing result to JSON", e);
+        }
+        return writer.toString();
+    }
+
+    // Not released on failure: the generator may be halfway through a value
+    private static void write(OutputStream outputStream, ExecutionResult result, PooledGenerator pooled) {
+        pooled.target.delegate = outputStream;
+        try {
+            writeResult(pooled.generator, result);
+            pooled.generator.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Error occurred while writing result as JSON", e);
+        } finally {
+            pooled.target.delegate = null;
+        }
+    }
+
+    private static void writeResult(JsonGenerator generator, ExecutionResult result) throws IOException {
+        generator.writeStartObject();
+        List<GraphQLError> errors = result.getErrors();
+        if (!errors.isEmpty()) {
+            generator.writeFieldName("errors");
+            generator.writeStartArray();
+            for (GraphQLError error : errors) {
+                writeValue(generator, error.toSpecification());
+            }
+            generator.writeEndArray();
+        }
+        if (result.isDataPresent()) {
+            generator.writeFieldName("data");
+            writeValue(generator, result.getData());
+        }
+        Map<Object, Object> extensions = result.getExtensions();
+        if (extensions != null) {
+            generator.writeFieldName("extensions");
+            writeValue(generator, extensions);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        switch (value) {
+            case null -> generator.writeNull();
+            case String string -> generator.writeString(string);
+            case Map<?, ?> map -> {
+                generator.writeStartObject();
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    generator.writeFieldName(String.valueOf(entry.getKey()));
+                    writeValue(generator, entry.getValue());
+                }
+                generator.writeEndObject();
+            }
+            case List<?> list when list instanceof RandomAccess -> {
+                generator.writeStartArray();
+                for (int i = 0; i < list.size(); i++) {
+                    writeValue(generator, list.get(i));
+                }
+                generator.writeEndArray();
+            }
+            case Iterable<?> iterable -> {
+                generator.writeStartArray();
+                for (Object element : iterable) {
+                    writeValue(generator, element);
+                }
+                generator.writeEndArray();
+            }
+            case Integer number -> generator.writeNumber(number);
+            case Long number -> generator.writeNumber(number);
+            case Double number -> generator.writeNumber(number);
+            case Float number -> generator.writeNumber(number);
+            case BigDecimal number -> generator.writeNumber(number);
+            case BigInteger number -> generator.writeNumber(number);
+            case Boolean bool -> generator.writeBoolean(bool);
+            // Anything else, such as a date in an extension, goes through the object mapper
+            default -> JsonUtils.writeCompactJson(generator, value);
+        }
+    }
+
+    private static PooledGenerator acquire() {
+        PooledGenerator pooled = POOL.poll();
+        return pooled != null ? pooled : new PooledGenerator();
+    }
+
+    private static void release(PooledGenerator pooled) {
+        if (pooled.buffer.size() > MAX_RETAINED_BUFFER) {
+            return;
+        }
+        POOL.offer(pooled);
+    }
+
+    private static final class PooledGenerator {
+        final RedirectingOutputStream target = new RedirectingOutputStream();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final JsonGenerator generator;
+
+        PooledGenerator() {
+            try {
+                generator = FACTORY.createGenerator(target, JsonEncoding.UTF8);
+            } catch (IOException e) {
+                throw new RuntimeException("Error creating JSON generator", e);
+            }
+        }
+    }
+
+    private static final class RedirectingOutputStream extends OutputStream {
+        OutputStream delegate;
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            delegate.write(bytes, offset, length);
+        }
+    }
+}